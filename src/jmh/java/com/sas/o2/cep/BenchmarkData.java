@@ -0,0 +1,116 @@
+package com.sas.o2.cep;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Test data for benchmarks, built from the sample files in
+ * src/test/resources/pcrf-files.
+ */
+final class BenchmarkData {
+    private static final String PCRF_FILES = "pcrf-files";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return the sample files, gzip compressed
+     */
+    static File[] pcrfFiles() throws URISyntaxException {
+        File[] files = new File(BenchmarkData.class.getClassLoader().getResource(PCRF_FILES).toURI()).listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    /**
+     * @return compressed content of a sample file
+     */
+    static byte[] pcrfFile(final int index) throws IOException, URISyntaxException {
+        return Files.readAllBytes(pcrfFiles()[index].toPath());
+    }
+
+    /**
+     * @return lines of all sample files
+     */
+    static List<String> pcrfLines() throws IOException, URISyntaxException {
+        List<String> lines = new ArrayList<>();
+        for (File file : pcrfFiles()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file)),
+                                                                                  StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.isEmpty()) {
+                        lines.add(line);
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Repeats the sample lines, cut or padded to the given number of fields.
+     *
+     * @param lines
+     *            number of lines
+     * @param columns
+     *            number of fields per line
+     * @return csv body
+     */
+    static byte[] csv(final int lines, final int columns) throws IOException, URISyntaxException {
+        List<String> samples = pcrfLines();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(lines * columns * 8);
+        for (int i = 0; i < lines; i++) {
+            String[] fields = samples.get(i % samples.size()).split(",", -1);
+            StringBuilder line = new StringBuilder();
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                line.append(fields[c % fields.length]);
+            }
+            line.append('\n');
+            out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Schema of string fields for lines of {@link #csv(int, int)}.
+     *
+     * @param columns
+     *            number of fields per line
+     * @param addId
+     *            true to start with the key field added by
+     *            {@link Mode#insertAddId}
+     * @return schema string
+     */
+    static String schema(final int columns, final boolean addId) {
+        StringBuilder schema = new StringBuilder();
+        if (addId) {
+            schema.append("id*:string,");
+        }
+        for (int c = 0; c < columns; c++) {
+            if (c > 0) {
+                schema.append(',');
+            }
+            schema.append("f").append(c);
+            if (c == 0 && !addId) {
+                schema.append('*');
+            }
+            schema.append(":string");
+        }
+        return schema.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package com.sas.o2.cep;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sas.esp.api.server.eventblock.EventBlockType;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Conversion of a csv body into an event block, as done by the producer for
+ * each exchange. Reports time per body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvEventBuilderBenchmark {
+
+    @Param({"100", "10000" })
+    private int lines;
+
+    @Param({"10", "68" })
+    private int columns;
+
+    private byte[] body;
+    private CsvEventBuilder builder;
+
+    @Setup
+    public void setUp() throws Exception {
+        body = BenchmarkData.csv(lines, columns);
+        builder = new CsvEventBuilder(new dfESPschema(BenchmarkData.schema(columns, false)),
+                                      com.sas.o2.cep.Mode.insert, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public dfESPeventblock buildBlock() throws Exception {
+        ArrayList<dfESPevent> events = new ArrayList<>(lines);
+        try (LineSplitter splitter = new LineSplitter(new ByteArrayInputStream(body))) {
+            while (splitter.nextLine()) {
+                events.add(builder.build(splitter.buffer(), splitter.lineOffset(), splitter.lineLength()));
+            }
+        }
+        return new dfESPeventblock(events, EventBlockType.ebt_NORMAL);
+    }
+}
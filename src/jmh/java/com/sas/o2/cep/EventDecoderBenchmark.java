@@ -0,0 +1,69 @@
+package com.sas.o2.cep;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.sas.esp.api.server.eventblock.EventBlockType;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Decoding of received events into {@link EspRow}s, as done by the consumer
+ * for each event of a block. Reports events per time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDecoderBenchmark {
+    private static final int BLOCK_SIZE = 1000;
+
+    @Param({"10", "68" })
+    private int columns;
+
+    private dfESPschema schema;
+    private dfESPeventblock block;
+    private EventDecoder decoder;
+
+    @Setup
+    public void setUp() throws Exception {
+        schema = new dfESPschema(BenchmarkData.schema(columns, false));
+        CsvEventBuilder builder = new CsvEventBuilder(schema, com.sas.o2.cep.Mode.insert, StandardCharsets.UTF_8);
+        ArrayList<dfESPevent> events = new ArrayList<>(BLOCK_SIZE);
+        try (LineSplitter splitter = new LineSplitter(new ByteArrayInputStream(BenchmarkData.csv(BLOCK_SIZE, columns)))) {
+            while (splitter.nextLine()) {
+                events.add(builder.build(splitter.buffer(), splitter.lineOffset(), splitter.lineLength()));
+            }
+        }
+        block = new dfESPeventblock(events, EventBlockType.ebt_NORMAL);
+        decoder = new EventDecoder(new EspRowSchema(schema.getNames(), schema.getTypes()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_SIZE)
+    public void decodeBlock(final Blackhole blackhole) throws Exception {
+        int size = block.getSize();
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(decoder.decode(block.getEvent(i), schema));
+        }
+    }
+}
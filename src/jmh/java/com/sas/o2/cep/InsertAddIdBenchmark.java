@@ -0,0 +1,64 @@
+package com.sas.o2.cep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Id prefixing of {@link com.sas.o2.cep.Mode#insertAddId} per
+ * {@link IdGenerator}, alone and as part of building an event. Runs with 4
+ * threads to show contention.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class InsertAddIdBenchmark {
+
+    @Param({"uuid", "fastUuid", "sequence", "snowflake" })
+    private IdGenerator idGenerator;
+
+    private final StringBuilder target = new StringBuilder(64);
+    private CsvEventBuilder builder;
+    private byte[] line;
+
+    @Setup
+    public void setUp() throws Exception {
+        // one pcrf line without line break
+        byte[] csv = BenchmarkData.csv(1, 68);
+        line = new byte[csv.length - 1];
+        System.arraycopy(csv, 0, line, 0, line.length);
+        builder = new CsvEventBuilder(new dfESPschema(BenchmarkData.schema(68, true)),
+                                      com.sas.o2.cep.Mode.insertAddId, idGenerator, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int appendId() {
+        target.setLength(0);
+        idGenerator.append(target);
+        return target.length();
+    }
+
+    @Benchmark
+    public dfESPevent buildEvent() throws Exception {
+        return builder.build(line, 0, line.length);
+    }
+}
@@ -0,0 +1,105 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Events per time from a producer through a {@link LoopbackClientHandler} to
+ * a consumer - the whole component without esp. Consumer runs on the
+ * publishing thread unless consumerThreads is set, so each call returns when
+ * its events were consumed (or queued to consumer threads).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackThroughputBenchmark {
+    private static final String WINDOW = "TEST/TEST/PCRF_DATA_USAGE_STREAM";
+    private static final String ESP = "dfESP://localhost:55555/" + WINDOW;
+    private static final int LINES = 10000;
+
+    /**
+     * Additional producer parameter, "none" for defaults.
+     */
+    @Param({"none", "batchSize=1000", "parseThreads=4" })
+    private String producerOption;
+
+    @Param({"0", "4" })
+    private int consumerThreads;
+
+    private final LoopbackClientHandler loopback = new LoopbackClientHandler();
+    private final AtomicLong consumed = new AtomicLong();
+    private DefaultCamelContext context;
+    private ProducerTemplate template;
+    private byte[] body;
+    private byte[] pcrfFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        loopback.addWindow(WINDOW, BenchmarkData.schema(68, true));
+        body = BenchmarkData.csv(LINES, 68);
+        pcrfFile = BenchmarkData.pcrfFile(0);
+        context = new DefaultCamelContext();
+        DfESPComponent component = new DfESPComponent();
+        component.setClientHandler(loopback);
+        context.addComponent("dfESP", component);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:csv").to(ESP + "?mode=insertAddId&idGenerator=fastUuid"
+                                          + ("none".equals(producerOption) ? "" : "&" + producerOption));
+                from("direct:gzip").to(ESP + "?mode=insertAddId&idGenerator=fastUuid&compression=gzip");
+                from(ESP + "?consumerThreads=" + consumerThreads).process(new Processor() {
+                    @Override
+                    public void process(final Exchange exchange) {
+                        consumed.incrementAndGet();
+                    }
+                });
+            }
+        });
+        context.start();
+        template = context.createProducerTemplate();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        context.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long publishCsv() {
+        template.sendBody("direct:csv", body);
+        return consumed.get();
+    }
+
+    /**
+     * One compressed sample file per call.
+     */
+    @Benchmark
+    public long publishPcrfFile() {
+        template.sendBody("direct:gzip", pcrfFile);
+        return consumed.get();
+    }
+}
@@ -0,0 +1,84 @@
+package com.sas.o2.cep;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sas.esp.api.server.eventblock.EventBlockType;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Records already held by a route (Object[]s) into an event block: formatted
+ * as csv and parsed again (what routes had to do before) versus handed over
+ * directly. Reports time per body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructuredEventBuilderBenchmark {
+
+    @Param({"100", "10000" })
+    private int lines;
+
+    @Param({"10", "68" })
+    private int columns;
+
+    private List<Object[]> records;
+    private dfESPschema schema;
+    private StructuredEventBuilder builder;
+
+    @Setup
+    public void setUp() throws Exception {
+        records = new ArrayList<>(lines);
+        for (String line : new String(BenchmarkData.csv(lines, columns), StandardCharsets.UTF_8).split("\n")) {
+            records.add(line.split(",", -1));
+        }
+        schema = new dfESPschema(BenchmarkData.schema(columns, false));
+        builder = new StructuredEventBuilder(schema, com.sas.o2.cep.Mode.insert, IdGenerator.uuid);
+    }
+
+    @Benchmark
+    public dfESPeventblock csvRoundTrip() throws Exception {
+        ArrayList<dfESPevent> events = new ArrayList<>(lines);
+        StringBuilder line = new StringBuilder(256);
+        for (Object[] record : records) {
+            line.setLength(0);
+            line.append(com.sas.o2.cep.Mode.insert.prefix());
+            for (int i = 0; i < record.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                line.append(record[i]);
+            }
+            events.add(new dfESPevent(schema, line.toString(), ','));
+        }
+        return new dfESPeventblock(events, EventBlockType.ebt_NORMAL);
+    }
+
+    @Benchmark
+    public dfESPeventblock structured() throws Exception {
+        ArrayList<dfESPevent> events = new ArrayList<>(lines);
+        for (Object[] record : records) {
+            events.add(builder.build(record, null));
+        }
+        return new dfESPeventblock(events, EventBlockType.ebt_NORMAL);
+    }
+}
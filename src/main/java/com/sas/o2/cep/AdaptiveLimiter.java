@@ -0,0 +1,151 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of blocks in flight to esp and adapts the limit to how
+ * esp copes (additive increase, multiplicative decrease): each block
+ * completed within the target latency raises the limit by about one per
+ * round trip, a slow block lowers it by 10%, a failed inject or NACK halves
+ * it. Decreases happen at most once per target latency, so one burst of slow
+ * blocks does not collapse the limit. Senders wait in {@link #acquire()}
+ * while the limit is reached - publishing slows down instead of piling up
+ * blocks in esp.
+ */
+public class AdaptiveLimiter {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveLimiter.class);
+    private static final double SLOW_FACTOR = 0.9;
+    private static final double FAILURE_FACTOR = 0.5;
+
+    private final int maxLimit;
+    private final long targetNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    /**
+     * Current limit - fractional to allow additive increase per block.
+     */
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    /**
+     *
+     * @param maxLimit
+     *            upper bound (and initial value) of limit
+     * @param targetMs
+     *            latency in ms above which a block counts as slow
+     */
+    public AdaptiveLimiter(final int maxLimit, final long targetMs) {
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("Max permits must be at least 1, was " + maxLimit);
+        }
+        this.maxLimit = maxLimit;
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMs);
+        // before flow control there was no limit at all - start open
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime() - targetNanos;
+    }
+
+    /**
+     * Waits till a block may be sent.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public final void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                available.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports completion of a block and adapts the limit.
+     *
+     * @param latencyNanos
+     *            time from inject till completion (inject returned or ACK)
+     * @param success
+     *            false if inject failed or block was NACKed
+     */
+    public final void release(final long latencyNanos, final boolean success) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (!success) {
+                decrease(FAILURE_FACTOR);
+            } else if (latencyNanos > targetNanos) {
+                decrease(SLOW_FACTOR);
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back a permit without adapting the limit - for blocks that were
+     * never sent or are abandoned on stop.
+     */
+    public final void cancel() {
+        lock.lock();
+        try {
+            inFlight--;
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lowers limit unless it was lowered within the last target latency.
+     * Caller must hold lock.
+     */
+    private void decrease(final double factor) {
+        long now = System.nanoTime();
+        if (now - lastDecrease < targetNanos) {
+            return;
+        }
+        lastDecrease = now;
+        limit = Math.max(1, limit * factor);
+        LOG.debug("Esp is slow or failing, lowered in flight limit to " + (int) limit);
+    }
+
+    /**
+     * @return number of blocks that may be in flight currently
+     */
+    public final int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of blocks in flight
+     */
+    public final int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.sas.o2.cep;
+
+/**
+ * Compression of bodies sent by the producer. Compressed bodies are inflated
+ * while they are read, the uncompressed content is never held in memory.
+ *
+ */
+public enum Compression {
+    /**
+     * body is plain csv.
+     */
+    none,
+    /**
+     * body is gzip compressed csv (several members are read one after the
+     * other).
+     */
+    gzip,
+    /**
+     * body is a zip archive, all entries are read one after the other.
+     */
+    zip,
+    /**
+     * gzip, zip or none - detected by the magic bytes at the beginning of
+     * the body.
+     */
+    auto
+}
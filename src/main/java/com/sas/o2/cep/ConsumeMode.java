@@ -0,0 +1,18 @@
+package com.sas.o2.cep;
+
+/**
+ * Defines how the consumer maps events received from esp to exchanges.
+ *
+ */
+public enum ConsumeMode {
+    /**
+     * one exchange per event, body is a list of {@link EspDataItem}.
+     */
+    event,
+    /**
+     * one exchange per event block, body is a list of rows ({@link EspRow}, each a list of
+     * {@link EspDataItem}). Headers {@link DfESPConstants#BLOCK_SIZE} and
+     * {@link DfESPConstants#OPCODE_COUNTS} describe the block.
+     */
+    block
+}
@@ -0,0 +1,322 @@
+package com.sas.o2.cep;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers up to where a consumer has processed the rows of a window, so a
+ * restarted consumer can skip rows of the snapshot it already handled.
+ * Progress is the highest value of an increasing field (e.g. a timestamp) of
+ * the rows processed so far and the key of that row. Rows are numbered in
+ * the order they are delivered (see {@link #delivered(Object, String)}) and
+ * count as progress only once all rows delivered before them are processed,
+ * so rows still queued for worker threads are never skipped. After a row
+ * failed, progress stays before it till the consumer is restarted. When
+ * subscribing again, rows with a lower value than the progress so far, or
+ * the same value and key, count as handled; rows with the same value but
+ * another key are delivered again (at least once). The checkpoint is a
+ * properties file, replaced atomically when saved.
+ */
+public class ConsumerCheckpoint {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerCheckpoint.class);
+    private static final String FIELD = "field";
+    private static final String VALUE = "value";
+    private static final String KEY = "key";
+    private static final String TIMESTAMP = "timestamp";
+
+    /**
+     * Progress a delivered row makes once processed.
+     */
+    private static final class Mark {
+        private final Object value;
+        private final String key;
+        private boolean processed;
+
+        private Mark(final Object value, final String key) {
+            this.value = value;
+            this.key = key;
+        }
+    }
+
+    private final File file;
+    private final String field;
+    /**
+     * Highest value processed - as loaded (String) or as processed (Long,
+     * Double or other).
+     */
+    private Object value;
+    private String key;
+    private long timestamp;
+    /**
+     * Progress at last {@link #resume()} - rows up to it count as handled.
+     */
+    private Object resumeValue;
+    private String resumeKey;
+    private boolean dirty;
+    /**
+     * Number of next delivered row.
+     */
+    private long nextTicket;
+    /**
+     * Rows delivered but not yet counted as progress, by number - processed
+     * ones wait till all rows delivered before them are processed.
+     */
+    private final SortedMap<Long, Mark> outstanding = new TreeMap<>();
+    /**
+     * Number of first row that failed, progress stays before it.
+     * Long.MAX_VALUE if none failed.
+     */
+    private long failedTicket = Long.MAX_VALUE;
+    private long lastSave = System.currentTimeMillis();
+
+    /**
+     *
+     * @param file
+     *            checkpoint file
+     * @param field
+     *            name of increasing field progress is measured by
+     */
+    public ConsumerCheckpoint(final File file, final String field) {
+        this.file = file;
+        this.field = field;
+    }
+
+    /**
+     * Reads checkpoint of a previous run, if existing. A checkpoint of
+     * another field or an unreadable one is ignored.
+     */
+    public final synchronized void load() {
+        if (!file.isFile()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable checkpoint " + file + ": " + e);
+            return;
+        }
+        if (!field.equals(properties.getProperty(FIELD)) || properties.getProperty(VALUE) == null) {
+            LOG.warn("Ignoring checkpoint " + file + " of field " + properties.getProperty(FIELD) + ", expected "
+                     + field);
+            return;
+        }
+        value = properties.getProperty(VALUE);
+        key = properties.getProperty(KEY, "");
+        timestamp = Long.parseLong(properties.getProperty(TIMESTAMP, "0"));
+        LOG.info("Loaded checkpoint " + file + ": " + field + "=" + value + ", key " + key);
+    }
+
+    /**
+     * Takes progress so far as limit of handled rows - called on
+     * subscribing, rows processed afterwards don't change what counts as
+     * handled.
+     */
+    public final synchronized void resume() {
+        resumeValue = value;
+        resumeKey = key;
+    }
+
+    /**
+     * @param rowValue
+     *            value of checkpoint field, may be null
+     * @param rowKey
+     *            key fields of row
+     * @return true if row was processed before last {@link #resume()}
+     */
+    public final synchronized boolean isHandled(final Object rowValue, final String rowKey) {
+        if (resumeValue == null || rowValue == null) {
+            return false;
+        }
+        resumeValue = parse(resumeValue, rowValue);
+        int order = compare(rowValue, resumeValue);
+        return order < 0 || order == 0 && rowKey.equals(resumeKey);
+    }
+
+    /**
+     * Numbers a row (or block of rows) handed on for processing - called in
+     * the order rows are received.
+     *
+     * @param rowValue
+     *            (highest) value of checkpoint field, may be null
+     * @param rowKey
+     *            key fields of row with that value
+     * @return number of row for {@link #completed(long, boolean)}
+     */
+    public final synchronized long delivered(final Object rowValue, final String rowKey) {
+        long ticket = nextTicket++;
+        if (ticket < failedTicket) {
+            outstanding.put(ticket, new Mark(rowValue, rowKey));
+        }
+        return ticket;
+    }
+
+    /**
+     * Records the end of processing a delivered row. Progress advances over
+     * all rows processed without a gap.
+     *
+     * @param ticket
+     *            number of row
+     * @param success
+     *            false if the row failed or was dropped
+     */
+    public final synchronized void completed(final long ticket, final boolean success) {
+        Mark mark = outstanding.get(ticket);
+        if (mark == null) {
+            // delivered after a failed row
+            return;
+        }
+        if (!success) {
+            LOG.warn("Row of " + file + " failed, checkpoint stays before it till restart");
+            failedTicket = ticket;
+            outstanding.tailMap(ticket).clear();
+            return;
+        }
+        mark.processed = true;
+        while (!outstanding.isEmpty()) {
+            Long first = outstanding.firstKey();
+            Mark head = outstanding.get(first);
+            if (!head.processed) {
+                break;
+            }
+            outstanding.remove(first);
+            processed(head.value, head.key);
+        }
+    }
+
+    /**
+     * Advances progress to a processed row.
+     *
+     * @param rowValue
+     *            value of checkpoint field - null values are not recorded
+     * @param rowKey
+     *            key fields of row
+     */
+    private void processed(final Object rowValue, final String rowKey) {
+        if (rowValue == null) {
+            return;
+        }
+        if (value != null) {
+            value = parse(value, rowValue);
+        }
+        if (value == null || compare(rowValue, value) >= 0) {
+            value = rowValue;
+            key = rowKey;
+            timestamp = System.currentTimeMillis();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Saves checkpoint if it changed and the last save is at least
+     * intervalMs ago.
+     *
+     * @param intervalMs
+     *            min time between saves, 0 to save on each change
+     */
+    public final synchronized void saveIfDue(final long intervalMs) {
+        if (dirty && System.currentTimeMillis() - lastSave >= intervalMs) {
+            save();
+        }
+    }
+
+    /**
+     * Saves checkpoint if it changed.
+     */
+    public final synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty(FIELD, field);
+        properties.setProperty(VALUE, value.toString());
+        properties.setProperty(KEY, key);
+        properties.setProperty(TIMESTAMP, Long.toString(timestamp));
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create directory " + parent);
+            }
+            try (OutputStream out = new FileOutputStream(temp)) {
+                properties.store(out, "dfESP consumer checkpoint");
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Can't rename " + temp + " to " + file);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            LOG.warn("Could not save checkpoint " + file + ": " + e);
+        }
+        // retried after interval, not on every row
+        lastSave = System.currentTimeMillis();
+    }
+
+    /**
+     * @return highest value processed as string, null if none
+     */
+    public final synchronized String getValue() {
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @return key of row with highest value processed, null if none
+     */
+    public final synchronized String getKey() {
+        return key;
+    }
+
+    /**
+     * Parses a loaded value according to the type of the row's value.
+     */
+    private Object parse(final Object checkpointValue, final Object rowValue) {
+        if (!(checkpointValue instanceof String)) {
+            return checkpointValue;
+        }
+        try {
+            if (rowValue instanceof Long) {
+                return Long.valueOf((String) checkpointValue);
+            }
+            if (rowValue instanceof Double) {
+                return Double.valueOf((String) checkpointValue);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Checkpoint value " + checkpointValue + " of " + file
+                                            + " does not match type of field " + field, e);
+        }
+        return checkpointValue;
+    }
+
+    /**
+     * Compares values of the checkpoint field.
+     *
+     * @param rowValue
+     *            value of a row
+     * @param checkpointValue
+     *            value of another row or parsed checkpoint value
+     * @return negative, zero or positive if rowValue is lower, equal or
+     *         higher
+     */
+    static int compare(final Object rowValue, final Object checkpointValue) {
+        if (rowValue instanceof Long && checkpointValue instanceof Long) {
+            return Long.compare((Long) rowValue, (Long) checkpointValue);
+        }
+        if (rowValue instanceof Double && checkpointValue instanceof Double) {
+            return Double.compare((Double) rowValue, (Double) checkpointValue);
+        }
+        return rowValue.toString().compareTo(checkpointValue.toString());
+    }
+}
@@ -0,0 +1,171 @@
+package com.sas.o2.cep;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands items (e.g. exchanges) created on the esp callback thread over to worker threads via
+ * bounded queues. Depending on {@link ConsumerOrdering} there is one queue per
+ * worker (key, global) or one queue shared by all workers (none).
+ *
+ * @param <T>
+ *            type of row
+ */
+public class ConsumerDispatcher<T> {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(ConsumerDispatcher.class);
+    /**
+     * Marks end of queue for a worker.
+     */
+    private static final Object STOP = new Object();
+
+    /**
+     * Processes a row on a worker thread.
+     *
+     * @param <T>
+     *            type of row
+     */
+    public interface RowProcessor<T> {
+        /**
+         *
+         * @param row
+         *            row to process
+         */
+        void process(T row);
+    }
+
+    private final RowProcessor<T> processor;
+    private final ConsumerOrdering ordering;
+    private final OverflowPolicy overflowPolicy;
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+    private final int workers;
+
+    /**
+     *
+     * @param processor
+     *            processes rows on worker threads
+     * @param threads
+     *            number of worker threads
+     * @param queueCapacity
+     *            capacity of each queue
+     * @param ordering
+     *            ordering guarantee
+     * @param overflowPolicy
+     *            behaviour if queue is full
+     */
+    public ConsumerDispatcher(final RowProcessor<T> processor, final int threads, final int queueCapacity,
+                              final ConsumerOrdering ordering, final OverflowPolicy overflowPolicy) {
+        this.processor = processor;
+        this.ordering = ordering;
+        this.overflowPolicy = overflowPolicy;
+        if (ordering == ConsumerOrdering.global && threads > 1) {
+            LOG.warn("Ordering global uses a single worker thread, ignoring consumerThreads=" + threads);
+        }
+        this.workers = ordering == ConsumerOrdering.global ? 1 : threads;
+        int queueCount = ordering == ConsumerOrdering.key ? workers : 1;
+        for (int i = 0; i < queueCount; i++) {
+            queues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+        }
+    }
+
+    /**
+     * Starts worker threads.
+     *
+     * @param executor
+     *            executor with at least as many threads as workers
+     */
+    public final void start(final ExecutorService executor) {
+        for (int i = 0; i < workers; i++) {
+            final BlockingQueue<Object> queue = queues.get(i % queues.size());
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    work(queue);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return number of worker threads
+     */
+    public final int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Hands a row over to the workers.
+     *
+     * @param row
+     *            row to process
+     * @param key
+     *            key for ordering, only used for {@link ConsumerOrdering#key}
+     * @return false if row was dropped
+     * @throws InterruptedException
+     *             if interrupted while waiting for space in queue
+     */
+    public final boolean dispatch(final T row, final Object key) throws InterruptedException {
+        BlockingQueue<Object> queue = queues.get(queueIndex(key));
+        switch (overflowPolicy) {
+        case block:
+            queue.put(row);
+            return true;
+        case drop:
+            return queue.offer(row);
+        default:
+            if (!queue.offer(row)) {
+                throw new IllegalStateException("Consumer queue is full (" + queue.size()
+                                                + " rows), processing can't keep up with esp.");
+            }
+            return true;
+        }
+    }
+
+    private int queueIndex(final Object key) {
+        if (queues.size() == 1 || key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        // spread bits, avoid negative index
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % queues.size();
+    }
+
+    /**
+     * Worker loop.
+     */
+    @SuppressWarnings("unchecked")
+    private void work(final BlockingQueue<Object> queue) {
+        try {
+            while (true) {
+                Object row = queue.take();
+                if (row == STOP) {
+                    return;
+                }
+                processor.process((T) row);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lets workers finish queued rows and end. Returns immediately.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for space in queue
+     */
+    public final void stop() throws InterruptedException {
+        for (int i = 0; i < workers; i++) {
+            queues.get(i % queues.size()).put(STOP);
+        }
+    }
+}
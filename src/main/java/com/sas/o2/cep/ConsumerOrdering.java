@@ -0,0 +1,24 @@
+package com.sas.o2.cep;
+
+/**
+ * Ordering guarantee of the consumer if events are processed by worker
+ * threads (see consumerThreads parameter).
+ *
+ */
+public enum ConsumerOrdering {
+    /**
+     * all events are processed in the order received from esp - uses a single
+     * worker thread.
+     */
+    global,
+    /**
+     * events with the same value in keyField are processed in order. Events
+     * are distributed over workers by hash of the key. Requires
+     * consumeMode=event.
+     */
+    key,
+    /**
+     * no ordering - any worker processes any event.
+     */
+    none
+}
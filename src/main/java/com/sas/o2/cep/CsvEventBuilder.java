@@ -0,0 +1,126 @@
+package com.sas.o2.cep;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Creates {@link dfESPevent}s from csv lines given as byte ranges (see
+ * {@link LineSplitter}). Opcode prefix, id for {@link Mode#insertAddId} (see
+ * {@link IdGenerator}) and the decoded line are written into a reused char
+ * buffer, so the only String created per line is the one handed over to esp. Not thread safe -
+ * use one instance per thread/exchange.
+ */
+public class CsvEventBuilder {
+    /**
+     * Schema of target window.
+     */
+    private final dfESPschema schema;
+    /**
+     * Mode how to send data to esp.
+     */
+    private final Mode mode;
+    /**
+     * Generates ids for {@link Mode#insertAddId}.
+     */
+    private final IdGenerator idGenerator;
+    /**
+     * Decodes bytes of a line.
+     */
+    private final CharsetDecoder decoder;
+    /**
+     * Reused target for decoding.
+     */
+    private CharBuffer chars;
+    /**
+     * Reused line including opcode prefix.
+     */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     *
+     * @param schema
+     *            schema of target window
+     * @param mode
+     *            mode for inserting data
+     * @param charset
+     *            encoding of lines
+     */
+    public CsvEventBuilder(final dfESPschema schema, final Mode mode, final Charset charset) {
+        this(schema, mode, IdGenerator.uuid, charset);
+    }
+
+    /**
+     *
+     * @param schema
+     *            schema of target window
+     * @param mode
+     *            mode for inserting data
+     * @param idGenerator
+     *            generates ids for {@link Mode#insertAddId}
+     * @param charset
+     *            encoding of lines
+     */
+    public CsvEventBuilder(final dfESPschema schema, final Mode mode, final IdGenerator idGenerator,
+                           final Charset charset) {
+        this.schema = schema;
+        this.mode = mode;
+        this.idGenerator = idGenerator;
+        this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = CharBuffer.allocate(256);
+    }
+
+    /**
+     * Creates an event from given line.
+     *
+     * @param bytes
+     *            buffer containing the line
+     * @param offset
+     *            start of line within buffer
+     * @param length
+     *            length of line in bytes
+     * @return event for esp
+     * @throws dfESPException
+     *             if esp can't parse the line
+     */
+    public final dfESPevent build(final byte[] bytes, final int offset, final int length) throws dfESPException {
+        line.setLength(0);
+        line.append(mode.prefix());
+        if (mode == Mode.insertAddId) {
+            idGenerator.append(line);
+            line.append(',');
+        }
+        decode(bytes, offset, length);
+        line.append(chars.array(), 0, chars.limit());
+        return new dfESPevent(schema, line.toString(), ',');
+    }
+
+    /**
+     * Decodes line into {@link #chars}, ready to be read from 0 to limit.
+     */
+    private void decode(final byte[] bytes, final int offset, final int length) {
+        int maxChars = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        if (chars.capacity() < maxChars) {
+            chars = CharBuffer.allocate(Math.max(maxChars, chars.capacity() * 2));
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, offset, length), chars, true);
+        decoder.flush(chars);
+        chars.flip();
+    }
+
+    /**
+     * @return last line built including prefix - for logging
+     */
+    public final CharSequence lastLine() {
+        return line;
+    }
+}
@@ -0,0 +1,135 @@
+package com.sas.o2.cep;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sas.esp.api.pubsub.clientGDStatus;
+
+/**
+ * Correlates guaranteed delivery callbacks (ACK/NACK) with the exchanges a
+ * block belongs to. The number of unacknowledged blocks is limited - register
+ * blocks if the window is full.
+ */
+public class DeliveryTracker {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DeliveryTracker.class);
+    /**
+     * Exchanges waiting for a block, by block id (tid).
+     */
+    private final Map<Long, List<PendingExchange>> inFlight = new ConcurrentHashMap<>();
+    /**
+     * One permit per block that may be unacknowledged.
+     */
+    private final Semaphore window;
+
+    /**
+     *
+     * @param maxInFlight
+     *            max number of unacknowledged blocks
+     */
+    public DeliveryTracker(final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive, was " + maxInFlight);
+        }
+        this.window = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Registers a block before it is injected. Waits if max number of
+     * unacknowledged blocks is reached.
+     *
+     * @param blockId
+     *            tid of block
+     * @param owners
+     *            exchanges waiting for this block
+     * @throws InterruptedException
+     *             if interrupted while waiting for the window
+     */
+    public final void register(final long blockId, final List<PendingExchange> owners) throws InterruptedException {
+        window.acquire();
+        inFlight.put(blockId, owners);
+    }
+
+    /**
+     * Handles a guaranteed delivery callback.
+     *
+     * @param status
+     *            ACK, NACK or READY
+     * @param blockId
+     *            tid of block
+     */
+    public final void onStatus(final clientGDStatus status, final long blockId) {
+        if (status == clientGDStatus.ESP_GD_READY) {
+            LOG.debug("Guaranteed delivery connection ready.");
+            return;
+        }
+        if (status == clientGDStatus.ESP_GD_ACK) {
+            done(blockId, null);
+        } else {
+            done(blockId, new EspNackException("Esp engine did not acknowledge block " + blockId + " (" + status.name()
+                                               + ")."));
+        }
+    }
+
+    /**
+     * Completes a block, e.g. if it could not be injected.
+     *
+     * @param blockId
+     *            tid of block
+     * @param cause
+     *            null on success
+     */
+    public final void done(final long blockId, final Exception cause) {
+        List<PendingExchange> owners = inFlight.remove(blockId);
+        if (owners == null) {
+            LOG.warn("Received status for unknown block id " + blockId);
+            return;
+        }
+        window.release();
+        for (PendingExchange owner : owners) {
+            owner.blockDone(cause);
+        }
+    }
+
+    /**
+     * Forgets a block that was not injected without completing its owners,
+     * e.g. to publish its events again later.
+     *
+     * @param blockId
+     *            tid of block
+     * @return owners of block or null if block is already done
+     */
+    public final List<PendingExchange> remove(final long blockId) {
+        List<PendingExchange> owners = inFlight.remove(blockId);
+        if (owners != null) {
+            window.release();
+        }
+        return owners;
+    }
+
+    /**
+     * @return number of blocks waiting for ACK/NACK
+     */
+    public final int getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * Fails all blocks still waiting for ACK/NACK.
+     *
+     * @param cause
+     *            reason
+     */
+    public final void failAll(final Exception cause) {
+        for (Long blockId : inFlight.keySet()) {
+            done(blockId, cause);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.sas.o2.cep;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+
+import com.sas.esp.api.pubsub.clientCallbacks;
+import com.sas.esp.api.pubsub.dfESPclient;
+import com.sas.esp.api.pubsub.dfESPclientHandler;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+
+/**
+ * Connects to esp servers using the esp pub/sub api.
+ */
+public class DfESPClientHandler implements EspClientHandler {
+    private final dfESPclientHandler handler;
+
+    /**
+     * Creates and initializes the esp client handler.
+     */
+    public DfESPClientHandler() {
+        handler = new dfESPclientHandler();
+        /*
+         * all jul logging will be redirected to central slf4j logger. too many
+         * messages will impact performance. see
+         * http://www.slf4j.org/legacy.html#jul-to-slf4j
+         */
+        // ignoring return - has no sense
+        handler.init(Level.WARNING);
+    }
+
+    /**
+     * Client of the esp pub/sub api.
+     */
+    private final class Client implements EspClient {
+        private final dfESPclient client;
+
+        private Client(final dfESPclient client) {
+            this.client = client;
+        }
+
+        @Override
+        public boolean inject(final dfESPeventblock block) {
+            return handler.publisherInject(client, block);
+        }
+
+        @Override
+        public void quiesceProject(final String projectName) throws UnknownHostException {
+            handler.quiesceProject(projectName, client);
+        }
+
+        @Override
+        public void disconnect() {
+            // TODO probably only one of disconnect/stop needed - always logs
+            // error
+            handler.disconnect(client, true);
+        }
+    }
+
+    @Override
+    public final String querySchema(final String windowUri) throws IOException {
+        ArrayList<String> schemaVector = handler.queryMeta(windowUri + "?get=schema");
+        // we noticed that schema vector could be null
+        if (schemaVector == null) {
+            throw new NullPointerException("dfESP handler returned a null schema vector for unknown reason. Cep seems to be offline or not reachable.");
+        }
+        return schemaVector.get(0);
+    }
+
+    @Override
+    public final EspClient publisherStart(final String windowUri, final clientCallbacks callbacks,
+                                          final String gdConfig) {
+        dfESPclient client;
+        if (gdConfig != null) {
+            client = handler.publisherGDStart(windowUri, callbacks, null, gdConfig);
+        } else {
+            client = handler.publisherStart(windowUri, callbacks, null);
+        }
+        return connect(client);
+    }
+
+    @Override
+    public final EspClient subscriberStart(final String windowUri, final boolean snapshot, final int maxQueueSize,
+                                           final clientCallbacks callbacks) {
+        // sets queue size of window within esp engine. engine will ballance
+        // between in and output - if block is set to true.
+        if (!handler.subscriberMaxQueueSize(windowUri, maxQueueSize, true)) {
+            throw new IllegalStateException("Failed to set max queue size for subscriber.");
+        }
+        return connect(handler.subscriberStart(windowUri + "?snapshot=" + snapshot, callbacks, 0));
+    }
+
+    /**
+     * Connects a started client.
+     */
+    private EspClient connect(final dfESPclient client) {
+        if (client == null) {
+            throw new IllegalStateException("Client object creation for connection to CEP engine not possible");
+        }
+        try {
+            handler.connect(client);
+        } catch (SocketException | UnknownHostException e) {
+            throw new IllegalStateException("Can't connect to esp engine.");
+        }
+        return new Client(client);
+    }
+}
@@ -1,16 +1,28 @@
 package com.sas.o2.cep;
 
+import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.regex.Pattern;
 
 import org.apache.camel.Endpoint;
 import org.apache.camel.impl.UriEndpointComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
 /**
  * Represents the component that manages {@link DfESPEndpoint}.
  */
 public class DfESPComponent extends UriEndpointComponent {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DfESPComponent.class);
 
     /**
      * To work with/extending {@link UriEndpointComponent}.
@@ -29,6 +41,214 @@ public class DfESPComponent extends UriEndpointComponent {
      */
     public static final String URL_PATTERN = "^(dfESP)://[-a-zA-Z0-9+&@#/%?=~_|!:,.;]*[-a-zA-Z0-9+&@#/%=~_|]/[a-zA-Z0-9_]*/[a-zA-Z0-9_]*/[a-zA-Z0-9_]*";
 
+    /**
+     * Connection health by esp server (host:port).
+     */
+    private final ConcurrentMap<String, EngineHealth> health = new ConcurrentHashMap<>();
+
+    /**
+     * Client handlers by esp server (host:port). One handler manages the
+     * connections of all producers and consumers of a server.
+     */
+    private final Map<String, EspClientHandler> clientHandlers = new HashMap<>();
+
+    /**
+     * Client handler used for all esp servers instead of connecting to them,
+     * e.g. a {@link LoopbackClientHandler}. Null to connect to esp.
+     */
+    private EspClientHandler clientHandler;
+
+    /**
+     * Runs reconnect attempts of all producers and consumers.
+     */
+    private ScheduledExecutorService reconnectExecutor;
+
+    /**
+     * Schemas of all windows used by endpoints of this component.
+     */
+    private SchemaCache schemaCache;
+
+    /**
+     * Queries schemas of new endpoints in background - null until first
+     * endpoint is created.
+     */
+    private ExecutorService schemaWarmUpExecutor;
+
+    /**
+     * Number of threads querying schemas in background while endpoints are
+     * created. 0 disables warm-up, schemas are then queried when producers
+     * and consumers start.
+     */
+    private int schemaWarmUpThreads = 4;
+
+    /**
+     * File to save fetched schemas to and load them from on next start. Not
+     * used if null.
+     */
+    private String schemaSnapshotFile;
+
+    /**
+     * @return number of threads querying schemas in background
+     */
+    public final int getSchemaWarmUpThreads() {
+        return schemaWarmUpThreads;
+    }
+
+    /**
+     * @param schemaWarmUpThreads
+     *            number of threads querying schemas in background, 0 to
+     *            disable warm-up
+     */
+    public final void setSchemaWarmUpThreads(final int schemaWarmUpThreads) {
+        this.schemaWarmUpThreads = schemaWarmUpThreads;
+    }
+
+    /**
+     * @return path of schema snapshot file
+     */
+    public final String getSchemaSnapshotFile() {
+        return schemaSnapshotFile;
+    }
+
+    /**
+     * @param schemaSnapshotFile
+     *            path of schema snapshot file, null to disable snapshots
+     */
+    public final void setSchemaSnapshotFile(final String schemaSnapshotFile) {
+        this.schemaSnapshotFile = schemaSnapshotFile;
+    }
+
+    /**
+     * @return client handler used for all esp servers, null if endpoints
+     *         connect to esp
+     */
+    public final EspClientHandler getClientHandler() {
+        return clientHandler;
+    }
+
+    /**
+     * @param clientHandler
+     *            client handler used for all esp servers instead of
+     *            connecting to them, e.g. a {@link LoopbackClientHandler}.
+     *            Must be set before endpoints are created.
+     */
+    public final void setClientHandler(final EspClientHandler clientHandler) {
+        this.clientHandler = clientHandler;
+    }
+
+    /**
+     * @return schema cache of this component, created (and loaded from
+     *         snapshot) on first use
+     */
+    public final synchronized SchemaCache getSchemaCache() {
+        if (schemaCache == null) {
+            schemaCache = new SchemaCache(new SchemaCache.Loader() {
+                @Override
+                public String load(final String windowUri) throws Exception {
+                    return getClientHandler(windowUri.split("/")[2]).querySchema(windowUri);
+                }
+            }, schemaSnapshotFile == null ? null : new File(schemaSnapshotFile));
+            schemaCache.loadSnapshot();
+        }
+        return schemaCache;
+    }
+
+    /**
+     * Starts fetching schema of a window in background, so it is ready when
+     * its producer or consumer starts.
+     *
+     * @param windowUri
+     *            uri of window
+     */
+    private void warmUpSchema(final String windowUri) {
+        if (schemaWarmUpThreads <= 0) {
+            return;
+        }
+        synchronized (this) {
+            if (schemaWarmUpExecutor == null) {
+                schemaWarmUpExecutor = getCamelContext().getExecutorServiceManager()
+                    .newFixedThreadPool(this, "DfESPSchemaWarmUp", schemaWarmUpThreads);
+            }
+        }
+        getSchemaCache().prefetch(windowUri, schemaWarmUpExecutor);
+    }
+
+    /**
+     * @param server
+     *            host:port of esp server
+     * @return health of server, shared by all endpoints of this component
+     */
+    public final EngineHealth getHealth(final String server) {
+        EngineHealth result = health.get(server);
+        if (result == null) {
+            result = new EngineHealth(server);
+            EngineHealth existing = health.putIfAbsent(server, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param server
+     *            host:port of esp server
+     * @return initialized client handler of server, shared by all endpoints
+     *         of this component
+     */
+    public final EspClientHandler getClientHandler(final String server) {
+        if (clientHandler != null) {
+            return clientHandler;
+        }
+        synchronized (clientHandlers) {
+            EspClientHandler handler = clientHandlers.get(server);
+            if (handler == null) {
+                LOG.debug("Creating client handler for esp server " + server);
+                handler = createClientHandler();
+                clientHandlers.put(server, handler);
+            }
+            return handler;
+        }
+    }
+
+    /**
+     * @return new initialized client handler
+     */
+    public static EspClientHandler createClientHandler() {
+        return new DfESPClientHandler();
+    }
+
+    /**
+     * @return executor for reconnect attempts, created on first use
+     */
+    public final synchronized ScheduledExecutorService getReconnectExecutor() {
+        if (reconnectExecutor == null) {
+            reconnectExecutor = getCamelContext().getExecutorServiceManager()
+                .newScheduledThreadPool(this, "DfESPReconnect", 1);
+        }
+        return reconnectExecutor;
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        synchronized (this) {
+            if (reconnectExecutor != null) {
+                getCamelContext().getExecutorServiceManager().shutdownNow(reconnectExecutor);
+                reconnectExecutor = null;
+            }
+            if (schemaWarmUpExecutor != null) {
+                getCamelContext().getExecutorServiceManager().shutdownNow(schemaWarmUpExecutor);
+                schemaWarmUpExecutor = null;
+            }
+            schemaCache = null;
+        }
+        synchronized (clientHandlers) {
+            // clients were disconnected by producers and consumers
+            clientHandlers.clear();
+        }
+        super.doStop();
+    }
+
     @Override
     protected final Endpoint createEndpoint(final String uri, final String remaining,
                                             final Map<String, Object> parameters) throws Exception {
@@ -42,6 +262,7 @@ public class DfESPComponent extends UriEndpointComponent {
         }
         Endpoint endpoint = new DfESPEndpoint(uriWithoutParameters, this);
         setProperties(endpoint, parameters);
+        warmUpSchema(uriWithoutParameters);
         return endpoint;
     }
 }
@@ -0,0 +1,34 @@
+package com.sas.o2.cep;
+
+/**
+ * Names of headers set or read by the dfESP component.
+ */
+public final class DfESPConstants {
+    /**
+     * Number of rows in body of a block exchange (Integer).
+     */
+    public static final String BLOCK_SIZE = "DfESPBlockSize";
+    /**
+     * Number of rows per opcode name in body of a block exchange
+     * (Map&lt;String, Integer&gt;).
+     */
+    public static final String OPCODE_COUNTS = "DfESPOpcodeCounts";
+    /**
+     * Set to true on an exchange sent to a producer to quiesce the project
+     * after it, regardless of the quiesce policy (Boolean).
+     */
+    public static final String QUIESCE = "DfESPQuiesce";
+    /**
+     * Set to true on exchanges of the window's contents delivered when the
+     * consumer subscribes (Boolean).
+     */
+    public static final String SNAPSHOT = "DfESPSnapshot";
+    /**
+     * Opcode of events created from a structured body sent to a producer with
+     * mode dynamic (EventOpcodes or its name without "eo_", e.g. "upsert").
+     */
+    public static final String OPCODE = "DfESPOpcode";
+
+    private DfESPConstants() {
+    }
+}
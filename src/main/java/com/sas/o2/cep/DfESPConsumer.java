@@ -1,10 +1,12 @@
 package com.sas.o2.cep;
 
-import java.net.SocketException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
@@ -17,28 +19,46 @@ import com.sas.esp.api.pubsub.clientCallbacks;
 import com.sas.esp.api.pubsub.clientFailureCodes;
 import com.sas.esp.api.pubsub.clientFailures;
 import com.sas.esp.api.pubsub.clientGDStatus;
-import com.sas.esp.api.pubsub.dfESPclient;
-import com.sas.esp.api.pubsub.dfESPclientHandler;
-import com.sas.esp.api.server.datavar.FieldTypes;
 import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
 import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
 import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
 
 /**
  * The dfESP consumer. For each event consumed and processed an {@link List
- * &lt;EspDataItem&gt;} is sent as exchange.
+ * &lt;EspDataItem&gt;} (an {@link EspRow}) is sent as exchange. With {@link ConsumeMode#block} one
+ * exchange is sent per event block. The window's contents received on
+ * subscribing are handed on in chunks, optionally throttled (see
+ * {@link SnapshotMode}). With a {@link ConsumerCheckpoint} rows of the
+ * snapshot processed before a restart are skipped. Events are filtered by opcode and
+ * {@link EventFilter} before they are decoded; only selected fields are
+ * decoded.
  */
 public class DfESPConsumer extends DefaultConsumer implements clientCallbacks {
+    /**
+     * An exchange handed over for processing with the number its rows got
+     * in the checkpoint - taken from the rows before the route may change
+     * the body.
+     */
+    private static final class Delivery {
+        private final Exchange exchange;
+        private final int events;
+        /**
+         * Number of rows in checkpoint, -1 without checkpoint.
+         */
+        private final long ticket;
+
+        private Delivery(final Exchange exchange, final int events, final long ticket) {
+            this.exchange = exchange;
+            this.events = events;
+            this.ticket = ticket;
+        }
+    }
+
     /**
      * Cep will buffer at max this number of events on output. If this size is
      * reached cep will throttle input automatically.
      */
     private static final int MAX_QUEUE_SIZE_CEP = 128;
-    /**
-     * Data from esp is sent with opcode as prefix like "I,N:". This specifies
-     * the character index after this prefix.
-     */
-    private static final Integer INDEX_TO_CUT = 4;
     /**
      * Logger.
      */
@@ -51,21 +71,70 @@ public class DfESPConsumer extends DefaultConsumer implements clientCallbacks {
      * Created this, contains all uri parameters.
      */
     private DfESPEndpoint endpoint;
-    private dfESPclientHandler handler;
-    private dfESPclient client;
+    private EspClientHandler handler;
+    private volatile EspClient client;
+    /**
+     * Names and types of all fields. Extracted from schema - window's meta
+     * data.
+     */
+    private volatile EspRowSchema rowSchema;
+    /**
+     * Last schema received with a block that matched {@link #rowSchema}.
+     */
+    private dfESPschema checkedSchema;
+    /**
+     * Reads (selected) fields of events by index.
+     */
+    private volatile EventDecoder decoder;
+    /**
+     * Condition events must match - null if all are consumed.
+     */
+    private volatile EventFilter eventFilter;
+    /**
+     * Reconnects after connection failures - null if disabled.
+     */
+    private Reconnector reconnector;
+    /**
+     * Hands events over to worker threads - null if events are processed on
+     * callback thread.
+     */
+    private ConsumerDispatcher<Delivery> dispatcher;
+    /**
+     * Runs worker threads of {@link #dispatcher}.
+     */
+    private ExecutorService workerExecutor;
+    /**
+     * Index of key field within decoded rows for ordering by key, -1 if not
+     * used.
+     */
+    private int keyIndex = -1;
     /**
-     * Names for all fields. Extracted from schema - window's meta data.
+     * Names of the window's key fields.
      */
-    private ArrayList<String> fieldNames;
+    private volatile List<String> keyNames;
     /**
-     * Types of all fields. Extracted from schema - window's meta data.
+     * Decodes key fields only, for {@link SnapshotMode#keysOnly}.
      */
-    private ArrayList<FieldTypes> fieldTypes;
+    private volatile EventDecoder keyDecoder;
+    /**
+     * True from subscribing till the snapshot block arrived.
+     */
+    private volatile boolean snapshotPending;
+    /**
+     * Progress of processing - null if disabled.
+     */
+    private ConsumerCheckpoint checkpoint;
 
     public DfESPConsumer(DfESPEndpoint endpoint, Processor processor) {
         super(endpoint, processor);
         this.endpoint = endpoint;
         endpointUri = endpoint.getEndpointUri();
+        if (endpoint.getConsumerThreads() > 0 && endpoint.getOrdering() == ConsumerOrdering.key
+            && endpoint.getConsumeMode() == ConsumeMode.block) {
+            // a block has no key, all blocks would go to one worker
+            throw new IllegalArgumentException("ordering=key requires consumeMode=event, use ordering=global or "
+                                               + "none with consumeMode=block.");
+        }
     }
 
     @Override
@@ -80,9 +149,12 @@ public class DfESPConsumer extends DefaultConsumer implements clientCallbacks {
                   + failureCode.name());
         if (failureCode == clientFailureCodes.pubsubCode_READFAILED
             || failureCode == clientFailureCodes.pubsubCode_WRITEFAILED) {
-            LOG.info("Received " + failureCode.name()
-                     + " from cep engine. Will raise engine down flag. Further attempts to publish will fail.");
-            DfESPEndpoint.engineDown();
+            LOG.info("Received " + failureCode.name() + " from cep engine. Will raise engine down flag for "
+                     + endpoint.getServer() + ".");
+            endpoint.markEngineDown(true);
+            if (reconnector != null) {
+                reconnector.trigger();
+            }
         }
 
     }
@@ -92,93 +164,542 @@ public class DfESPConsumer extends DefaultConsumer implements clientCallbacks {
                                              final Object arg2) {
         int blockSize = eventBlock.getSize();
         LOG.trace("Received block from " + endpointUri + " with " + blockSize + " events");
-        // create exchange for each event
         endpoint.countBlockReceived();
-        for (int i = 0; i < blockSize; i++) {
-            Exchange exchange = endpoint.createExchange();
+        checkSchema(schema);
+        if (snapshotPending) {
+            // esp delivers the window's contents as first block
+            snapshotPending = false;
+            consumeSnapshot(eventBlock, schema);
+        } else {
+            consume(eventBlock, schema, 0, blockSize, false);
+        }
+    }
+
+    /**
+     * Hands on snapshot in chunks of snapshotChunkSize rows, pausing between
+     * chunks to keep below snapshotRate.
+     *
+     * @param eventBlock
+     *            block with window's contents
+     * @param schema
+     *            schema of window
+     */
+    private void consumeSnapshot(final dfESPeventblock eventBlock, final dfESPschema schema) {
+        int blockSize = eventBlock.getSize();
+        LOG.info("Received snapshot of " + endpointUri + " with " + blockSize + " rows");
+        int chunkSize = Math.max(1, endpoint.getSnapshotChunkSize());
+        long start = System.nanoTime();
+        for (int from = 0; from < blockSize && isRunAllowed(); from += chunkSize) {
+            int to = Math.min(blockSize, from + chunkSize);
+            consume(eventBlock, schema, from, to, true);
+            throttle(start, to);
+        }
+    }
+
+    /**
+     * Waits till rows handed on so far are within snapshotRate.
+     *
+     * @param start
+     *            start of snapshot (nano time)
+     * @param rows
+     *            rows handed on since start
+     */
+    private void throttle(final long start, final long rows) {
+        int rate = endpoint.getSnapshotRate();
+        if (rate <= 0) {
+            return;
+        }
+        long wait = start + rows * TimeUnit.SECONDS.toNanos(1) / rate - System.nanoTime();
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Creates exchanges for a range of events of a block.
+     *
+     * @param eventBlock
+     *            block received from esp
+     * @param schema
+     *            schema of window
+     * @param from
+     *            index of first event
+     * @param to
+     *            index after last event
+     * @param snapshot
+     *            true if events are part of the snapshot
+     */
+    private void consume(final dfESPeventblock eventBlock, final dfESPschema schema, final int from, final int to,
+                         final boolean snapshot) {
+        EventDecoder rowDecoder = snapshot && endpoint.getSnapshot() == SnapshotMode.keysOnly ? keyDecoder : decoder;
+        if (endpoint.getConsumeMode() == ConsumeMode.block) {
+            consumeBlock(eventBlock, schema, from, to, rowDecoder, snapshot);
+        } else {
+            consumeEvents(eventBlock, schema, from, to, rowDecoder, snapshot);
+        }
+    }
+
+    /**
+     * Creates an exchange for each event.
+     *
+     * @param eventBlock
+     *            block received from esp
+     * @param schema
+     *            schema of window
+     * @param from
+     *            index of first event
+     * @param to
+     *            index after last event
+     * @param rowDecoder
+     *            decodes events into rows
+     * @param snapshot
+     *            true if events are part of the snapshot
+     */
+    private void consumeEvents(final dfESPeventblock eventBlock, final dfESPschema schema, final int from,
+                               final int to, final EventDecoder rowDecoder, final boolean snapshot) {
+        for (int i = from; i < to; i++) {
             dfESPevent event = eventBlock.getEvent(i);
             // filter by opcode, if not set process all events
-            if (endpoint.getSubscribeMode() == null || endpoint.getSubscribeMode().equals(event.getOpcode())) {
-                try {
-                    List<EspDataItem> espData = createDataItem(event.toStringCSV(schema, true, false));
-                    exchange.getIn().setBody(espData);
-                } catch (dfESPException e) {
-                    throw new IllegalArgumentException("Problem on serializing event, cause: ", e);
+            if (isSubscribed(event, schema)) {
+                EspRow row = decode(rowDecoder, event, schema);
+                if (snapshot && isHandled(row)) {
+                    continue;
                 }
-                try {
-                    getProcessor().process(exchange);
-                    endpoint.countEventReceived();
-                } catch (Exception e) {
-                    throw new IllegalStateException("Error on processing exchange from esp: ", e);
+                Exchange exchange = endpoint.createExchange();
+                exchange.getIn().setBody(row);
+                if (snapshot) {
+                    exchange.getIn().setHeader(DfESPConstants.SNAPSHOT, true);
                 }
+                deliver(exchange, orderingKey(row), Collections.singletonList(row));
             }
         }
     }
 
     /**
-     * Creates an {@link EspDataItem} from given esp-csv string.
+     * Creates one exchange for the whole range. Body is a list of rows.
      *
-     * @param stringCSV
-     *            data received from esp as csv string
-     * @return List of single data items including meta data
+     * @param eventBlock
+     *            block received from esp
+     * @param schema
+     *            schema of window
+     * @param from
+     *            index of first event
+     * @param to
+     *            index after last event
+     * @param rowDecoder
+     *            decodes events into rows
+     * @param snapshot
+     *            true if events are part of the snapshot
      */
-    private List<EspDataItem> createDataItem(final String stringCSV) {
-        // cuts off I,N:, include trailing empty strings
-        String[] dataArray = stringCSV.substring(INDEX_TO_CUT).split(",", -1);
+    private void consumeBlock(final dfESPeventblock eventBlock, final dfESPschema schema, final int from,
+                              final int to, final EventDecoder rowDecoder, final boolean snapshot) {
+        List<EspRow> rows = new ArrayList<>(to - from);
+        Map<String, Integer> opcodeCounts = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            dfESPevent event = eventBlock.getEvent(i);
+            if (isSubscribed(event, schema)) {
+                EspRow row = decode(rowDecoder, event, schema);
+                if (snapshot && isHandled(row)) {
+                    continue;
+                }
+                rows.add(row);
+                String opcode = row.getOpcode().name();
+                Integer count = opcodeCounts.get(opcode);
+                opcodeCounts.put(opcode, count == null ? 1 : count + 1);
+            }
+        }
+        if (!rows.isEmpty()) {
+            Exchange exchange = endpoint.createExchange();
+            exchange.getIn().setBody(rows);
+            exchange.getIn().setHeader(DfESPConstants.BLOCK_SIZE, rows.size());
+            exchange.getIn().setHeader(DfESPConstants.OPCODE_COUNTS, opcodeCounts);
+            if (snapshot) {
+                exchange.getIn().setHeader(DfESPConstants.SNAPSHOT, true);
+            }
+            deliver(exchange, null, rows);
+        }
+    }
 
-        List<EspDataItem> result = new ArrayList<>();
-        if (!(fieldNames.size() == dataArray.length)) {
-            throw new AssertionError(
-                                     "Length of data array should always match length of list of fieldnames. Length of data array: "
-                                             + dataArray.length + ", number of fields given by meta data: "
-                                             + fieldNames.size());
+    /**
+     * Filter by opcode and filter condition, if not set all events are
+     * subscribed.
+     *
+     * @param event
+     *            event received
+     * @param schema
+     *            schema of window
+     * @return true if event should be processed
+     */
+    private boolean isSubscribed(final dfESPevent event, final dfESPschema schema) {
+        if (endpoint.getSubscribeMode() != null && !endpoint.getSubscribeMode().equals(event.getOpcode())) {
+            return false;
         }
-        for (int i = 0; i < dataArray.length; i++) {
-            result.add(new EspDataItem(i, fieldNames.get(i), dataArray[i], fieldTypes.get(i)));
+        EventFilter currentFilter = eventFilter;
+        try {
+            return currentFilter == null || currentFilter.matches(event, schema);
+        } catch (dfESPException e) {
+            throw new IllegalArgumentException("Problem on filtering event, cause: ", e);
+        }
+    }
+
+    /**
+     * Decodes event into data items.
+     */
+    private EspRow decode(final EventDecoder rowDecoder, final dfESPevent event, final dfESPschema schema) {
+        try {
+            return rowDecoder.decode(event, schema);
+        } catch (dfESPException e) {
+            throw new IllegalArgumentException("Problem on reading event, cause: ", e);
+        }
+    }
+
+    /**
+     * @return value of key field for ordering by key, null if not used or
+     *         not contained in row
+     */
+    private Object orderingKey(final EspRow row) {
+        if (keyIndex < 0) {
+            return null;
+        }
+        if (row.getSchema() == decoder.getRowSchema()) {
+            return row.getObject(keyIndex);
+        }
+        int index = row.getSchema().indexOf(endpoint.getKeyField());
+        return index < 0 ? null : row.getObject(index);
+    }
+
+    /**
+     * @return true if row of snapshot was processed before according to
+     *         checkpoint - rows without checkpoint field never are
+     */
+    private boolean isHandled(final EspRow row) {
+        if (checkpoint == null) {
+            return false;
+        }
+        int index = row.getSchema().indexOf(endpoint.getCheckpointField());
+        if (index >= 0 && checkpoint.isHandled(row.getObject(index), rowKey(row))) {
+            LOG.trace("Skipping row of " + endpointUri + " processed before restart");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates delivery of exchange, numbering its rows in the checkpoint
+     * with the progress they make.
+     *
+     * @param exchange
+     *            exchange to process
+     * @param rows
+     *            rows contained in exchange
+     * @return delivery
+     */
+    private Delivery delivery(final Exchange exchange, final List<EspRow> rows) {
+        if (checkpoint == null) {
+            return new Delivery(exchange, rows.size(), -1);
+        }
+        Object value = null;
+        EspRow highest = null;
+        for (EspRow row : rows) {
+            int index = row.getSchema().indexOf(endpoint.getCheckpointField());
+            Object rowValue = index < 0 ? null : row.getObject(index);
+            if (rowValue != null && (value == null || ConsumerCheckpoint.compare(rowValue, value) >= 0)) {
+                value = rowValue;
+                highest = row;
+            }
+        }
+        return new Delivery(exchange, rows.size(),
+                            checkpoint.delivered(value, highest == null ? null : rowKey(highest)));
+    }
+
+    /**
+     * @return values of key fields contained in row, separated by ','
+     */
+    private String rowKey(final EspRow row) {
+        StringBuilder key = new StringBuilder();
+        for (String name : keyNames) {
+            int index = row.getSchema().indexOf(name);
+            if (index >= 0) {
+                if (key.length() > 0) {
+                    key.append(',');
+                }
+                key.append(row.getObject(index));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Sends exchange through the route, records processing time and the
+     * progress of processed rows in the checkpoint.
+     *
+     * @param delivery
+     *            exchange to process
+     * @throws Exception
+     *             on processing problems
+     */
+    private void process(final Delivery delivery) throws Exception {
+        Exchange exchange = delivery.exchange;
+        boolean success = false;
+        try {
+            long start = System.nanoTime();
+            getProcessor().process(exchange);
+            endpoint.recordProcessingTime(System.nanoTime() - start, delivery.events);
+            success = exchange.getException() == null;
+        } finally {
+            completed(delivery, success);
+        }
+    }
+
+    /**
+     * Records end of processing in checkpoint and saves it if due.
+     *
+     * @param delivery
+     *            delivery processed, failed or dropped
+     * @param success
+     *            true if processed without exception
+     */
+    private void completed(final Delivery delivery, final boolean success) {
+        if (checkpoint != null) {
+            checkpoint.completed(delivery.ticket, success);
+            checkpoint.saveIfDue(endpoint.getCheckpointIntervalMs());
+        }
+    }
+
+    /**
+     * Processes exchange on this thread or hands it over to worker threads.
+     *
+     * @param exchange
+     *            exchange to process
+     * @param key
+     *            key for ordering, may be null
+     * @param rows
+     *            rows contained in exchange
+     */
+    private void deliver(final Exchange exchange, final Object key, final List<EspRow> rows) {
+        Delivery delivery = delivery(exchange, rows);
+        int events = rows.size();
+        if (dispatcher == null) {
+            try {
+                process(delivery);
+                endpoint.countEventReceived(events);
+            } catch (Exception e) {
+                throw new IllegalStateException("Error on processing exchange from esp: ", e);
+            }
+            return;
+        }
+        boolean dispatched = false;
+        try {
+            dispatched = dispatcher.dispatch(delivery, key);
+            if (dispatched) {
+                endpoint.countEventReceived(events);
+            } else {
+                endpoint.countEventDropped(events);
+                LOG.debug("Consumer queue full, dropped exchange from " + endpointUri);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for space in consumer queue.", e);
+        } finally {
+            if (!dispatched) {
+                // dropped rows are not processed, checkpoint stays before them
+                completed(delivery, false);
+            }
         }
-        return result;
     }
 
     @Override
     protected final void doStart() throws Exception {
         super.doStart();
         LOG.debug("Subscriber connecting to " + endpointUri);
-        handler = new dfESPclientHandler();
-
-        handler.init(Level.WARNING);
+        handler = endpoint.getClientHandler();
 
-        ArrayList<String> schemaVector;
-        try {
-            schemaVector = handler.queryMeta(endpointUri + "?get=schema");
-            // we noticed that schema vector could be null
-            if (schemaVector == null) {
-                throw new NullPointerException("dfESP handler returned a null schema vector for unknown reason. Cep seems to be offline or not reachable.");
+        if (endpoint.getCheckpointDir() != null) {
+            if (endpoint.getCheckpointField() == null) {
+                throw new IllegalArgumentException("checkpointDir requires checkpointField parameter.");
             }
-        } catch (UnknownHostException e) {
-            throw new IllegalStateException("Problem on fetching meta data from " + endpointUri + ", cause: ", e);
+            checkpoint = new ConsumerCheckpoint(endpoint.getWindowCheckpointFile(), endpoint.getCheckpointField());
+            checkpoint.load();
+        }
+
+        fetchSchema(false);
+
+        if (endpoint.getConsumerThreads() > 0) {
+            startDispatcher();
         }
+
+        subscribe();
+        endpoint.markEngineUp();
+        reconnector = endpoint.createReconnector(new Reconnector.Connector() {
+            @Override
+            public void reconnect() throws Exception {
+                DfESPConsumer.this.reconnect();
+            }
+        });
+    }
+
+    /**
+     * Fetches schema of window and prepares decoding of events.
+     *
+     * @param refresh
+     *            true to query esp even if schema is cached
+     */
+    private void fetchSchema(final boolean refresh) {
         try {
-            dfESPschema schema = new dfESPschema(schemaVector.get(0));
-            fieldNames = schema.getNames();
-            fieldTypes = schema.getTypes();
+            String schemaString = endpoint.fetchSchema(refresh);
+            dfESPschema schema = new dfESPschema(schemaString);
+            rowSchema = new EspRowSchema(schema.getNames(), schema.getTypes());
+            decoder = endpoint.getFields() == null ? new EventDecoder(rowSchema)
+                : new EventDecoder(rowSchema, fieldIndices(endpoint.getFields()));
+            eventFilter = endpoint.getFilter() == null ? null : EventFilter.compile(endpoint.getFilter(), rowSchema);
+            int[] keys = EspRowSchema.keyIndices(schemaString);
+            keyDecoder = new EventDecoder(rowSchema, keys);
+            keyNames = keyDecoder.getRowSchema().names();
         } catch (dfESPException e) {
             throw new IllegalStateException("Problem on creating schema, cause: ", e);
         }
+        if (keyIndex >= 0) {
+            keyIndex = decoder.getRowSchema().indexOf(endpoint.getKeyField());
+        }
+        if (checkpoint != null && decoder.getRowSchema().indexOf(endpoint.getCheckpointField()) < 0) {
+            throw new IllegalArgumentException("checkpointField must be one of " + decoder.getRowSchema().names()
+                                               + ", was " + endpoint.getCheckpointField());
+        }
+    }
+
+    /**
+     * @param fieldNames
+     *            comma separated names of fields
+     * @return indices of fields within window's schema
+     */
+    private int[] fieldIndices(final String fieldNames) {
+        String[] names = fieldNames.split(",");
+        int[] indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = rowSchema.indexOf(names[i].trim());
+            if (indices[i] < 0) {
+                throw new IllegalArgumentException("fields must be from " + rowSchema.names() + ", was "
+                                                   + names[i].trim());
+            }
+        }
+        return indices;
+    }
 
-        // sets queue size of window within esp engine. engine will ballance
-        // between in and output - if block is set to true.
-        if (!handler.subscriberMaxQueueSize(getEndpoint().getEndpointUri(), MAX_QUEUE_SIZE_CEP, true)) {
-            throw new IllegalStateException("Failed to set max queue size for subscriber.");
+    /**
+     * Compares schema of received block with the (possibly cached) schema
+     * used for decoding and refreshes it on mismatch. Checked once per schema
+     * instance.
+     *
+     * @param schema
+     *            schema delivered with block
+     */
+    private void checkSchema(final dfESPschema schema) {
+        if (schema == checkedSchema) {
+            return;
         }
-        client = handler.subscriberStart(getEndpoint().getEndpointUri() + "?snapshot=true", this, 0);
-        if (client == null) {
-            throw new IllegalStateException("Client object creation for connection to CEP engine not possible");
+        if (!rowSchema.names().equals(schema.getNames())) {
+            LOG.warn("Schema of " + endpointUri + " does not match cached schema " + rowSchema.names()
+                     + ", fetching it again.");
+            fetchSchema(true);
         }
-        try {
-            handler.connect(client);
-        } catch (SocketException | UnknownHostException e) {
-            throw new IllegalStateException("Can't connect to esp engine.");
+        checkedSchema = schema;
+    }
+
+    /**
+     * Starts and connects subscriber client.
+     */
+    private void subscribe() {
+        if (checkpoint != null) {
+            checkpoint.resume();
+        }
+        snapshotPending = endpoint.getSnapshot() != SnapshotMode.none;
+        client = handler.subscriberStart(endpointUri, snapshotPending, MAX_QUEUE_SIZE_CEP, this);
+    }
+
+    /**
+     * Replaces failed client: fetches schema again (it may have changed with
+     * an engine restart) and subscribes again.
+     *
+     * @throws Exception
+     *             if reconnect failed
+     */
+    private void reconnect() throws Exception {
+        if (!isRunAllowed()) {
+            return;
+        }
+        disconnectQuietly();
+        // schema may have changed with an engine restart
+        fetchSchema(true);
+        subscribe();
+        endpoint.markEngineUp();
+    }
+
+    /**
+     * Disconnects client, ignoring errors of already broken connections.
+     */
+    private void disconnectQuietly() {
+        if (client != null) {
+            try {
+                client.disconnect();
+            } catch (RuntimeException e) {
+                LOG.debug("Ignoring error on disconnecting from " + endpointUri + ": " + e);
+            }
+            client = null;
+        }
+    }
+
+    /**
+     * Creates worker threads for processing events.
+     */
+    private void startDispatcher() {
+        if (endpoint.getOrdering() == ConsumerOrdering.key) {
+            keyIndex = decoder.getRowSchema().indexOf(endpoint.getKeyField());
+            if (keyIndex < 0) {
+                throw new IllegalArgumentException("Ordering by key requires keyField parameter with one of the fields "
+                                                   + decoder.getRowSchema().names() + ", was "
+                                                   + endpoint.getKeyField());
+            }
+        }
+        dispatcher = new ConsumerDispatcher<>(new ConsumerDispatcher.RowProcessor<Delivery>() {
+            @Override
+            public void process(final Delivery delivery) {
+                try {
+                    DfESPConsumer.this.process(delivery);
+                } catch (Exception e) {
+                    getExceptionHandler().handleException("Error on processing exchange from esp: ",
+                                                          delivery.exchange, e);
+                }
+            }
+        }, endpoint.getConsumerThreads(), endpoint.getQueueCapacity(), endpoint.getOrdering(),
+                                              endpoint.getOverflowPolicy());
+        LOG.debug("Consumer of " + endpointUri + " uses " + dispatcher.getWorkers() + " worker threads, ordering "
+                  + endpoint.getOrdering());
+        workerExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+            .newFixedThreadPool(this, "DfESPConsumer", dispatcher.getWorkers());
+        dispatcher.start(workerExecutor);
+    }
+
+    @Override
+    protected final void doStop() throws Exception {
+        LOG.debug("Disconnecting subscriber from " + endpointUri);
+        if (reconnector != null) {
+            reconnector.stop();
+        }
+        disconnectQuietly();
+        if (dispatcher != null) {
+            // workers process queued events before they end
+            dispatcher.stop();
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(workerExecutor);
+            dispatcher = null;
+        }
+        if (checkpoint != null) {
+            checkpoint.save();
         }
+        super.doStop();
     }
 
 }
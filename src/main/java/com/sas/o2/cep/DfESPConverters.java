@@ -0,0 +1,95 @@
+package com.sas.o2.cep;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.camel.Converter;
+import org.apache.camel.Exchange;
+import org.apache.camel.FallbackConverter;
+import org.apache.camel.TypeConversionException;
+import org.apache.camel.spi.TypeConverterRegistry;
+
+/**
+ * Type converters for bodies created by the dfESP consumer.
+ */
+@Converter
+public final class DfESPConverters {
+
+    private DfESPConverters() {
+    }
+
+    /**
+     * {@link EspRow} is a read only list - converts it to a modifiable list of
+     * items.
+     *
+     * @param row
+     *            row received from esp
+     * @return new list with one item per field
+     */
+    @Converter
+    public static ArrayList<EspDataItem> toDataItemList(final EspRow row) {
+        return new ArrayList<>(row);
+    }
+
+    /**
+     * @param row
+     *            row received from esp
+     * @return typed values (see {@link EspRow#getTypedValue(int)}) by field
+     *         name, in schema order
+     */
+    @Converter
+    public static Map<String, Object> toMap(final EspRow row) {
+        int size = row.size();
+        Map<String, Object> result = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            result.put(row.getSchema().name(i), row.getTypedValue(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param row
+     *            row received from esp
+     * @return typed values (see {@link EspRow#getTypedValue(int)}) in schema
+     *         order
+     */
+    @Converter
+    public static Object[] toArray(final EspRow row) {
+        int size = row.size();
+        Object[] result = new Object[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = row.getTypedValue(i);
+        }
+        return result;
+    }
+
+    /**
+     * Converts a row into a pojo with a no-arg constructor. Esp fields are
+     * mapped to java fields by name (see {@link PojoBinding}).
+     *
+     * @param type
+     *            target type
+     * @param exchange
+     *            current exchange
+     * @param value
+     *            value to convert
+     * @param registry
+     *            converter registry
+     * @param <T>
+     *            target type
+     * @return pojo or null if value is not a row or type is not a pojo
+     */
+    @FallbackConverter
+    public static <T> T toPojo(final Class<T> type, final Exchange exchange, final Object value,
+                               final TypeConverterRegistry registry) {
+        if (!(value instanceof EspRow) || !PojoBinding.isBindable(type)) {
+            return null;
+        }
+        try {
+            return type.cast(PojoBinding.of(type).toPojo((EspRow) value));
+        } catch (ReflectiveOperationException e) {
+            throw new TypeConversionException(value, type, e);
+        }
+    }
+}
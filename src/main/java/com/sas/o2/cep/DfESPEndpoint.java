@@ -1,5 +1,12 @@
 package com.sas.o2.cep;
 
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.camel.Consumer;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
@@ -12,92 +19,1102 @@ import org.apache.camel.spi.UriParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.sas.esp.api.server.event.EventOpcodes;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+
+/**
+ * Represents a dfESP endpoint.
+ */
+
+@UriEndpoint(scheme = "dfESP")
+@ManagedResource(description = "DfESP endpoint")
+public class DfESPEndpoint extends DefaultEndpoint {
+
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DfESPEndpoint.class);
+
+    /**
+     * Mode for sending data - needed by producer.
+     */
+    @UriParam
+    private Mode mode;
+
+    /**
+     * When to quiesce the project, see {@link QuiescePolicy}. If exchange
+     * property "CamelSplitComplete" is set, only the last exchange of a split
+     * counts.
+     */
+    @UriParam
+    private QuiescePolicy quiesce = QuiescePolicy.never;
+
+    /**
+     * Quiesce after every n-th exchange with {@link QuiescePolicy#everyN}.
+     */
+    @UriParam
+    private int quiesceEvery = 10;
+
+    /**
+     * Min time in ms between quiesce calls with
+     * {@link QuiescePolicy#interval}.
+     */
+    @UriParam
+    private long quiesceIntervalMs = 1000;
+
+    /**
+     * Quiesce actions of started producers.
+     */
+    private final List<QuiesceBarrier.Action> quiesceActions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Shares quiesce calls of all producers of this endpoint.
+     */
+    private final QuiesceBarrier quiesceBarrier = new QuiesceBarrier(new QuiesceBarrier.Action() {
+        @Override
+        public void quiesce() throws Exception {
+            Iterator<QuiesceBarrier.Action> actions = quiesceActions.iterator();
+            if (!actions.hasNext()) {
+                throw new IllegalStateException("No producer started for " + uri + " - can't quiesce.");
+            }
+            actions.next().quiesce();
+        }
+    });
+
+    /**
+     * @return the mode
+     */
+    public final Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode
+     *            mode for inserting data
+     */
+    public final void setMode(final Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param quiesce
+     *            true, false or name of a {@link QuiescePolicy}
+     */
+    public final void setQuiesce(final String quiesce) {
+        if ("true".equalsIgnoreCase(quiesce)) {
+            this.quiesce = QuiescePolicy.exchange;
+        } else if ("false".equalsIgnoreCase(quiesce)) {
+            this.quiesce = QuiescePolicy.never;
+        } else {
+            this.quiesce = QuiescePolicy.valueOf(quiesce);
+        }
+    }
+
+    /**
+     * @return when to quiesce the project
+     */
+    public final QuiescePolicy getQuiesce() {
+        return quiesce;
+    }
+
+    /**
+     * @return true if project is quiesced at all
+     */
+    @ManagedAttribute(description = "Quiesce policy not never.")
+    public boolean isQuiesce() {
+        return quiesce != QuiescePolicy.never;
+    }
+
+    /**
+     * @return n for {@link QuiescePolicy#everyN}
+     */
+    public final int getQuiesceEvery() {
+        return quiesceEvery;
+    }
+
+    /**
+     * @param quiesceEvery
+     *            n for {@link QuiescePolicy#everyN}
+     */
+    public final void setQuiesceEvery(final int quiesceEvery) {
+        if (quiesceEvery < 1) {
+            throw new IllegalArgumentException("quiesceEvery must be at least 1, was " + quiesceEvery);
+        }
+        this.quiesceEvery = quiesceEvery;
+    }
+
+    /**
+     * @return min time in ms between quiesce calls with
+     *         {@link QuiescePolicy#interval}
+     */
+    public final long getQuiesceIntervalMs() {
+        return quiesceIntervalMs;
+    }
+
+    /**
+     * @param quiesceIntervalMs
+     *            min time in ms between quiesce calls with
+     *            {@link QuiescePolicy#interval}
+     */
+    public final void setQuiesceIntervalMs(final long quiesceIntervalMs) {
+        this.quiesceIntervalMs = quiesceIntervalMs;
+    }
+
+    /**
+     * @return barrier shared by producers of this endpoint
+     */
+    protected final QuiesceBarrier getQuiesceBarrier() {
+        return quiesceBarrier;
+    }
+
+    /**
+     * Registers quiesce of a started producer.
+     *
+     * @param action
+     *            quiesces using the producer's connection
+     */
+    protected final void addQuiesceAction(final QuiesceBarrier.Action action) {
+        quiesceActions.add(action);
+    }
+
+    /**
+     * @param action
+     *            quiesce of a stopped producer
+     */
+    protected final void removeQuiesceAction(final QuiesceBarrier.Action action) {
+        quiesceActions.remove(action);
+    }
+
+    /**
+     * Quiesces the project now - returns when esp processed all events
+     * published before. Shares a running quiesce with producers.
+     *
+     * @throws Exception
+     *             if quiesce failed
+     */
+    @ManagedOperation(description = "Quiesces project - returns when all events published so far are processed.")
+    public final void quiesce() throws Exception {
+        quiesceBarrier.await();
+    }
+
+    /**
+     * @return number of quiesce calls made for this endpoint
+     */
+    @ManagedAttribute(description = "Number of quiesce calls made.")
+    public final long getQuiesceCount() {
+        return quiesceBarrier.getQuiesceCount();
+    }
+
+    /**
+     * Producer sends a block to esp each time this number of events is
+     * reached. 0 means all events of an exchange are sent as one block.
+     */
+    @UriParam
+    private int blockSize = 0;
+
+    /**
+     * Producer sends a block to esp each time this number of bytes (csv
+     * input) is reached. 0 means no limit.
+     */
+    @UriParam
+    private long blockBytes = 0;
+
+    /**
+     * @return max number of events per block, 0 for unlimited
+     */
+    @ManagedAttribute(description = "Max number of events per block sent (0 = one block per exchange).")
+    public final int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @param blockSize
+     *            max number of events per block, 0 for unlimited
+     */
+    public final void setBlockSize(final int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return max number of input bytes per block, 0 for unlimited
+     */
+    @ManagedAttribute(description = "Max number of input bytes per block sent (0 = unlimited).")
+    public final long getBlockBytes() {
+        return blockBytes;
+    }
+
+    /**
+     * @param blockBytes
+     *            max number of input bytes per block, 0 for unlimited
+     */
+    public final void setBlockBytes(final long blockBytes) {
+        this.blockBytes = blockBytes;
+    }
+
+    /**
+     * When &gt; 0 the producer collects events of several exchanges into
+     * shared blocks of (at least) this number of events. 0 disables batching.
+     */
+    @UriParam
+    private int batchSize = 0;
+
+    /**
+     * Max time in ms an event waits for further events when batching.
+     */
+    @UriParam
+    private long lingerMs = 10;
+
+    /**
+     * @return number of events collected over exchanges, 0 if disabled
+     */
+    @ManagedAttribute(description = "Number of events collected over exchanges into one block (0 = disabled).")
+    public final int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            number of events collected over exchanges, 0 to disable
+     */
+    public final void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return max time in ms an event waits for further events
+     */
+    @ManagedAttribute(description = "Max time in ms an event waits for further events when batching.")
+    public final long getLingerMs() {
+        return lingerMs;
+    }
+
+    /**
+     * @param lingerMs
+     *            max time in ms an event waits for further events
+     */
+    public final void setLingerMs(final long lingerMs) {
+        this.lingerMs = lingerMs;
+    }
+
+    /**
+     * Path to the guaranteed delivery config file of the esp client. If set
+     * the producer publishes with guaranteed delivery and completes an
+     * exchange when all its blocks are acknowledged (or fails it on NACK).
+     */
+    @UriParam
+    private String gdConfig;
+
+    /**
+     * Max number of blocks waiting for ACK/NACK in guaranteed delivery mode.
+     */
+    @UriParam
+    private int maxInFlight = 64;
+
+    /**
+     * @return path to guaranteed delivery config file, null if not used
+     */
+    @ManagedAttribute(description = "Guaranteed delivery config file (null = no guaranteed delivery).")
+    public final String getGdConfig() {
+        return gdConfig;
+    }
+
+    /**
+     * @param gdConfig
+     *            path to guaranteed delivery config file
+     */
+    public final void setGdConfig(final String gdConfig) {
+        this.gdConfig = gdConfig;
+    }
+
+    /**
+     * @return max number of unacknowledged blocks
+     */
+    @ManagedAttribute(description = "Max number of blocks waiting for ACK/NACK.")
+    public final int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @param maxInFlight
+     *            max number of unacknowledged blocks
+     */
+    public final void setMaxInFlight(final int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * True to limit blocks in flight adaptively (see {@link AdaptiveLimiter}).
+     */
+    @UriParam
+    private boolean flowControl;
+
+    /**
+     * Upper bound of blocks in flight with flow control.
+     */
+    @UriParam
+    private int flowControlMaxPermits = 64;
+
+    /**
+     * Inject (or, with guaranteed delivery, ACK) latency in ms above which
+     * flow control lowers the limit.
+     */
+    @UriParam
+    private long flowControlTargetMs = 200;
+
+    /**
+     * Limiter shared by producers of this endpoint - null until first used.
+     */
+    private AdaptiveLimiter flowLimiter;
+
+    /**
+     * @return true if blocks in flight are limited adaptively
+     */
+    @ManagedAttribute(description = "Adaptive flow control enabled.")
+    public final boolean isFlowControl() {
+        return flowControl;
+    }
+
+    /**
+     * @param flowControl
+     *            true to limit blocks in flight adaptively
+     */
+    public final void setFlowControl(final boolean flowControl) {
+        this.flowControl = flowControl;
+    }
+
+    /**
+     * @return upper bound of blocks in flight with flow control
+     */
+    public final int getFlowControlMaxPermits() {
+        return flowControlMaxPermits;
+    }
+
+    /**
+     * @param flowControlMaxPermits
+     *            upper bound of blocks in flight with flow control
+     */
+    public final void setFlowControlMaxPermits(final int flowControlMaxPermits) {
+        this.flowControlMaxPermits = flowControlMaxPermits;
+    }
+
+    /**
+     * @return latency in ms above which flow control lowers the limit
+     */
+    public final long getFlowControlTargetMs() {
+        return flowControlTargetMs;
+    }
+
+    /**
+     * @param flowControlTargetMs
+     *            latency in ms above which flow control lowers the limit
+     */
+    public final void setFlowControlTargetMs(final long flowControlTargetMs) {
+        this.flowControlTargetMs = flowControlTargetMs;
+    }
+
+    /**
+     * @return limiter of blocks in flight, null if flow control is disabled
+     */
+    protected final synchronized AdaptiveLimiter getFlowLimiter() {
+        if (flowControl && flowLimiter == null) {
+            flowLimiter = new AdaptiveLimiter(flowControlMaxPermits, flowControlTargetMs);
+        }
+        return flowLimiter;
+    }
+
+    /**
+     * @return current number of blocks allowed in flight, -1 if flow control
+     *         is disabled
+     */
+    @ManagedAttribute(description = "Blocks currently allowed in flight by flow control (-1 = disabled).")
+    public final int getFlowControlPermits() {
+        AdaptiveLimiter limiter = getFlowLimiter();
+        return limiter == null ? -1 : limiter.getLimit();
+    }
+
+    /**
+     * @return number of blocks in flight counted by flow control
+     */
+    @ManagedAttribute(description = "Blocks in flight counted by flow control.")
+    public final int getFlowControlInFlight() {
+        AdaptiveLimiter limiter = getFlowLimiter();
+        return limiter == null ? 0 : limiter.getInFlight();
+    }
+
+    /**
+     * Checks if a block reached one of the configured limits.
+     *
+     * @param events
+     *            number of events in block
+     * @param bytes
+     *            number of input bytes in block
+     * @return true if block should be sent before adding further events
+     */
+    protected final boolean isBlockFull(final int events, final long bytes) {
+        return (blockSize > 0 && events >= blockSize) || (blockBytes > 0 && bytes >= blockBytes);
+    }
+
+    /**
+     * Data received from esp engine is filtered by this opcode. E.g. insert
+     * means that only insert events are processed. If null all events will be
+     * processed.
+     */
+    @UriParam
+    private EventOpcodes subscribeMode = null;
+
+    /**
+     * @return the subscribeMode
+     */
+    public final EventOpcodes getSubscribeMode() {
+    	
+        return subscribeMode;
+    }
+
+    /**
+     * @param subscribeMode
+     *            the subscribeMode to set
+     */
+    public final void setSubscribeMode(final EventOpcodes subscribeMode) {
+        this.subscribeMode = subscribeMode;
+    }
+
+    /**
+     * Comma separated names of the fields the consumer decodes into rows, in
+     * this order. Null for all fields.
+     */
+    @UriParam
+    private String fields;
+
+    /**
+     * Condition on field values and opcode, see {@link EventFilter}. Events
+     * not matching are dropped by the consumer before they are decoded.
+     */
+    @UriParam
+    private String filter;
+
+    /**
+     * @return names of fields decoded by consumer, null for all
+     */
+    public final String getFields() {
+        return fields;
+    }
+
+    /**
+     * @param fields
+     *            comma separated names of fields decoded by consumer
+     */
+    public final void setFields(final String fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @return condition events must match to be consumed, null for none
+     */
+    public final String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @param filter
+     *            condition events must match to be consumed
+     */
+    public final void setFilter(final String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Consumer sends one exchange per event (default) or per event block.
+     */
+    @UriParam
+    private ConsumeMode consumeMode = ConsumeMode.event;
+
+    /**
+     * @return how consumer maps events to exchanges
+     */
+    public final ConsumeMode getConsumeMode() {
+        return consumeMode;
+    }
+
+    /**
+     * @param consumeMode
+     *            how consumer maps events to exchanges
+     */
+    public final void setConsumeMode(final ConsumeMode consumeMode) {
+        this.consumeMode = consumeMode;
+    }
+
+    /**
+     * Number of worker threads processing consumed events. 0 means events are
+     * processed on the esp callback thread.
+     */
+    @UriParam
+    private int consumerThreads = 0;
+
+    /**
+     * Capacity of the queue(s) between esp callback thread and consumer
+     * worker threads.
+     */
+    @UriParam
+    private int queueCapacity = 1000;
+
+    /**
+     * Ordering guarantee when using consumer worker threads - key requires
+     * consumeMode=event.
+     */
+    @UriParam
+    private ConsumerOrdering ordering = ConsumerOrdering.global;
+
+    /**
+     * Field used as key for {@link ConsumerOrdering#key}.
+     */
+    @UriParam
+    private String keyField;
+
+    /**
+     * What to do if the consumer queue is full.
+     */
+    @UriParam
+    private OverflowPolicy overflowPolicy = OverflowPolicy.block;
+
+    /**
+     * @return number of consumer worker threads, 0 if callback thread is used
+     */
+    @ManagedAttribute(description = "Number of consumer worker threads (0 = esp callback thread).")
+    public final int getConsumerThreads() {
+        return consumerThreads;
+    }
+
+    /**
+     * @param consumerThreads
+     *            number of consumer worker threads, 0 to process on callback
+     *            thread
+     */
+    public final void setConsumerThreads(final int consumerThreads) {
+        this.consumerThreads = consumerThreads;
+    }
+
+    /**
+     * @return capacity of consumer queue(s)
+     */
+    @ManagedAttribute(description = "Capacity of consumer queue(s).")
+    public final int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity
+     *            capacity of consumer queue(s)
+     */
+    public final void setQueueCapacity(final int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return ordering guarantee of consumer workers
+     */
+    public final ConsumerOrdering getOrdering() {
+        return ordering;
+    }
+
+    /**
+     * @param ordering
+     *            ordering guarantee of consumer workers
+     */
+    public final void setOrdering(final ConsumerOrdering ordering) {
+        this.ordering = ordering;
+    }
+
+    /**
+     * @return field used as key for ordering
+     */
+    public final String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @param keyField
+     *            field used as key for ordering
+     */
+    public final void setKeyField(final String keyField) {
+        this.keyField = keyField;
+    }
+
+    /**
+     * @return behaviour if consumer queue is full
+     */
+    public final OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy
+     *            behaviour if consumer queue is full
+     */
+    public final void setOverflowPolicy(final OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * What the consumer receives of the window's contents when it subscribes,
+     * see {@link SnapshotMode}.
+     */
+    @UriParam
+    private SnapshotMode snapshot = SnapshotMode.all;
+
+    /**
+     * Max number of snapshot rows per exchange with
+     * {@link ConsumeMode#block}, and number of rows between throttling
+     * pauses.
+     */
+    @UriParam
+    private int snapshotChunkSize = 1000;
+
+    /**
+     * Max number of snapshot rows per second passed to the route, 0 for no
+     * limit.
+     */
+    @UriParam
+    private int snapshotRate = 0;
+
+    /**
+     * Directory of consumer checkpoints, one file per window. Null to disable
+     * checkpoints.
+     */
+    @UriParam
+    private String checkpointDir;
+
+    /**
+     * Increasing field (e.g. a timestamp) the consumer checkpoint is measured
+     * by - required with checkpointDir.
+     */
+    @UriParam
+    private String checkpointField;
+
+    /**
+     * Min time in ms between saves of the consumer checkpoint.
+     */
+    @UriParam
+    private long checkpointIntervalMs = 1000;
+
+    /**
+     * @param snapshot
+     *            true, false or name of a {@link SnapshotMode}
+     */
+    public final void setSnapshot(final String snapshot) {
+        if ("true".equalsIgnoreCase(snapshot)) {
+            this.snapshot = SnapshotMode.all;
+        } else if ("false".equalsIgnoreCase(snapshot)) {
+            this.snapshot = SnapshotMode.none;
+        } else {
+            this.snapshot = SnapshotMode.valueOf(snapshot);
+        }
+    }
+
+    /**
+     * @return what the consumer receives of the window's contents
+     */
+    public final SnapshotMode getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return max number of snapshot rows per exchange or between pauses
+     */
+    public final int getSnapshotChunkSize() {
+        return snapshotChunkSize;
+    }
+
+    /**
+     * @param snapshotChunkSize
+     *            max number of snapshot rows per exchange or between pauses
+     */
+    public final void setSnapshotChunkSize(final int snapshotChunkSize) {
+        this.snapshotChunkSize = snapshotChunkSize;
+    }
+
+    /**
+     * @return max number of snapshot rows per second, 0 for no limit
+     */
+    public final int getSnapshotRate() {
+        return snapshotRate;
+    }
+
+    /**
+     * @param snapshotRate
+     *            max number of snapshot rows per second, 0 for no limit
+     */
+    public final void setSnapshotRate(final int snapshotRate) {
+        this.snapshotRate = snapshotRate;
+    }
+
+    /**
+     * @return directory of consumer checkpoints, null if disabled
+     */
+    public final String getCheckpointDir() {
+        return checkpointDir;
+    }
+
+    /**
+     * @param checkpointDir
+     *            directory of consumer checkpoints
+     */
+    public final void setCheckpointDir(final String checkpointDir) {
+        this.checkpointDir = checkpointDir;
+    }
+
+    /**
+     * @return increasing field the checkpoint is measured by
+     */
+    public final String getCheckpointField() {
+        return checkpointField;
+    }
+
+    /**
+     * @param checkpointField
+     *            increasing field the checkpoint is measured by
+     */
+    public final void setCheckpointField(final String checkpointField) {
+        this.checkpointField = checkpointField;
+    }
+
+    /**
+     * @return min time in ms between checkpoint saves
+     */
+    public final long getCheckpointIntervalMs() {
+        return checkpointIntervalMs;
+    }
+
+    /**
+     * @param checkpointIntervalMs
+     *            min time in ms between checkpoint saves
+     */
+    public final void setCheckpointIntervalMs(final long checkpointIntervalMs) {
+        this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    /**
+     * @return checkpoint file of this window
+     */
+    protected final File getWindowCheckpointFile() {
+        return new File(checkpointDir, windowName() + ".checkpoint");
+    }
+
+    /**
+     * Reconnect automatically after connection failures.
+     */
+    @UriParam
+    private boolean reconnect = true;
+
+    /**
+     * Delay before first reconnect attempt in ms, doubled after each failed
+     * attempt.
+     */
+    @UriParam
+    private long reconnectDelayMs = 1000;
+
+    /**
+     * Max delay between reconnect attempts in ms.
+     */
+    @UriParam
+    private long maxReconnectDelayMs = 60000;
+
+    /**
+     * Behaviour of producer while esp server or window is down.
+     */
+    @UriParam
+    private DownPolicy whenDown = DownPolicy.fail;
+
+    /**
+     * Max number of blocks buffered by producer while down (see
+     * {@link DownPolicy#buffer}).
+     */
+    @UriParam
+    private int downBufferSize = 1000;
+
+    /**
+     * Directory of the journal used while down (see {@link DownPolicy#journal}).
+     * Each window gets a sub directory.
+     */
+    @UriParam
+    private String journalDir;
+
+    /**
+     * Size of journal segment files in bytes.
+     */
+    @UriParam
+    private int journalSegmentSize = 64 * 1024 * 1024;
+
+    /**
+     * Max total size of journal segment files in bytes.
+     */
+    @UriParam
+    private long journalMaxSize = 1024L * 1024 * 1024;
+
+    /**
+     * @return true if producer and consumer reconnect after failures
+     */
+    public final boolean isReconnect() {
+        return reconnect;
+    }
+
+    /**
+     * @param reconnect
+     *            true to reconnect after failures
+     */
+    public final void setReconnect(final boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * @return delay before first reconnect attempt in ms
+     */
+    public final long getReconnectDelayMs() {
+        return reconnectDelayMs;
+    }
+
+    /**
+     * @param reconnectDelayMs
+     *            delay before first reconnect attempt in ms
+     */
+    public final void setReconnectDelayMs(final long reconnectDelayMs) {
+        this.reconnectDelayMs = reconnectDelayMs;
+    }
+
+    /**
+     * @return max delay between reconnect attempts in ms
+     */
+    public final long getMaxReconnectDelayMs() {
+        return maxReconnectDelayMs;
+    }
+
+    /**
+     * @param maxReconnectDelayMs
+     *            max delay between reconnect attempts in ms
+     */
+    public final void setMaxReconnectDelayMs(final long maxReconnectDelayMs) {
+        this.maxReconnectDelayMs = maxReconnectDelayMs;
+    }
+
+    /**
+     * @return behaviour of producer while down
+     */
+    public final DownPolicy getWhenDown() {
+        return whenDown;
+    }
+
+    /**
+     * @param whenDown
+     *            behaviour of producer while down
+     */
+    public final void setWhenDown(final DownPolicy whenDown) {
+        this.whenDown = whenDown;
+    }
+
+    /**
+     * @return max number of blocks buffered while down
+     */
+    public final int getDownBufferSize() {
+        return downBufferSize;
+    }
+
+    /**
+     * @param downBufferSize
+     *            max number of blocks buffered while down
+     */
+    public final void setDownBufferSize(final int downBufferSize) {
+        this.downBufferSize = downBufferSize;
+    }
 
+    /**
+     * @return directory of journal used while down
+     */
+    public final String getJournalDir() {
+        return journalDir;
+    }
 
-/**
- * Represents a dfESP endpoint.
- */
+    /**
+     * @param journalDir
+     *            directory of journal used while down
+     */
+    public final void setJournalDir(final String journalDir) {
+        this.journalDir = journalDir;
+    }
 
-@UriEndpoint(scheme = "dfESP")
-@ManagedResource(description = "DfESP endpoint")
-public class DfESPEndpoint extends DefaultEndpoint {
+    /**
+     * @return size of journal segment files in bytes
+     */
+    public final int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
 
     /**
-     * Logger.
+     * @param journalSegmentSize
+     *            size of journal segment files in bytes
      */
-    private static final Logger LOG = LoggerFactory.getLogger(DfESPEndpoint.class);
+    public final void setJournalSegmentSize(final int journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+    }
 
     /**
-     * Mode for sending data - needed by producer.
+     * @return max total size of journal segment files in bytes
+     */
+    public final long getJournalMaxSize() {
+        return journalMaxSize;
+    }
+
+    /**
+     * @param journalMaxSize
+     *            max total size of journal segment files in bytes
+     */
+    public final void setJournalMaxSize(final long journalMaxSize) {
+        this.journalMaxSize = journalMaxSize;
+    }
+
+    /**
+     * @return directory of this window's journal
+     */
+    protected final File getWindowJournalDir() {
+        if (journalDir == null) {
+            throw new IllegalArgumentException("whenDown=journal requires journalDir parameter.");
+        }
+        return new File(journalDir, windowName());
+    }
+
+    /**
+     * @return project.contquery.window - for names of local files
+     */
+    private String windowName() {
+        String[] parts = uri.split("\\?")[0].split("/");
+        return parts[3] + "." + parts[4] + "." + parts[5];
+    }
+
+    /**
+     * Generates ids added by {@link Mode#insertAddId}.
      */
     @UriParam
-    private Mode mode;
+    private IdGenerator idGenerator = IdGenerator.uuid;
+
+    /**
+     * @return generator of ids added by {@link Mode#insertAddId}
+     */
+    public final IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
 
     /**
-     * When true and exchange property "CamelSplitComplete" is set to true, cep
-     * waits till the input is loaded.
+     * @param idGenerator
+     *            generator of ids added by {@link Mode#insertAddId}
+     */
+    public final void setIdGenerator(final IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Compression of bodies sent to esp.
      */
     @UriParam
-    private boolean quiesce;
+    private Compression compression = Compression.none;
 
     /**
-     * @return the mode
+     * @return compression of bodies sent to esp
      */
-    public final Mode getMode() {
-        return mode;
+    public final Compression getCompression() {
+        return compression;
     }
 
     /**
-     * @param mode
-     *            mode for inserting data
+     * @param compression
+     *            compression of bodies sent to esp
      */
-    public final void setMode(final Mode mode) {
-        this.mode = mode;
+    public final void setCompression(final Compression compression) {
+        this.compression = compression;
     }
 
     /**
-     * @param quiesce
-     *            the quiesce to set
+     * Number of threads parsing one exchange in parallel. 0 parses on the
+     * calling thread.
+     */
+    @UriParam
+    private int parseThreads;
+
+    /**
+     * With parseThreads: true publishes blocks in the order of the input,
+     * false as soon as they are parsed (only for windows where order does
+     * not matter, e.g. inserts of distinct keys).
      */
-    public final void setQuiesce(boolean quiesce) {
-        this.quiesce = quiesce;
+    @UriParam
+    private boolean parseOrdered = true;
+
+    /**
+     * @return number of threads parsing one exchange in parallel
+     */
+    public final int getParseThreads() {
+        return parseThreads;
     }
 
-    public boolean isQuiesce() {
-        return quiesce;
+    /**
+     * @param parseThreads
+     *            number of threads parsing one exchange in parallel, 0 to
+     *            parse on the calling thread
+     */
+    public final void setParseThreads(final int parseThreads) {
+        this.parseThreads = parseThreads;
     }
 
     /**
-     * Data received from esp engine is filtered by this opcode. E.g. insert
-     * means that only insert events are processed. If null all events will be
-     * processed.
+     * @return true if blocks parsed in parallel keep the order of the input
+     */
+    public final boolean isParseOrdered() {
+        return parseOrdered;
+    }
+
+    /**
+     * @param parseOrdered
+     *            true if blocks parsed in parallel keep the order of the
+     *            input
+     */
+    public final void setParseOrdered(final boolean parseOrdered) {
+        this.parseOrdered = parseOrdered;
+    }
+
+    /**
+     * Number of publisher connections to the window. Each sending thread
+     * sticks to one connection, so blocks of an exchange keep their order.
      */
     @UriParam
-    private EventOpcodes subscribeMode = null;
+    private int publishers = 1;
 
     /**
-     * @return the subscribeMode
+     * @return number of publisher connections to the window
      */
-    public final EventOpcodes getSubscribeMode() {
-    	
-        return subscribeMode;
+    public final int getPublishers() {
+        return publishers;
     }
 
     /**
-     * @param subscribeMode
-     *            the subscribeMode to set
+     * @param publishers
+     *            number of publisher connections to the window
      */
-    public final void setSubscribeMode(final EventOpcodes subscribeMode) {
-        this.subscribeMode = subscribeMode;
+    public final void setPublishers(final int publishers) {
+        if (publishers < 1) {
+            throw new IllegalArgumentException("publishers must be at least 1, was " + publishers);
+        }
+        this.publishers = publishers;
     }
 
     /**
-     * Consumer or producer can set this to true if the get called on
-     * dfESPpubsubErrorCB_func. The other side could then use this to throw
-     * exception if process is called.
+     * Health of this endpoint's esp server, shared with all endpoints of the
+     * same server.
+     */
+    private EngineHealth health;
+    /**
+     * Last schema string fetched for this window.
+     */
+    private volatile String schema;
+    /**
+     * Client handler of this endpoint's esp server.
      */
-    private static volatile Boolean engineDown = false;
+    private EspClientHandler clientHandler;
 
     /**
      * Uri for this endpoint.
@@ -116,21 +1133,21 @@ public class DfESPEndpoint extends DefaultEndpoint {
     /**
      * Counts event blocks sent.
      */
-    private long blocksSent = 0;
+    private final StripedCounter blocksSent = new StripedCounter();
 
     /**
      *
      * @return Blocks sent by this endpoint.
      */
-    @ManagedAttribute(description = "Blocks(=files) sent by this endpoint.")
+    @ManagedAttribute(description = "Blocks sent by this endpoint.")
     public final long getBlocksSent() {
-        return blocksSent;
+        return blocksSent.sum();
     }
 
     /**
      * Counts events sent.
      */
-    private long eventsSent = 0;
+    private final StripedCounter eventsSent = new StripedCounter();
 
     /**
      *
@@ -138,36 +1155,167 @@ public class DfESPEndpoint extends DefaultEndpoint {
      */
     @ManagedAttribute(description = "Events(=lines) sent by this enpoint.")
     public final long getEventsSent() {
-        return eventsSent;
+        return eventsSent.sum();
+    }
+
+    /**
+     * Rate of blocks sent.
+     */
+    private final RateMeter blocksSentRate = new RateMeter();
+
+    /**
+     * Rate of events sent.
+     */
+    private final RateMeter eventsSentRate = new RateMeter();
+
+    /**
+     * Time needed to inject a block in microseconds.
+     */
+    private final ValueHistogram publishLatency = new ValueHistogram();
+
+    /**
+     * Number of events per block sent.
+     */
+    private final ValueHistogram blockSizes = new ValueHistogram();
+
+    /**
+     * @return events sent per second, averaged over last minute
+     */
+    @ManagedAttribute(description = "Events sent per second, averaged over last minute.")
+    public final double getEventsSentPerSecond1m() {
+        return eventsSentRate.getRate1m();
+    }
+
+    /**
+     * @return events sent per second, averaged over last 5 minutes
+     */
+    @ManagedAttribute(description = "Events sent per second, averaged over last 5 minutes.")
+    public final double getEventsSentPerSecond5m() {
+        return eventsSentRate.getRate5m();
+    }
+
+    /**
+     * @return events sent per second, averaged over last 15 minutes
+     */
+    @ManagedAttribute(description = "Events sent per second, averaged over last 15 minutes.")
+    public final double getEventsSentPerSecond15m() {
+        return eventsSentRate.getRate15m();
+    }
+
+    /**
+     * @return blocks sent per second, averaged over last minute
+     */
+    @ManagedAttribute(description = "Blocks sent per second, averaged over last minute.")
+    public final double getBlocksSentPerSecond1m() {
+        return blocksSentRate.getRate1m();
+    }
+
+    /**
+     * @return blocks sent per second, averaged over last 5 minutes
+     */
+    @ManagedAttribute(description = "Blocks sent per second, averaged over last 5 minutes.")
+    public final double getBlocksSentPerSecond5m() {
+        return blocksSentRate.getRate5m();
+    }
+
+    /**
+     * @return blocks sent per second, averaged over last 15 minutes
+     */
+    @ManagedAttribute(description = "Blocks sent per second, averaged over last 15 minutes.")
+    public final double getBlocksSentPerSecond15m() {
+        return blocksSentRate.getRate15m();
+    }
+
+    /**
+     * @return median of time to inject a block in microseconds
+     */
+    @ManagedAttribute(description = "Median of time to inject a block in microseconds.")
+    public final long getPublishLatencyMicrosP50() {
+        return publishLatency.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return 99th percentile of time to inject a block in microseconds
+     */
+    @ManagedAttribute(description = "99th percentile of time to inject a block in microseconds.")
+    public final long getPublishLatencyMicrosP99() {
+        return publishLatency.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return max of time to inject a block in microseconds
+     */
+    @ManagedAttribute(description = "Max of time to inject a block in microseconds.")
+    public final long getPublishLatencyMicrosMax() {
+        return publishLatency.getMax();
+    }
+
+    /**
+     * @return median of events per block sent in events
+     */
+    @ManagedAttribute(description = "Median of events per block sent in events.")
+    public final long getBlockSizeEventsP50() {
+        return blockSizes.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return 99th percentile of events per block sent in events
+     */
+    @ManagedAttribute(description = "99th percentile of events per block sent in events.")
+    public final long getBlockSizeEventsP99() {
+        return blockSizes.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return max of events per block sent in events
+     */
+    @ManagedAttribute(description = "Max of events per block sent in events.")
+    public final long getBlockSizeEventsMax() {
+        return blockSizes.getMax();
     }
 
     /**
      * Resets blocks sent and events sent counter.
      */
-    @ManagedOperation(description = "Resets blocks sent and events sent counter.")
+    @ManagedOperation(description = "Resets blocks sent and events sent counter, rates and histograms.")
     public final void resetSentCounter() {
-        blocksSent = 0;
-        eventsSent = 0;
+        blocksSent.reset();
+        eventsSent.reset();
+        blocksSentRate.reset();
+        eventsSentRate.reset();
+        publishLatency.reset();
+        blockSizes.reset();
     }
 
     /**
-     * Adds one to block sent count.
+     * Adds one to block sent count and the events of the block to events sent
+     * count.
+     *
+     * @param events
+     *            number of events in block
      */
-    protected final void countBlockSent() {
-        blocksSent++;
+    protected final void countBlockSent(final int events) {
+        blocksSent.increment();
+        eventsSent.add(events);
+        blocksSentRate.mark(1);
+        eventsSentRate.mark(events);
+        blockSizes.record(events);
     }
 
     /**
-     * Adds one to events sent count.
+     * Records time needed to inject a block.
+     *
+     * @param nanos
+     *            duration in nano seconds
      */
-    protected final void countEventSent() {
-        eventsSent++;
+    protected final void recordPublishLatency(final long nanos) {
+        publishLatency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
     }
 
     /**
      * Counts blocks received by this endpoint.
      */
-    private long blocksReceived = 0;
+    private final StripedCounter blocksReceived = new StripedCounter();
 
     /**
      *
@@ -175,20 +1323,21 @@ public class DfESPEndpoint extends DefaultEndpoint {
      */
     @ManagedAttribute(description = "Blocks received by this endpoint.")
     public final long getBlocksReceived() {
-        return blocksReceived;
+        return blocksReceived.sum();
     }
 
     /**
      * Adds one to blocks received count.
      */
     protected final void countBlockReceived() {
-        blocksReceived++;
+        blocksReceived.increment();
+        blocksReceivedRate.mark(1);
     }
 
     /**
      * Counts events received by this endpoint.
      */
-    private long eventsReceived = 0;
+    private final StripedCounter eventsReceived = new StripedCounter();
 
     /**
      *
@@ -196,37 +1345,251 @@ public class DfESPEndpoint extends DefaultEndpoint {
      */
     @ManagedAttribute(description = "Events received by this endpoint")
     public final long getEventsReceived() {
-        return eventsReceived;
+        return eventsReceived.sum();
+    }
+
+    /**
+     * Adds given number to event received count.
+     *
+     * @param count
+     *            number of events received
+     */
+    protected final void countEventReceived(final int count) {
+        eventsReceived.add(count);
+        eventsReceivedRate.mark(count);
+    }
+
+    /**
+     * Counts events dropped by this endpoint because consumer queue was full.
+     */
+    private final StripedCounter eventsDropped = new StripedCounter();
+
+    /**
+     *
+     * @return Events dropped by this endpoint.
+     */
+    @ManagedAttribute(description = "Events dropped because consumer queue was full")
+    public final long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+
+    /**
+     * Adds given number to event dropped count.
+     *
+     * @param count
+     *            number of events dropped
+     */
+    protected final void countEventDropped(final int count) {
+        eventsDropped.add(count);
+    }
+
+    /**
+     * Rate of blocks received.
+     */
+    private final RateMeter blocksReceivedRate = new RateMeter();
+
+    /**
+     * Rate of events received.
+     */
+    private final RateMeter eventsReceivedRate = new RateMeter();
+
+    /**
+     * Time the route needs per consumed event in microseconds.
+     */
+    private final ValueHistogram processingTime = new ValueHistogram();
+
+    /**
+     * @return events received per second, averaged over last minute
+     */
+    @ManagedAttribute(description = "Events received per second, averaged over last minute.")
+    public final double getEventsReceivedPerSecond1m() {
+        return eventsReceivedRate.getRate1m();
+    }
+
+    /**
+     * @return events received per second, averaged over last 5 minutes
+     */
+    @ManagedAttribute(description = "Events received per second, averaged over last 5 minutes.")
+    public final double getEventsReceivedPerSecond5m() {
+        return eventsReceivedRate.getRate5m();
+    }
+
+    /**
+     * @return events received per second, averaged over last 15 minutes
+     */
+    @ManagedAttribute(description = "Events received per second, averaged over last 15 minutes.")
+    public final double getEventsReceivedPerSecond15m() {
+        return eventsReceivedRate.getRate15m();
+    }
+
+    /**
+     * @return blocks received per second, averaged over last minute
+     */
+    @ManagedAttribute(description = "Blocks received per second, averaged over last minute.")
+    public final double getBlocksReceivedPerSecond1m() {
+        return blocksReceivedRate.getRate1m();
+    }
+
+    /**
+     * @return blocks received per second, averaged over last 5 minutes
+     */
+    @ManagedAttribute(description = "Blocks received per second, averaged over last 5 minutes.")
+    public final double getBlocksReceivedPerSecond5m() {
+        return blocksReceivedRate.getRate5m();
+    }
+
+    /**
+     * @return blocks received per second, averaged over last 15 minutes
+     */
+    @ManagedAttribute(description = "Blocks received per second, averaged over last 15 minutes.")
+    public final double getBlocksReceivedPerSecond15m() {
+        return blocksReceivedRate.getRate15m();
+    }
+
+    /**
+     * @return median of route processing time per consumed event in microseconds
+     */
+    @ManagedAttribute(description = "Median of route processing time per consumed event in microseconds.")
+    public final long getProcessingTimeMicrosP50() {
+        return processingTime.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return 99th percentile of route processing time per consumed event in microseconds
+     */
+    @ManagedAttribute(description = "99th percentile of route processing time per consumed event in microseconds.")
+    public final long getProcessingTimeMicrosP99() {
+        return processingTime.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return max of route processing time per consumed event in microseconds
+     */
+    @ManagedAttribute(description = "Max of route processing time per consumed event in microseconds.")
+    public final long getProcessingTimeMicrosMax() {
+        return processingTime.getMax();
     }
 
     /**
-     * Adds one to event received count.
+     * Records time the route needed for an exchange.
+     *
+     * @param nanos
+     *            duration in nano seconds
+     * @param events
+     *            number of events in exchange
      */
-    protected final void countEventReceived() {
-        eventsReceived++;
+    protected final void recordProcessingTime(final long nanos, final int events) {
+        processingTime.record(TimeUnit.NANOSECONDS.toMicros(nanos) / Math.max(1, events));
     }
 
     /**
      * Resets the counter for blocks and events received.
      */
-    @ManagedOperation(description = "Resets the counter for blocks and events received.")
+    @ManagedOperation(description = "Resets the counter for blocks and events received, rates and histograms.")
     public final void resetReceivedCounter() {
-        blocksReceived = 0;
-        eventsReceived = 0;
+        blocksReceived.reset();
+        eventsReceived.reset();
+        eventsDropped.reset();
+        blocksReceivedRate.reset();
+        eventsReceivedRate.reset();
+        processingTime.reset();
+    }
+
+    /**
+     * @return true if esp server or this endpoint's window is down
+     */
+    @ManagedAttribute(description = "True if esp server or window of this endpoint is down.")
+    public final boolean isEngineDown() {
+        return getHealth().isDown(uri);
+    }
+
+    /**
+     * Marks window (or whole server) as down.
+     *
+     * @param serverWide
+     *            true if all windows of the server are affected
+     */
+    protected final void markEngineDown(final boolean serverWide) {
+        getHealth().markDown(uri, serverWide);
+    }
+
+    /**
+     * Marks server and window as up after a successful (re)connect.
+     */
+    protected final void markEngineUp() {
+        getHealth().markUp(uri);
+    }
+
+    /**
+     * @return health of esp server, from component if available
+     */
+    protected final synchronized EngineHealth getHealth() {
+        if (health == null) {
+            health = getComponent() instanceof DfESPComponent ? ((DfESPComponent) getComponent())
+                .getHealth(getServer()) : new EngineHealth(getServer());
+        }
+        return health;
+    }
+
+    /**
+     * @return client handler of esp server, shared by all endpoints of the
+     *         component
+     */
+    protected final synchronized EspClientHandler getClientHandler() {
+        if (clientHandler == null) {
+            clientHandler = getComponent() instanceof DfESPComponent ? ((DfESPComponent) getComponent())
+                .getClientHandler(getServer()) : DfESPComponent.createClientHandler();
+        }
+        return clientHandler;
     }
 
     /**
-     * @return true if engine down. will be unchanged until restart.
+     * Returns schema string of window - from schema cache of component if
+     * available.
+     *
+     * @param refresh
+     *            true to query esp even if schema is cached
+     * @return schema string of window
      */
-    protected static final Boolean isEngineDown() {
-        return engineDown;
+    protected final String fetchSchema(final boolean refresh) {
+        String fetched;
+        try {
+            if (getComponent() instanceof DfESPComponent) {
+                SchemaCache cache = ((DfESPComponent) getComponent()).getSchemaCache();
+                if (refresh) {
+                    cache.invalidate(uri);
+                }
+                fetched = cache.get(uri);
+            } else {
+                fetched = getClientHandler().querySchema(uri);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Problem on fetching meta data from " + uri + ", cause: ", e);
+        }
+        if (schema != null && !schema.equals(fetched)) {
+            LOG.warn("Schema of " + uri + " changed from " + schema + " to " + fetched);
+        }
+        schema = fetched;
+        return fetched;
     }
 
     /**
-     * Sets engine down to true.
+     * Creates a reconnector using this endpoint's reconnect settings.
+     *
+     * @param connector
+     *            performs a reconnect attempt
+     * @return reconnector or null if reconnect is disabled
      */
-    protected static final void engineDown() {
-        engineDown = true;
+    protected final Reconnector createReconnector(final Reconnector.Connector connector) {
+        if (!reconnect) {
+            return null;
+        }
+        ScheduledExecutorService executor = getComponent() instanceof DfESPComponent ? ((DfESPComponent) getComponent())
+            .getReconnectExecutor() : getCamelContext().getExecutorServiceManager()
+            .newScheduledThreadPool(this, "DfESPReconnect", 1);
+        return new Reconnector(uri, connector, executor, reconnectDelayMs, maxReconnectDelayMs);
     }
 
     /**
@@ -281,6 +1644,14 @@ public class DfESPEndpoint extends DefaultEndpoint {
         return true;
     }
 
+    /**
+     *
+     * @return host:port of esp server
+     */
+    public String getServer() {
+        return this.uri.split("/")[2];
+    }
+
     /**
      *
      * @return url of dfesp project (query and window part cut off)
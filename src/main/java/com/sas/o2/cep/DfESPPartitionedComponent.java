@@ -0,0 +1,45 @@
+package com.sas.o2.cep;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.camel.Endpoint;
+import org.apache.camel.impl.UriEndpointComponent;
+import org.apache.camel.util.URISupport;
+
+/**
+ * Represents the component that manages {@link DfESPPartitionedEndpoint}.
+ * Uri: dfESP-partitioned://project/contquery/window?partitions=host1:port,host2:port&keyField=field.
+ */
+public class DfESPPartitionedComponent extends UriEndpointComponent {
+    /**
+     * Parameters of the partitioned endpoint itself - all other parameters
+     * are passed to the endpoints of the partitions.
+     */
+    private static final String[] OWN_PARAMETERS = {"partitions", "keyField", "compression", "maxQueuedChunks" };
+
+    /**
+     * To work with/extending {@link UriEndpointComponent}.
+     */
+    public DfESPPartitionedComponent() {
+        super(DfESPPartitionedEndpoint.class);
+    }
+
+    @Override
+    protected final Endpoint createEndpoint(final String uri, final String remaining,
+                                            final Map<String, Object> parameters) throws Exception {
+        Map<String, Object> own = new HashMap<>();
+        for (String name : OWN_PARAMETERS) {
+            if (parameters.containsKey(name)) {
+                own.put(name, parameters.remove(name));
+            }
+        }
+        String partitionQuery = URISupport.createQueryString(parameters);
+        // consumed by partitions
+        parameters.clear();
+        DfESPPartitionedEndpoint endpoint = new DfESPPartitionedEndpoint(uri.split("\\?")[0], this, remaining,
+                                                                         partitionQuery);
+        setProperties(endpoint, own);
+        return endpoint;
+    }
+}
@@ -0,0 +1,189 @@
+package com.sas.o2.cep;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.camel.Consumer;
+import org.apache.camel.Processor;
+import org.apache.camel.Producer;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedResource;
+import org.apache.camel.impl.DefaultEndpoint;
+import org.apache.camel.spi.UriEndpoint;
+import org.apache.camel.spi.UriParam;
+
+/**
+ * Publishes to several dfESP windows (usually the same window on several esp
+ * servers). Each csv line is routed by the hash of its key field, so all
+ * events of a key go to the same partition and keep their order. Each
+ * partition is a normal {@link DfESPEndpoint} with its own connection,
+ * batching and publishing thread. Producer only.
+ */
+@UriEndpoint(scheme = "dfESP-partitioned")
+@ManagedResource(description = "DfESP partitioned endpoint")
+public class DfESPPartitionedEndpoint extends DefaultEndpoint {
+
+    /**
+     * Comma separated partitions: host:port (window of this endpoint's path
+     * on that server) or host:port/project/contquery/window.
+     */
+    @UriParam
+    private String partitions;
+
+    /**
+     * Name of field (as in schema of window) used to choose the partition.
+     */
+    @UriParam
+    private String keyField;
+
+    /**
+     * Compression of bodies.
+     */
+    @UriParam
+    private Compression compression = Compression.none;
+
+    /**
+     * Max number of chunks per partition waiting to be published - bounds
+     * memory if a partition is slower than the input.
+     */
+    @UriParam
+    private int maxQueuedChunks = 4;
+
+    /**
+     * project/contquery/window - used for partitions given as host:port.
+     */
+    private String windowPath;
+
+    /**
+     * Query string passed to partition endpoints.
+     */
+    private String partitionQuery;
+
+    /**
+     * Empty constructor - needed by camel?!
+     */
+    public DfESPPartitionedEndpoint() {
+    }
+
+    /**
+     *
+     * @param uri
+     *            uri of endpoint
+     * @param component
+     *            current component
+     * @param windowPath
+     *            project/contquery/window
+     * @param partitionQuery
+     *            query string passed to partition endpoints
+     */
+    public DfESPPartitionedEndpoint(final String uri, final DfESPPartitionedComponent component,
+                                    final String windowPath, final String partitionQuery) {
+        super(uri, component);
+        this.windowPath = windowPath;
+        this.partitionQuery = partitionQuery;
+    }
+
+    /**
+     * @return comma separated partitions
+     */
+    @ManagedAttribute(description = "Partitions (host:port or host:port/project/contquery/window).")
+    public final String getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @param partitions
+     *            comma separated partitions: host:port or
+     *            host:port/project/contquery/window
+     */
+    public final void setPartitions(final String partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * @return name of field used to choose the partition
+     */
+    @ManagedAttribute(description = "Field used to choose the partition.")
+    public final String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @param keyField
+     *            name of field used to choose the partition
+     */
+    public final void setKeyField(final String keyField) {
+        this.keyField = keyField;
+    }
+
+    /**
+     * @return compression of bodies
+     */
+    public final Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @param compression
+     *            compression of bodies
+     */
+    public final void setCompression(final Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return max number of chunks per partition waiting to be published
+     */
+    public final int getMaxQueuedChunks() {
+        return maxQueuedChunks;
+    }
+
+    /**
+     * @param maxQueuedChunks
+     *            max number of chunks per partition waiting to be published
+     */
+    public final void setMaxQueuedChunks(final int maxQueuedChunks) {
+        this.maxQueuedChunks = maxQueuedChunks;
+    }
+
+    /**
+     * Resolves endpoints of partitions (shared with other routes using the
+     * same uri).
+     *
+     * @return one endpoint per partition
+     */
+    protected final List<DfESPEndpoint> getPartitionEndpoints() {
+        if (partitions == null || partitions.trim().isEmpty()) {
+            throw new IllegalArgumentException("No partitions given. Use partitions=host1:port,host2:port parameter in uri.");
+        }
+        List<DfESPEndpoint> result = new ArrayList<>();
+        for (String partition : partitions.split(",")) {
+            String target = partition.trim();
+            if (!target.contains("/")) {
+                target = target + "/" + windowPath;
+            }
+            String uri = "dfESP://" + target + (partitionQuery.isEmpty() ? "" : "?" + partitionQuery);
+            result.add(getCamelContext().getEndpoint(uri, DfESPEndpoint.class));
+        }
+        return result;
+    }
+
+    @Override
+    public final Producer createProducer() throws Exception {
+        if (keyField == null) {
+            throw new NullPointerException("Key field is not set. Use keyField parameter in uri.");
+        }
+        return new DfESPPartitionedProducer(this);
+    }
+
+    @Override
+    public final Consumer createConsumer(final Processor processor) throws Exception {
+        throw new UnsupportedOperationException("dfESP-partitioned can only be used to publish, consume from "
+                                                + "the dfESP endpoints of the partitions.");
+    }
+
+    @Override
+    public final boolean isSingleton() {
+        return true;
+    }
+}
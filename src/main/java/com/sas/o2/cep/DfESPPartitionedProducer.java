@@ -0,0 +1,286 @@
+package com.sas.o2.cep;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.AsyncProcessor;
+import org.apache.camel.Exchange;
+import org.apache.camel.Producer;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.AsyncProcessorConverterHelper;
+import org.apache.camel.util.ServiceHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Splits csv bodies by the hash of a key field into chunks, one stream of
+ * chunks per partition. Chunks are published by the {@link DfESPProducer} of
+ * the partition on a thread of its own, so partitions publish in parallel
+ * while chunks of a partition keep their order. Lines are copied as bytes,
+ * the key field is found by counting ',' - so the charset must be ascii
+ * compatible. The exchange completes when all its chunks are done.
+ */
+public class DfESPPartitionedProducer extends DefaultAsyncProducer {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(DfESPPartitionedProducer.class);
+    /**
+     * Size in bytes after which a chunk is handed over to its partition.
+     */
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * One target window.
+     */
+    private static final class Partition {
+        private final Producer producer;
+        private final AsyncProcessor processor;
+        private final ExecutorService executor;
+        /**
+         * Limits chunks waiting for this partition.
+         */
+        private final Semaphore queued;
+
+        private Partition(final Producer producer, final ExecutorService executor, final int maxQueued) {
+            this.producer = producer;
+            this.processor = AsyncProcessorConverterHelper.convert(producer);
+            this.executor = executor;
+            this.queued = new Semaphore(maxQueued);
+        }
+    }
+
+    private final DfESPPartitionedEndpoint endpoint;
+    private Partition[] partitions;
+    /**
+     * Index of key field within csv lines.
+     */
+    private int keyColumn;
+
+    /**
+     *
+     * @param endpoint
+     *            this is created by this endpoint - contains parameters
+     */
+    public DfESPPartitionedProducer(final DfESPPartitionedEndpoint endpoint) {
+        super(endpoint);
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public final boolean process(final Exchange exchange, final AsyncCallback callback) {
+        PendingExchange pending = new PendingExchange(exchange, callback);
+        try {
+            split(exchange, pending);
+        } catch (Exception e) {
+            pending.fail(e);
+        }
+        return pending.submitted();
+    }
+
+    /**
+     * Splits body into chunks per partition and hands them over.
+     *
+     * @param exchange
+     *            current exchange
+     * @param pending
+     *            tracks chunks of the exchange
+     * @throws Exception
+     *             on problems reading body
+     */
+    private void split(final Exchange exchange, final PendingExchange pending) throws Exception {
+        InputStream csv = InflatingInputStream.open(exchange.getIn().getMandatoryBody(InputStream.class),
+                                                    endpoint.getCompression());
+        LineSplitter lines = new LineSplitter(csv);
+        ByteArrayOutputStream[] chunks = new ByteArrayOutputStream[partitions.length];
+        try {
+            while (lines.nextLine()) {
+                if (lines.isBlankLine()) {
+                    continue;
+                }
+                int hash = columnHash(lines.buffer(), lines.lineOffset(), lines.lineLength(), keyColumn);
+                int index = (hash & Integer.MAX_VALUE) % partitions.length;
+                if (chunks[index] == null) {
+                    chunks[index] = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+                }
+                ByteArrayOutputStream chunk = chunks[index];
+                chunk.write(lines.buffer(), lines.lineOffset(), lines.lineLength());
+                chunk.write('\n');
+                if (chunk.size() >= CHUNK_SIZE) {
+                    dispatch(index, chunk.toByteArray(), false, exchange, pending);
+                    chunk.reset();
+                }
+            }
+        } finally {
+            // important!
+            lines.close();
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null && chunks[i].size() > 0) {
+                dispatch(i, chunks[i].toByteArray(), true, exchange, pending);
+            }
+        }
+    }
+
+    /**
+     * Publishes chunk on the thread of its partition. Waits if too many
+     * chunks are queued for the partition.
+     *
+     * @param index
+     *            partition
+     * @param chunk
+     *            csv lines
+     * @param last
+     *            true for last chunk of exchange for this partition - only
+     *            this one may be quiesced
+     * @param exchange
+     *            current exchange
+     * @param pending
+     *            tracks chunks of the exchange
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private void dispatch(final int index, final byte[] chunk, final boolean last, final Exchange exchange,
+                          final PendingExchange pending) throws InterruptedException {
+        final Partition partition = partitions[index];
+        final Exchange child = exchange.copy();
+        child.getIn().setBody(chunk);
+        if (!last) {
+            child.setProperty(Exchange.SPLIT_COMPLETE, false);
+            child.getIn().removeHeader(DfESPConstants.QUIESCE);
+        }
+        partition.queued.acquire();
+        pending.blockSent();
+        try {
+            partition.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    partition.processor.process(child, new AsyncCallback() {
+                        @Override
+                        public void done(final boolean doneSync) {
+                            partition.queued.release();
+                            pending.blockDone(child.getException());
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            partition.queued.release();
+            pending.blockDone(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Hash of a field of a csv line.
+     *
+     * @param bytes
+     *            buffer containing the line
+     * @param offset
+     *            start of line
+     * @param length
+     *            length of line
+     * @param column
+     *            index of field - a missing field counts as empty
+     * @return hash of the field's bytes
+     */
+    static int columnHash(final byte[] bytes, final int offset, final int length, final int column) {
+        int end = offset + length;
+        int start = offset;
+        int found = 0;
+        for (int i = offset; i < end && found < column; i++) {
+            if (bytes[i] == ',') {
+                found++;
+                start = i + 1;
+            }
+        }
+        if (found < column) {
+            start = end;
+        }
+        int hash = 0;
+        for (int i = start; i < end && bytes[i] != ','; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ hash >>> 16;
+    }
+
+    /**
+     * Finds key field within csv lines of target window.
+     *
+     * @param target
+     *            endpoint of a partition
+     * @return index of key field within lines
+     * @throws Exception
+     *             if schema can't be fetched
+     */
+    private int findKeyColumn(final DfESPEndpoint target) throws Exception {
+        List<String> names = new dfESPschema(target.fetchSchema(false)).getNames();
+        int index = names.indexOf(endpoint.getKeyField());
+        if (index < 0) {
+            throw new IllegalArgumentException("keyField must be one of " + names + ", was " + endpoint.getKeyField());
+        }
+        Mode mode = target.getMode();
+        if (mode == Mode.insertAddId) {
+            // first field is added by producer
+            if (index == 0) {
+                throw new IllegalArgumentException("keyField can't be the id added by insertAddId.");
+            }
+            return index - 1;
+        }
+        if (mode == Mode.dynamic) {
+            // lines start with opcode and flags
+            return index + 2;
+        }
+        return index;
+    }
+
+    @Override
+    protected final void doStart() throws Exception {
+        super.doStart();
+        List<DfESPEndpoint> targets = endpoint.getPartitionEndpoints();
+        // a line is routed before its partition is known - the key must be
+        // at the same position for all of them
+        keyColumn = findKeyColumn(targets.get(0));
+        for (int i = 1; i < targets.size(); i++) {
+            int column = findKeyColumn(targets.get(i));
+            if (column != keyColumn) {
+                throw new IllegalArgumentException("keyField " + endpoint.getKeyField()
+                                                   + " must be at the same position in lines of all partitions, is "
+                                                   + keyColumn + " for " + targets.get(0).getEndpointUri() + " but "
+                                                   + column + " for " + targets.get(i).getEndpointUri());
+            }
+        }
+        partitions = new Partition[targets.size()];
+        for (int i = 0; i < partitions.length; i++) {
+            DfESPEndpoint target = targets.get(i);
+            LOG.info("Starting partition " + i + " publishing to " + target.getEndpointUri());
+            Producer producer = target.createProducer();
+            ServiceHelper.startService(producer);
+            partitions[i] = new Partition(producer, endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "DfESPPartition-" + i), endpoint.getMaxQueuedChunks());
+        }
+    }
+
+    @Override
+    protected final void doStop() throws Exception {
+        super.doStop();
+        if (partitions == null) {
+            return;
+        }
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                // queued chunks are published before the partition stops
+                endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(partition.executor);
+                ServiceHelper.stopService(partition.producer);
+            }
+        }
+        partitions = null;
+    }
+}
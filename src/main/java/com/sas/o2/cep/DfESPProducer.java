@@ -1,16 +1,34 @@
 package com.sas.o2.cep;
 
 import java.io.ByteArrayInputStream;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.UUID;
-import java.util.logging.Level;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.camel.AsyncCallback;
 import org.apache.camel.Exchange;
-import org.apache.camel.impl.DefaultProducer;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.impl.DefaultExchange;
+import org.apache.camel.util.IOHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,8 +37,7 @@ import com.sas.esp.api.pubsub.clientCallbacks;
 import com.sas.esp.api.pubsub.clientFailureCodes;
 import com.sas.esp.api.pubsub.clientFailures;
 import com.sas.esp.api.pubsub.clientGDStatus;
-import com.sas.esp.api.pubsub.dfESPclient;
-import com.sas.esp.api.pubsub.dfESPclientHandler;
+import com.sas.esp.api.server.event.EventOpcodes;
 import com.sas.esp.api.server.eventblock.EventBlockType;
 import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
 import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
@@ -29,9 +46,12 @@ import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
 
 /**
  * The dfESP producer. Takes exchanges representing csv files and sends them as
- * "blocks" to esp engine.
+ * "blocks" to esp engine. Bodies holding records (maps, Object[]s, rows or
+ * annotated pojos, see {@link StructuredEventBuilder}) are sent without csv
+ * on the way. Exchanges are completed asynchronously if their
+ * blocks wait for batching or (guaranteed delivery) for an ACK.
  */
-public class DfESPProducer extends DefaultProducer implements clientCallbacks {
+public class DfESPProducer extends DefaultAsyncProducer implements clientCallbacks {
     /**
      * Logger.
      */
@@ -40,6 +60,10 @@ public class DfESPProducer extends DefaultProducer implements clientCallbacks {
      * Default date time format.
      */
     public static final String DATA_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    /**
+     * Preferred size of chunks parsed in parallel.
+     */
+    private static final int PARSE_CHUNK_SIZE = 1024 * 1024;
     /**
      * Url of target window (should be a "window-source" in model) in esp.
      */
@@ -47,21 +71,154 @@ public class DfESPProducer extends DefaultProducer implements clientCallbacks {
     /**
      * Represents the target of data (window-source in esp model).
      */
-    private dfESPschema schema;
+    private volatile dfESPschema schema;
+    /**
+     * Creates events from structured bodies - replaced with schema.
+     */
+    private volatile StructuredEventBuilder structuredBuilder;
     /**
      * Mode how to send data to esp.
      */
     private Mode mode;
     /**
-     * Handles client and connection.
+     * Handles clients and connections - shared with other endpoints of the
+     * same esp server.
+     */
+    private EspClientHandler handler;
+    /**
+     * Used to publish data - one client per connection.
+     */
+    private volatile EspClient[] clients;
+    /**
+     * Assigns connections to sending threads round robin.
      */
-    private dfESPclientHandler handler;
+    private final AtomicInteger nextClient = new AtomicInteger();
     /**
-     * Used to publish data.
+     * Connection index of current thread. Blocks of one thread always use
+     * the same connection and stay in order.
      */
-    private dfESPclient client;
+    private final ThreadLocal<Integer> clientIndex = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return nextClient.getAndIncrement() & Integer.MAX_VALUE;
+        }
+    };
     private DfESPEndpoint endpoint;
     private String projectName;
+    /**
+     * Collects events of several exchanges - null if batching is disabled.
+     */
+    private EventBatcher batcher;
+    /**
+     * Runs flusher of {@link #batcher}.
+     */
+    private ExecutorService batchExecutor;
+    /**
+     * Correlates ACK/NACK with exchanges - null if guaranteed delivery is not
+     * used.
+     */
+    private DeliveryTracker tracker;
+    /**
+     * Adapts number of blocks in flight - null if flow control is disabled.
+     */
+    private AdaptiveLimiter limiter;
+    /**
+     * Inject time by block id of blocks waiting for ACK/NACK - only with
+     * flow control and guaranteed delivery.
+     */
+    private final Map<Long, Long> injectTimes = new ConcurrentHashMap<>();
+    /**
+     * Exchanges that could have been quiesced - for
+     * {@link QuiescePolicy#everyN}.
+     */
+    private final AtomicLong completedExchanges = new AtomicLong();
+    /**
+     * Time of last quiesce request - for {@link QuiescePolicy#interval}.
+     */
+    private final AtomicLong lastQuiesceRequest = new AtomicLong(System.nanoTime() - Long.MAX_VALUE / 2);
+    /**
+     * Quiesces the project using this producer's connection.
+     */
+    private final QuiesceBarrier.Action quiesceAction = new QuiesceBarrier.Action() {
+        @Override
+        public void quiesce() throws Exception {
+            LOG.debug("Quiescing project " + projectName + " of " + endpointUri);
+            currentClient().quiesceProject(projectName);
+        }
+    };
+    /**
+     * Parses chunks of an exchange in parallel - null if parseThreads is 0.
+     */
+    private ForkJoinPool parsePool;
+    /**
+     * Reconnects after connection failures - null if disabled.
+     */
+    private Reconnector reconnector;
+    /**
+     * Blocks waiting for reconnect - null unless {@link DownPolicy#buffer}.
+     */
+    private Deque<BufferedBlock> downBuffer;
+    /**
+     * True while buffered blocks are replayed - guarded by
+     * {@link #downBuffer}.
+     */
+    private boolean replayingBuffer;
+    /**
+     * Blocks waiting for reconnect on disk - null unless
+     * {@link DownPolicy#journal}. Set to null by stop under its own lock and
+     * {@link #replayLock}, so read it once and check it's still set under its
+     * lock.
+     */
+    private volatile SpillJournal journal;
+    /**
+     * True while journaled blocks are replayed - guarded by {@link #journal}.
+     */
+    private boolean replayingJournal;
+    /**
+     * Set if a journaled block can't be restored - replay stops and new
+     * blocks are rejected till restart.
+     */
+    private volatile Exception journalFailure;
+    /**
+     * Held while journaled blocks are replayed - stop waits for it.
+     */
+    private final Object replayLock = new Object();
+    /**
+     * Replays buffered and journaled blocks - null unless blocks are kept
+     * while down.
+     */
+    private ExecutorService replayExecutor;
+    /**
+     * Set on stop - ends replay.
+     */
+    private volatile boolean stopping;
+    /**
+     * Replays kept blocks when another endpoint of the server reconnected -
+     * the engine may have been marked down by a consumer.
+     */
+    private final Runnable engineUp = new Runnable() {
+        @Override
+        public void run() {
+            startBufferReplay();
+            startJournalReplay();
+        }
+    };
+
+    /**
+     * Block kept while engine is down.
+     */
+    private static final class BufferedBlock {
+        private final ArrayList<dfESPevent> events;
+        private final boolean quiesce;
+        private final List<PendingExchange> owners;
+
+        private BufferedBlock(final ArrayList<dfESPevent> events, final boolean quiesce,
+                              final List<PendingExchange> owners) {
+            this.events = events;
+            this.quiesce = quiesce;
+            this.owners = owners;
+        }
+    }
 
     /**
      *
@@ -80,133 +237,1028 @@ public class DfESPProducer extends DefaultProducer implements clientCallbacks {
                                            "Mode to insert data is not set. Use mode=insert|upsert|insertAddId|delete parameter in uri.");
         }
         LOG.debug("Mode for endpoint " + endpointUri + " set to " + mode.name());
+        if (endpoint.getWhenDown() != DownPolicy.fail && !endpoint.isReconnect()) {
+            // kept blocks are only published after a reconnect
+            throw new IllegalArgumentException("whenDown=" + endpoint.getWhenDown().name()
+                                               + " requires reconnect=true.");
+        }
     }
 
     @Override
-    public final void process(final Exchange exchange) throws Exception {
-        // TODO the flag is set by consumer. At the moment the only way to
-        // detect engine down.
-        if (DfESPEndpoint.isEngineDown()) {
-            throw new EspConnectionLostException(
-                                                 "Seems that cep engine is down. Check/ restart engine and then restart adapter.");
+    public final boolean process(final Exchange exchange, final AsyncCallback callback) {
+        PendingExchange pending = new PendingExchange(exchange, callback);
+        try {
+            publishExchange(exchange, pending);
+        } catch (Exception e) {
+            pending.fail(e);
         }
-        byte[] csv = exchange.getIn().getBody(byte[].class);
+        // completes immediately unless blocks wait for batching or ACK
+        return pending.submitted();
+    }
 
-        Scanner scanner = new Scanner(new ByteArrayInputStream(csv));
+    /**
+     * Converts csv or structured body into event blocks and sends them.
+     *
+     * @param exchange
+     *            current exchange
+     * @param pending
+     *            tracks blocks sent for this exchange
+     * @throws Exception
+     *             on problems reading body or creating events
+     */
+    private void publishExchange(final Exchange exchange, final PendingExchange pending) throws Exception {
+        // the flag is set by consumers and producers of the same esp server
+        if (endpoint.isEngineDown() && downBuffer == null && journal == null) {
+            throw new EspConnectionLostException("Seems that cep engine is down (" + endpointUri
+                                                 + "). Reconnect will be attempted automatically if enabled.");
+        }
+        Object body = exchange.getIn().getBody();
+        if (StructuredEventBuilder.isStructured(body)) {
+            publishRecords(exchange, body, pending);
+            return;
+        }
+        // compressed bodies are inflated while lines are read
+        InputStream csv = InflatingInputStream.open(exchange.getIn().getMandatoryBody(InputStream.class),
+                                                    endpoint.getCompression());
+        if (parsePool != null) {
+            publishParsedInParallel(exchange, csv, pending);
+            return;
+        }
+        // lines are split from a reused buffer - whole file is never held in
+        // memory
+        LineSplitter lines = new LineSplitter(csv);
+        CsvEventBuilder eventBuilder = new CsvEventBuilder(schema, mode, endpoint.getIdGenerator(),
+                                                           Charset.forName(IOHelper.getCharsetName(exchange, true)));
         ArrayList<dfESPevent> eventList = new ArrayList<>();
-        while (scanner.hasNextLine()) {
-            String lineForCep = scanner.nextLine();
-            //lineForCep = lineForCep.replace("\\", "\\\\");		//escape backslash \
-            //lineForCep = lineForCep.replace("\"", "\\\"");		//escape quotes " uncommented Mathias Bouten
+        long blockBytes = 0;
+        try {
+            while (lines.nextLine()) {
+                // ignore empty lines
+                if (!lines.isBlankLine()) {
+                    // block is sent when next line arrives - so the last block
+                    // (the one that may be quiesced) is never empty
+                    if (endpoint.isBlockFull(eventList.size(), blockBytes)) {
+                        sendBlock(eventList, false, pending);
+                        eventList = new ArrayList<>();
+                        blockBytes = 0;
+                    }
+                    eventList.add(eventBuilder.build(lines.buffer(), lines.lineOffset(), lines.lineLength()));
+                    blockBytes += lines.lineLength();
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("Added line for cep: " + eventBuilder.lastLine());
+                    }
+                }
+            }
+        } finally {
+            // important!
+            lines.close();
+        }
+        // don't send empty blocks
+        if (!eventList.isEmpty()) {
+            sendBlock(eventList, isQuiesceRequested(exchange), pending);
+        }
+    }
 
-            // ignore empty lines
-            if (!lineForCep.trim().isEmpty()) {
-                switch (mode) {
-                case insertAddId:
-                    lineForCep = UUID.randomUUID().toString().concat("," + lineForCep);
-                default:
-                    // fall thru
-                    lineForCep = mode.prefix() + lineForCep;
-                    break;
+    /**
+     * Converts structured body (records or list of records) into event blocks
+     * and sends them - no csv on the way.
+     *
+     * @param exchange
+     *            current exchange
+     * @param body
+     *            structured body
+     * @param pending
+     *            tracks blocks sent for this exchange
+     * @throws Exception
+     *             on problems creating events
+     */
+    private void publishRecords(final Exchange exchange, final Object body, final PendingExchange pending)
+        throws Exception {
+        StructuredEventBuilder eventBuilder = structuredBuilder;
+        EventOpcodes opcode = StructuredEventBuilder.toOpcode(exchange.getIn().getHeader(DfESPConstants.OPCODE));
+        ArrayList<dfESPevent> eventList = new ArrayList<>();
+        for (Object record : StructuredEventBuilder.records(body)) {
+            // size in bytes is unknown - blocks are limited by events only
+            if (endpoint.isBlockFull(eventList.size(), 0)) {
+                sendBlock(eventList, false, pending);
+                eventList = new ArrayList<>();
+            }
+            eventList.add(eventBuilder.build(record, opcode));
+        }
+        if (!eventList.isEmpty()) {
+            sendBlock(eventList, isQuiesceRequested(exchange), pending);
+        }
+    }
+
+    /**
+     * Cuts body into chunks at line boundaries, parses chunks on
+     * {@link #parsePool} and sends their blocks - in order of input unless
+     * {@link DfESPEndpoint#isParseOrdered()} is false. The main thread only
+     * reads and sends.
+     *
+     * @param exchange
+     *            current exchange
+     * @param csv
+     *            body
+     * @param pending
+     *            tracks blocks sent for this exchange
+     * @throws Exception
+     *             on problems reading body or creating events
+     */
+    private void publishParsedInParallel(final Exchange exchange, final InputStream csv,
+                                         final PendingExchange pending) throws Exception {
+        final dfESPschema currentSchema = schema;
+        final Charset charset = Charset.forName(IOHelper.getCharsetName(exchange, true));
+        // bounds memory: chunks read ahead of the oldest unsent one
+        int maxParsing = endpoint.getParseThreads() * 2;
+        Deque<Future<List<ArrayList<dfESPevent>>>> parsing = new ArrayDeque<>();
+        CompletionService<List<ArrayList<dfESPevent>>> completion = endpoint.isParseOrdered() ? null
+            : new ExecutorCompletionService<List<ArrayList<dfESPevent>>>(parsePool);
+        // last block is held back - it may be quiesced
+        ArrayList<dfESPevent> held = null;
+        LineChunker chunks = new LineChunker(csv, PARSE_CHUNK_SIZE);
+        try {
+            byte[] chunk;
+            while ((chunk = chunks.nextChunk()) != null) {
+                if (parsing.size() >= maxParsing) {
+                    held = sendParsed(nextParsed(parsing, completion), held, pending);
                 }
-                eventList.add(new dfESPevent(schema, lineForCep, ','));
-                endpoint.countEventSent();
-                LOG.trace("Added line for cep: " + lineForCep);
+                final byte[] lines = chunk;
+                Callable<List<ArrayList<dfESPevent>>> parser = new Callable<List<ArrayList<dfESPevent>>>() {
+                    @Override
+                    public List<ArrayList<dfESPevent>> call() throws Exception {
+                        return parseChunk(lines, currentSchema, charset);
+                    }
+                };
+                parsing.add(completion == null ? parsePool.submit(parser) : completion.submit(parser));
+            }
+            while (!parsing.isEmpty()) {
+                held = sendParsed(nextParsed(parsing, completion), held, pending);
+            }
+        } finally {
+            for (Future<?> future : parsing) {
+                future.cancel(true);
+            }
+            // important!
+            chunks.close();
+        }
+        if (held != null) {
+            sendBlock(held, isQuiesceRequested(exchange), pending);
+        }
+    }
 
+    /**
+     * Waits for next parsed chunk.
+     *
+     * @param parsing
+     *            chunks being parsed, in order of input
+     * @param completion
+     *            null to take chunks in order of input, else taken by
+     *            completion
+     * @return blocks of chunk
+     * @throws Exception
+     *             if parsing failed
+     */
+    private static List<ArrayList<dfESPevent>> nextParsed(final Deque<Future<List<ArrayList<dfESPevent>>>> parsing,
+                                                          final CompletionService<List<ArrayList<dfESPevent>>> completion)
+        throws Exception {
+        Future<List<ArrayList<dfESPevent>>> next;
+        if (completion == null) {
+            next = parsing.poll();
+        } else {
+            next = completion.take();
+            parsing.remove(next);
+        }
+        try {
+            return next.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends held block and all blocks of chunk except the last one.
+     *
+     * @return last block of chunk - to be held back
+     */
+    private ArrayList<dfESPevent> sendParsed(final List<ArrayList<dfESPevent>> blocks,
+                                             final ArrayList<dfESPevent> held, final PendingExchange pending)
+        throws Exception {
+        if (blocks.isEmpty()) {
+            return held;
+        }
+        if (held != null) {
+            sendBlock(held, false, pending);
+        }
+        for (int i = 0; i < blocks.size() - 1; i++) {
+            sendBlock(blocks.get(i), false, pending);
+        }
+        return blocks.get(blocks.size() - 1);
+    }
+
+    /**
+     * Creates blocks of events from a chunk of lines. Runs on
+     * {@link #parsePool}.
+     *
+     * @param chunk
+     *            lines
+     * @param currentSchema
+     *            schema of target window
+     * @param charset
+     *            encoding of lines
+     * @return blocks, none empty
+     * @throws Exception
+     *             on problems creating events
+     */
+    private List<ArrayList<dfESPevent>> parseChunk(final byte[] chunk, final dfESPschema currentSchema,
+                                                   final Charset charset) throws Exception {
+        List<ArrayList<dfESPevent>> blocks = new ArrayList<>();
+        LineSplitter lines = new LineSplitter(new ByteArrayInputStream(chunk), chunk.length + 1);
+        CsvEventBuilder eventBuilder = new CsvEventBuilder(currentSchema, mode, endpoint.getIdGenerator(), charset);
+        ArrayList<dfESPevent> eventList = new ArrayList<>();
+        long blockBytes = 0;
+        while (lines.nextLine()) {
+            if (!lines.isBlankLine()) {
+                if (endpoint.isBlockFull(eventList.size(), blockBytes)) {
+                    blocks.add(eventList);
+                    eventList = new ArrayList<>();
+                    blockBytes = 0;
+                }
+                eventList.add(eventBuilder.build(lines.buffer(), lines.lineOffset(), lines.lineLength()));
+                blockBytes += lines.lineLength();
             }
         }
-        // don't send empty blocks
         if (!eventList.isEmpty()) {
-            boolean quiesce = false;
-            if (endpoint.isQuiesce()) {
-                // in case of split property != null and we wait for split to
-                // complete. If not split property should be null and we quiesce
-                // on every exchange.
-                if (exchange.getProperty("CamelSplitComplete", Boolean.class) == null)
-                    quiesce = true;
-                else {
-                    quiesce = exchange.getProperty("CamelSplitComplete", Boolean.class);
+            blocks.add(eventList);
+        }
+        return blocks;
+    }
+
+    /**
+     * Decides whether to quiesce after the last block of an exchange.
+     *
+     * @param exchange
+     *            current exchange
+     * @return true if project should be quiesced
+     */
+    private boolean isQuiesceRequested(final Exchange exchange) {
+        if (exchange.getIn().getHeader(DfESPConstants.QUIESCE, false, Boolean.class)) {
+            return true;
+        }
+        QuiescePolicy policy = endpoint.getQuiesce();
+        if (policy == QuiescePolicy.never) {
+            return false;
+        }
+        // in case of split property != null and we wait for split to
+        // complete. If not split property should be null and we quiesce
+        // on every exchange.
+        Boolean splitComplete = exchange.getProperty(Exchange.SPLIT_COMPLETE, Boolean.class);
+        if (splitComplete != null && !splitComplete) {
+            return false;
+        }
+        switch (policy) {
+            case everyN:
+                return completedExchanges.incrementAndGet() % endpoint.getQuiesceEvery() == 0;
+            case interval:
+                long now = System.nanoTime();
+                long last = lastQuiesceRequest.get();
+                return now - last >= TimeUnit.MILLISECONDS.toNanos(endpoint.getQuiesceIntervalMs())
+                       && lastQuiesceRequest.compareAndSet(last, now);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Publishes events directly or hands them over to the batcher.
+     *
+     * @param eventList
+     *            events of block
+     * @param quiesce
+     *            true to quiesce project after publishing
+     * @param pending
+     *            exchange the events belong to
+     * @throws Exception
+     *             if events couldn't be handed over to the batcher
+     */
+    private void sendBlock(final ArrayList<dfESPevent> eventList, final boolean quiesce,
+                           final PendingExchange pending) throws Exception {
+        pending.blockSent();
+        if (batcher != null) {
+            try {
+                batcher.submit(eventList, quiesce, pending);
+            } catch (InterruptedException | RuntimeException e) {
+                pending.blockDone(e);
+                throw e;
+            }
+        } else {
+            publishEvents(eventList, quiesce, Collections.singletonList(pending));
+        }
+    }
+
+    /**
+     * Wraps events into a block and publishes it. Owners are notified when
+     * the block is injected or, in guaranteed delivery mode, acknowledged.
+     *
+     * @param eventList
+     *            events of block
+     * @param quiesce
+     *            true to quiesce project after publishing
+     * @param owners
+     *            exchanges the events belong to
+     */
+    private void publishEvents(final ArrayList<dfESPevent> eventList, final boolean quiesce,
+                               final List<PendingExchange> owners) {
+        if (downBuffer != null && bufferIfDown(eventList, quiesce, owners)) {
+            return;
+        }
+        SpillJournal currentJournal = journal;
+        if (currentJournal != null && journalIfDown(currentJournal, eventList, quiesce, owners)) {
+            return;
+        }
+        publishToEsp(eventList, quiesce, owners);
+    }
+
+    /**
+     * Publishes events as one block to esp.
+     *
+     * @param eventList
+     *            events of block
+     * @param quiesce
+     *            true to quiesce project after publishing
+     * @param owners
+     *            exchanges the events belong to
+     */
+    private void publishToEsp(final ArrayList<dfESPevent> eventList, final boolean quiesce,
+                              final List<PendingExchange> owners) {
+        dfESPeventblock block = new dfESPeventblock(eventList, EventBlockType.ebt_NORMAL);
+        SpillJournal currentJournal = journal;
+        Exception failure = null;
+        boolean tracked = false;
+        boolean journaled = false;
+        boolean requeued = false;
+        // permit held by this thread - with guaranteed delivery handed over
+        // to the ACK/NACK callback
+        boolean permit = false;
+        try {
+            if (limiter != null) {
+                limiter.acquire();
+                permit = true;
+            }
+            if (tracker != null) {
+                // register before inject - ACK may arrive before inject returns
+                tracker.register(block.getTID(), owners);
+                tracked = true;
+                if (permit) {
+                    injectTimes.put(block.getTID(), System.nanoTime());
+                    permit = false;
+                }
+            }
+            long start = System.nanoTime();
+            boolean injected = false;
+            try {
+                injected = publishBlock(block, quiesce);
+            } finally {
+                if (permit) {
+                    limiter.release(System.nanoTime() - start, injected);
+                    permit = false;
                 }
+            }
+            if (injected) {
+                endpoint.countBlockSent(eventList.size());
+            } else if (currentJournal != null) {
+                // kept for replay after reconnect - exchanges complete
+                journaled = true;
+            } else if (downBuffer != null) {
+                // published again after reconnect, ahead of newer blocks
+                requeued = true;
+            } else {
+                failure = new EspConnectionLostException("Error on sending eventblock to cep engine. Window: "
+                                                         + endpointUri);
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            failure = e;
+            if (permit) {
+                limiter.cancel();
+            }
+        }
+        if (journaled) {
+            // with guaranteed delivery owners may have failed already
+            // (connection lost) - then the block is not journaled
+            if (!tracked || tracker.remove(block.getTID()) != null) {
+                failure = journalBlock(currentJournal, eventList, quiesce);
+                for (PendingExchange owner : owners) {
+                    owner.blockDone(failure);
+                }
+            }
+            if (tracked) {
+                acknowledged(block.getTID(), false);
+            }
+        } else if (requeued) {
+            // with guaranteed delivery owners may have failed already
+            // (connection lost) - then the block is not requeued
+            if (!tracked || tracker.remove(block.getTID()) != null) {
+                requeue(new BufferedBlock(eventList, quiesce, owners));
+            }
+            if (tracked) {
+                acknowledged(block.getTID(), false);
+            }
+        } else if (!tracked) {
+            for (PendingExchange owner : owners) {
+                owner.blockDone(failure);
+            }
+        } else if (failure != null) {
+            tracker.done(block.getTID(), failure);
+            acknowledged(block.getTID(), false);
+        }
+    }
+
+    /**
+     * Gives back flow control permit of a block in guaranteed delivery mode.
+     *
+     * @param blockId
+     *            id of block
+     * @param success
+     *            true for ACK
+     */
+    private void acknowledged(final long blockId, final boolean success) {
+        Long injected = injectTimes.remove(blockId);
+        if (injected != null) {
+            limiter.release(System.nanoTime() - injected, success);
+        }
+    }
 
+    /**
+     * Gives back flow control permits of all blocks waiting for ACK/NACK.
+     *
+     * @param failed
+     *            true if connection failed (lowers limit), false on stop
+     */
+    private void abandonInFlight(final boolean failed) {
+        for (Long blockId : injectTimes.keySet()) {
+            if (injectTimes.remove(blockId) != null) {
+                if (failed) {
+                    limiter.release(0, false);
+                } else {
+                    limiter.cancel();
+                }
             }
-            publishBlock(new dfESPeventblock(eventList, EventBlockType.ebt_NORMAL), quiesce);
-            endpoint.countBlockSent();
         }
-        // important!
-        scanner.close();
     }
 
     @Override
     protected final void doStart() throws Exception {
         super.doStart();
+        stopping = false;
         LOG.debug("Publisher connecting to " + endpointUri);
-        handler = new dfESPclientHandler();
-        /*
-         * all jul logging will be redirected to central slf4j logger. too many
-         * messages will impact performance. see MainApp and
-         * http://www.slf4j.org/legacy.html#jul-to-slf4j
-         */
-        // ignoring return - has no sense
-        handler.init(Level.WARNING);
+        handler = endpoint.getClientHandler();
 
         dfESPlibrary.setDateFormat(new SimpleDateFormat(DATA_FORMAT));
 
-        ArrayList<String> schemaVector;
-        try {
-            schemaVector = handler.queryMeta(endpointUri + "?get=schema");
-            // we noticed that schema vector could be null
-            if (schemaVector == null) {
-                throw new NullPointerException("dfESP handler returned a null schema vector for unknown reason. Cep seems to be offline or not reachable.");
+        fetchSchema(false);
+        if (endpoint.getGdConfig() != null) {
+            LOG.debug("Using guaranteed delivery for " + endpointUri + ", max " + endpoint.getMaxInFlight()
+                      + " blocks in flight");
+            tracker = new DeliveryTracker(endpoint.getMaxInFlight());
+        }
+        limiter = endpoint.getFlowLimiter();
+        endpoint.addQuiesceAction(quiesceAction);
+        startClient();
+        endpoint.markEngineUp();
+        reconnector = endpoint.createReconnector(new Reconnector.Connector() {
+            @Override
+            public void reconnect() throws Exception {
+                DfESPProducer.this.reconnect();
+            }
+        });
+        if (endpoint.getWhenDown() != DownPolicy.fail) {
+            // replay never runs on the reconnect thread shared by endpoints
+            replayExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "DfESPReplay");
+            endpoint.getHealth().addUpListener(engineUp);
+        }
+        if (endpoint.getWhenDown() == DownPolicy.buffer) {
+            downBuffer = new ArrayDeque<>();
+        }
+        if (endpoint.getWhenDown() == DownPolicy.journal) {
+            journal = new SpillJournal(endpoint.getWindowJournalDir(), endpoint.getJournalSegmentSize(),
+                                       endpoint.getJournalMaxSize());
+            journalFailure = null;
+            if (!journal.isEmpty()) {
+                LOG.info("Publishing " + journal.getRecords() + " journaled blocks to " + endpointUri);
+                startJournalReplay();
             }
-        } catch (UnknownHostException e) {
-            throw new IllegalStateException("Problem on fetching meta data from " + endpointUri + ", cause: ", e);
         }
+        if (endpoint.getParseThreads() > 0) {
+            LOG.debug("Parsing exchanges for " + endpointUri + " with " + endpoint.getParseThreads() + " threads");
+            parsePool = new ForkJoinPool(endpoint.getParseThreads());
+        }
+        if (endpoint.getBatchSize() > 0) {
+            LOG.debug("Batching events for " + endpointUri + " into blocks of " + endpoint.getBatchSize()
+                      + " events, linger " + endpoint.getLingerMs() + " ms");
+            batcher = new EventBatcher(new EventBatcher.Publisher() {
+                @Override
+                public void publish(final ArrayList<dfESPevent> events, final boolean quiesce,
+                                    final List<PendingExchange> owners) {
+                    publishEvents(events, quiesce, owners);
+                }
+            }, endpoint.getBatchSize(), endpoint.getLingerMs());
+            batchExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+                .newSingleThreadExecutor(this, "DfESPBatchFlusher");
+            batchExecutor.submit(batcher);
+        }
+    }
+
+    /**
+     * Fetches schema of target window.
+     *
+     * @param refresh
+     *            true to query esp even if schema is cached
+     */
+    private void fetchSchema(final boolean refresh) {
         try {
-            schema = new dfESPschema(schemaVector.get(0));
+            schema = new dfESPschema(endpoint.fetchSchema(refresh));
+            structuredBuilder = new StructuredEventBuilder(schema, mode, endpoint.getIdGenerator());
         } catch (dfESPException e) {
             throw new IllegalStateException("Problem on creating schema, cause: ", e);
         }
-        client = handler.publisherStart(endpointUri, this, null);
-        if (client == null) {
-            throw new IllegalStateException("Client object creation for connection to CEP engine not possible");
+    }
+
+    /**
+     * Starts and connects publisher clients.
+     */
+    private void startClient() {
+        EspClient[] started = new EspClient[endpoint.getPublishers()];
+        for (int i = 0; i < started.length; i++) {
+            // block ids are unique within the process - one tracker serves
+            // all connections
+            started[i] = handler.publisherStart(endpointUri, this, tracker != null ? endpoint.getGdConfig() : null);
         }
-        try {
-            handler.connect(client);
-        } catch (SocketException | UnknownHostException e) {
-            throw new IllegalStateException("Can't connect to esp engine.");
+        clients = started;
+    }
+
+    /**
+     * @return client of current thread's connection
+     */
+    private EspClient currentClient() {
+        EspClient[] current = clients;
+        return current[clientIndex.get() % current.length];
+    }
+
+    /**
+     * Replaces failed client: fetches schema again (it may have changed with
+     * an engine restart), starts a new client and publishes buffered blocks.
+     *
+     * @throws Exception
+     *             if reconnect failed
+     */
+    private void reconnect() throws Exception {
+        if (!isRunAllowed()) {
+            return;
+        }
+        disconnectQuietly();
+        if (tracker != null) {
+            // old connection won't deliver ACKs any more
+            tracker.failAll(new EspConnectionLostException("Connection to " + endpointUri
+                                                           + " lost before block was acknowledged."));
+            abandonInFlight(true);
+        }
+        // schema may have changed with an engine restart
+        fetchSchema(true);
+        startClient();
+        endpoint.markEngineUp();
+        startBufferReplay();
+        startJournalReplay();
+    }
+
+    /**
+     * Disconnects clients, ignoring errors of already broken connections.
+     */
+    private void disconnectQuietly() {
+        if (clients != null) {
+            for (EspClient client : clients) {
+                try {
+                    client.disconnect();
+                } catch (RuntimeException e) {
+                    LOG.debug("Ignoring error on disconnecting from " + endpointUri + ": " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks window down and triggers reconnect.
+     */
+    private void connectionLost() {
+        endpoint.markEngineDown(false);
+        if (reconnector != null) {
+            reconnector.trigger();
+        }
+    }
+
+    /**
+     * Keeps block for later if engine is down or older blocks are still
+     * buffered (keeps order). Makes sure buffered blocks are published
+     * eventually: replays them if engine is up, else triggers a reconnect -
+     * engine may have been marked down by another endpoint of the server.
+     *
+     * @return true if block was buffered (or rejected because buffer is full)
+     */
+    private boolean bufferIfDown(final ArrayList<dfESPevent> eventList, final boolean quiesce,
+                                 final List<PendingExchange> owners) {
+        boolean down;
+        synchronized (downBuffer) {
+            down = endpoint.isEngineDown();
+            if (!down && downBuffer.isEmpty() && !replayingBuffer) {
+                return false;
+            }
+            if (downBuffer.size() >= endpoint.getDownBufferSize()) {
+                EspConnectionLostException cause = new EspConnectionLostException("Cep engine is down ("
+                                                                                  + endpointUri
+                                                                                  + ") and buffer is full.");
+                for (PendingExchange owner : owners) {
+                    owner.blockDone(cause);
+                }
+            } else {
+                downBuffer.add(new BufferedBlock(eventList, quiesce, owners));
+            }
+        }
+        if (down) {
+            reconnector.trigger();
+        } else {
+            startBufferReplay();
+        }
+        return true;
+    }
+
+    /**
+     * Puts a block that could not be injected back at the head of the
+     * buffer - or fails its owners if the producer is stopping.
+     */
+    private void requeue(final BufferedBlock block) {
+        synchronized (downBuffer) {
+            if (!stopping) {
+                downBuffer.addFirst(block);
+                return;
+            }
+        }
+        EspConnectionLostException stopped = stoppedFailure();
+        for (PendingExchange owner : block.owners) {
+            owner.blockDone(stopped);
+        }
+    }
+
+    /**
+     * Replays buffered blocks on {@link #replayExecutor} unless a replay is
+     * running already or nothing is buffered.
+     */
+    private void startBufferReplay() {
+        if (downBuffer == null) {
+            return;
+        }
+        synchronized (downBuffer) {
+            if (replayingBuffer || downBuffer.isEmpty() || stopping) {
+                return;
+            }
+            replayingBuffer = true;
         }
+        replayExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                replayDownBuffer();
+            }
+        });
+    }
+
+    /**
+     * Publishes blocks buffered while engine was down, in order. Ends when
+     * buffer is empty or engine is down again - a block that could not be
+     * injected is requeued.
+     */
+    private void replayDownBuffer() {
+        while (true) {
+            BufferedBlock block;
+            synchronized (downBuffer) {
+                if (stopping || endpoint.isEngineDown() || downBuffer.isEmpty()) {
+                    replayingBuffer = false;
+                    return;
+                }
+                block = downBuffer.poll();
+            }
+            LOG.debug("Publishing buffered block with " + block.events.size() + " events to " + endpointUri);
+            publishToEsp(block.events, block.quiesce, block.owners);
+        }
+    }
+
+    /**
+     * Appends block to journal if engine is down or older blocks are still
+     * journaled (keeps order). Owners complete once the block is journaled.
+     * Like {@link #bufferIfDown} makes sure the journal is replayed
+     * eventually.
+     *
+     * @param currentJournal
+     *            journal as read once from {@link #journal}
+     * @return true if block was journaled (or rejected because journal is
+     *         full or closed)
+     */
+    private boolean journalIfDown(final SpillJournal currentJournal, final ArrayList<dfESPevent> eventList,
+                                  final boolean quiesce, final List<PendingExchange> owners) {
+        Exception failure;
+        boolean down;
+        // appending and checking for an empty journal under the journal's
+        // lock - a block is never published while older ones are journaled
+        synchronized (currentJournal) {
+            if (journal != currentJournal) {
+                // closed by stop
+                failure = stoppedFailure();
+                down = false;
+            } else {
+                down = endpoint.isEngineDown();
+                if (!down && currentJournal.isEmpty()) {
+                    return false;
+                }
+                failure = journalFailure == null ? journalBlock(currentJournal, eventList, quiesce)
+                    : new IllegalStateException("Journal of " + endpointUri
+                                                + " holds a block that can't be published.", journalFailure);
+            }
+        }
+        for (PendingExchange owner : owners) {
+            owner.blockDone(failure);
+        }
+        if (stopping) {
+            return true;
+        }
+        if (down) {
+            reconnector.trigger();
+        } else {
+            startJournalReplay();
+        }
+        return true;
+    }
+
+    /**
+     * Appends events to journal as typed values (see {@link EventBlockCodec}).
+     *
+     * @param currentJournal
+     *            journal as read once from {@link #journal}
+     * @return null if journaled, else the reason why not
+     */
+    private Exception journalBlock(final SpillJournal currentJournal, final ArrayList<dfESPevent> eventList,
+                                   final boolean quiesce) {
+        synchronized (currentJournal) {
+            if (journal != currentJournal) {
+                // closed by stop
+                return stoppedFailure();
+            }
+            try {
+                if (currentJournal.append(EventBlockCodec.encode(eventList, schema), quiesce)) {
+                    return null;
+                }
+                return new EspConnectionLostException("Cep engine is down (" + endpointUri
+                                                      + ") and journal is full.");
+            } catch (dfESPException | IOException e) {
+                LOG.error("Can't journal block for " + endpointUri + ": " + e);
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Replays journaled blocks on {@link #replayExecutor} unless a replay is
+     * running already or nothing is journaled.
+     */
+    private void startJournalReplay() {
+        SpillJournal currentJournal = journal;
+        if (currentJournal == null) {
+            return;
+        }
+        synchronized (currentJournal) {
+            if (replayingJournal || stopping || journal != currentJournal || currentJournal.isEmpty()
+                || journalFailure != null) {
+                return;
+            }
+            replayingJournal = true;
+        }
+        replayExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                replayJournal();
+                return null;
+            }
+        });
     }
 
     /**
-     * Publishes a block of events to this' client's window.
+     * Publishes journaled blocks in order, committing each one after it was
+     * injected - in guaranteed delivery mode after its ACK, so one block at a
+     * time. Ends when the journal is empty or the engine is down again. A
+     * block that can't be restored is not committed: replay stops and the
+     * producer rejects new blocks.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for guaranteed delivery
+     */
+    private void replayJournal() throws InterruptedException {
+        synchronized (replayLock) {
+            // not closed by stop while replayLock is held
+            if (journal == null) {
+                return;
+            }
+            long replayed = 0;
+            try {
+                while (true) {
+                    SpillJournal.Record record;
+                    synchronized (journal) {
+                        if (stopping || endpoint.isEngineDown() || (record = journal.peek()) == null) {
+                            replayingJournal = false;
+                            break;
+                        }
+                    }
+                    ArrayList<dfESPevent> events;
+                    try {
+                        events = EventBlockCodec.decode(record.getData(), structuredBuilder);
+                    } catch (dfESPException | IOException | RuntimeException e) {
+                        // e.g. schema changed since block was journaled
+                        journalFailure = e;
+                        LOG.error("Journaled block can't be published to " + endpointUri + ", stopping replay. "
+                                  + journal.getRecords() + " blocks stay journaled, new blocks are rejected.", e);
+                        synchronized (journal) {
+                            replayingJournal = false;
+                        }
+                        break;
+                    }
+                    Exception failure = publishJournaled(events, record.isQuiesce());
+                    if (failure == null) {
+                        journal.commit();
+                        replayed++;
+                    } else if (failure instanceof EspNackException) {
+                        // retried with next block journaled or reconnect
+                        LOG.warn("Journaled block was not acknowledged by " + endpointUri + ", it stays journaled.");
+                        synchronized (journal) {
+                            replayingJournal = false;
+                        }
+                        break;
+                    }
+                    // else connection lost - loop ends unless already
+                    // reconnected
+                }
+            } catch (InterruptedException | RuntimeException e) {
+                synchronized (journal) {
+                    replayingJournal = false;
+                }
+                throw e;
+            }
+            if (replayed > 0) {
+                LOG.info("Published " + replayed + " journaled blocks to " + endpointUri + ", "
+                         + journal.getRecords() + " left");
+            }
+        }
+    }
+
+    /**
+     * Publishes a journaled block, waiting for its ACK in guaranteed delivery
+     * mode.
+     *
+     * @return null if block was injected (and acknowledged), else the reason
+     *         why not
+     * @throws InterruptedException
+     *             if interrupted while waiting for ACK
+     */
+    private Exception publishJournaled(final ArrayList<dfESPevent> events, final boolean quiesce)
+        throws InterruptedException {
+        dfESPeventblock block = new dfESPeventblock(events, EventBlockType.ebt_NORMAL);
+        if (tracker == null) {
+            if (!publishBlock(block, quiesce)) {
+                return new EspConnectionLostException("Journaled block not injected into " + endpointUri);
+            }
+            endpoint.countBlockSent(events.size());
+            return null;
+        }
+        // exchanges completed when block was journaled - the block waits
+        // for its own ACK
+        final CountDownLatch done = new CountDownLatch(1);
+        PendingExchange acknowledgement = new PendingExchange(new DefaultExchange(endpoint), new AsyncCallback() {
+            @Override
+            public void done(final boolean doneSync) {
+                done.countDown();
+            }
+        });
+        acknowledgement.blockSent();
+        tracker.register(block.getTID(), Collections.singletonList(acknowledgement));
+        if (!publishBlock(block, quiesce)) {
+            tracker.done(block.getTID(), new EspConnectionLostException("Journaled block not injected into "
+                                                                        + endpointUri));
+        }
+        acknowledgement.submitted();
+        done.await();
+        Exception failure = acknowledgement.getExchange().getException();
+        if (failure == null) {
+            endpoint.countBlockSent(events.size());
+        }
+        return failure;
+    }
+
+    /**
+     * Publishes a block of events to this' client's window, using the
+     * connection of the current thread.
      *
      * @param block
      *            to be published.
+     * @return false if esp did not accept the block
      */
-    private void publishBlock(final dfESPeventblock block, boolean quiesce) {
+    private boolean publishBlock(final dfESPeventblock block, boolean quiesce) {
         LOG.debug("Publishing block with id " + block.getTID() + " to window " + endpointUri);
-        if (!handler.publisherInject(client, block)) {
+        EspClient client = currentClient();
+        long start = System.nanoTime();
+        boolean injected = client.inject(block);
+        endpoint.recordPublishLatency(System.nanoTime() - start);
+        if (!injected) {
             LOG.error("Error on sending eventblock to cep engine. Window: " + endpointUri);
+            connectionLost();
         }
         if (quiesce) {
             try {
-                handler.quiesceProject(projectName, client);
-            } catch (UnknownHostException e) {
+                // shared with producer threads quiescing at the same time
+                endpoint.getQuiesceBarrier().await();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
                 throw new IllegalStateException("Problem on quiesceProject from " + endpointUri + ", cause: ", e);
             }
         }
+        return injected;
     }
 
     @Override
     protected final void doStop() throws Exception {
         super.doStop();
+        stopping = true;
+        endpoint.removeQuiesceAction(quiesceAction);
+        endpoint.getHealth().removeUpListener(engineUp);
+        if (reconnector != null) {
+            reconnector.stop();
+        }
+        if (replayExecutor != null) {
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownNow(replayExecutor);
+            replayExecutor = null;
+        }
+        if (parsePool != null) {
+            parsePool.shutdownNow();
+            parsePool = null;
+        }
+        if (batcher != null) {
+            // flusher publishes remaining events before it ends
+            batcher.stop();
+            endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(batchExecutor);
+            batcher = null;
+        }
+        EspConnectionLostException stopped = stoppedFailure();
+        if (tracker != null) {
+            tracker.failAll(stopped);
+            abandonInFlight(false);
+        }
+        if (downBuffer != null) {
+            synchronized (downBuffer) {
+                replayingBuffer = false;
+                for (BufferedBlock block : downBuffer) {
+                    for (PendingExchange owner : block.owners) {
+                        owner.blockDone(stopped);
+                    }
+                }
+                downBuffer.clear();
+            }
+        }
+        SpillJournal currentJournal = journal;
+        if (currentJournal != null) {
+            // waits for a running replay and appends to end - unreplayed
+            // blocks stay journaled for next start
+            synchronized (replayLock) {
+                synchronized (currentJournal) {
+                    journal = null;
+                    currentJournal.close();
+                }
+            }
+        }
         LOG.debug("Disconnecting publisher from " + endpointUri);
-        // TODO probably only one of this 2 calls needed - always logs error
-        handler.disconnect(client, true);
-        // handler.stop(client, true);
+        for (EspClient client : clients) {
+            client.disconnect();
+        }
 
     }
 
+    /**
+     * @return failure of blocks not published because producer stopped
+     */
+    private EspConnectionLostException stoppedFailure() {
+        return new EspConnectionLostException("Producer for " + endpointUri + " stopped before block was published.");
+    }
+
     /**
      * @param clientStatus
      *            enum with ACK, NACK or READY
@@ -219,6 +1271,12 @@ public class DfESPProducer extends DefaultProducer implements clientCallbacks {
     @Override
     public final void dfESPGDpublisherCB_func(final clientGDStatus clientStatus, final long blockId, final Object arg2) {
         LOG.debug("Received " + clientStatus.name() + " for event block id: " + blockId);
+        if (tracker != null) {
+            tracker.onStatus(clientStatus, blockId);
+            if (clientStatus == clientGDStatus.ESP_GD_ACK || clientStatus == clientGDStatus.ESP_GD_NACK) {
+                acknowledged(blockId, clientStatus == clientGDStatus.ESP_GD_ACK);
+            }
+        }
     }
 
     @Override
@@ -226,6 +1284,10 @@ public class DfESPProducer extends DefaultProducer implements clientCallbacks {
                                               final Object arg2) {
         LOG.error("Publisher/producer received error from cep: Error " + failure.name() + " with code "
                   + failureCode.name());
+        if (failureCode == clientFailureCodes.pubsubCode_READFAILED
+            || failureCode == clientFailureCodes.pubsubCode_WRITEFAILED) {
+            connectionLost();
+        }
     }
 
     @Override
@@ -0,0 +1,25 @@
+package com.sas.o2.cep;
+
+/**
+ * Behaviour of the producer while its esp server or window is down. Policies
+ * keeping blocks require reconnect=true.
+ *
+ */
+public enum DownPolicy {
+    /**
+     * exchanges fail with {@link EspConnectionLostException}.
+     */
+    fail,
+    /**
+     * blocks are kept in a bounded in memory buffer and published after
+     * reconnect. Exchanges fail if the buffer is full.
+     */
+    buffer,
+    /**
+     * blocks are appended to a journal on local disk (see journalDir) and
+     * exchanges complete. Blocks that could not be injected are journaled
+     * too. Journaled blocks are published in order after reconnect (and
+     * after a restart). Exchanges fail if the journal is full.
+     */
+    journal
+}
@@ -0,0 +1,116 @@
+package com.sas.o2.cep;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection health of one esp server (host:port) and its windows. A failure
+ * reported by a subscriber marks the whole server as down, a failure of a
+ * publisher only its window. Any successful (re)connect to the server marks
+ * server and window as up again - listeners are notified then.
+ */
+public class EngineHealth {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EngineHealth.class);
+    /**
+     * host:port of esp server.
+     */
+    private final String server;
+    private volatile boolean serverDown;
+    private final Set<String> downWindows = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * Called when server or a window is marked up.
+     */
+    private final List<Runnable> upListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     *
+     * @param server
+     *            host:port of esp server
+     */
+    public EngineHealth(final String server) {
+        this.server = server;
+    }
+
+    /**
+     * @return host:port of esp server
+     */
+    public final String getServer() {
+        return server;
+    }
+
+    /**
+     * @param windowUri
+     *            uri of window
+     * @return true if server or window is down
+     */
+    public final boolean isDown(final String windowUri) {
+        return serverDown || downWindows.contains(windowUri);
+    }
+
+    /**
+     * @return true if the whole server is marked down
+     */
+    public final boolean isServerDown() {
+        return serverDown;
+    }
+
+    /**
+     * @param windowUri
+     *            uri of window that reported a failure
+     * @param serverWide
+     *            true if failure affects the whole server
+     */
+    public final void markDown(final String windowUri, final boolean serverWide) {
+        if (serverWide) {
+            if (!serverDown) {
+                LOG.warn("Esp server " + server + " marked down (reported by " + windowUri + ")");
+            }
+            serverDown = true;
+        } else if (downWindows.add(windowUri)) {
+            LOG.warn("Esp window " + windowUri + " marked down");
+        }
+    }
+
+    /**
+     * @param windowUri
+     *            uri of window that (re)connected successfully
+     */
+    public final void markUp(final String windowUri) {
+        // window is removed even if the server was down as well
+        boolean windowWasDown = downWindows.remove(windowUri);
+        boolean wasDown = serverDown || windowWasDown;
+        serverDown = false;
+        if (wasDown) {
+            LOG.info("Esp server " + server + " / window " + windowUri + " marked up");
+            for (Runnable listener : upListeners) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * @param listener
+     *            called on the marking thread whenever server or a window is
+     *            marked up - must return quickly
+     */
+    public final void addUpListener(final Runnable listener) {
+        upListeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     *            listener added before
+     */
+    public final void removeUpListener(final Runnable listener) {
+        upListeners.remove(listener);
+    }
+}
@@ -0,0 +1,35 @@
+package com.sas.o2.cep;
+
+import java.io.IOException;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+
+/**
+ * A connection to an esp window, created by an {@link EspClientHandler}.
+ */
+public interface EspClient {
+
+    /**
+     * Publishes a block to the window of this client.
+     *
+     * @param block
+     *            events to publish
+     * @return false if esp did not accept the block
+     */
+    boolean inject(dfESPeventblock block);
+
+    /**
+     * Waits till esp has processed all events published to a project.
+     *
+     * @param projectName
+     *            dfESP://host:port/project
+     * @throws IOException
+     *             if esp server is unknown or not reachable
+     */
+    void quiesceProject(String projectName) throws IOException;
+
+    /**
+     * Closes connection.
+     */
+    void disconnect();
+}
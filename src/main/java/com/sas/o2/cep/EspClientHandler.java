@@ -0,0 +1,59 @@
+package com.sas.o2.cep;
+
+import java.io.IOException;
+
+import com.sas.esp.api.pubsub.clientCallbacks;
+
+/**
+ * Publish/subscribe api of an esp server as used by producers and consumers.
+ * {@link DfESPClientHandler} connects to an esp server, a
+ * {@link LoopbackClientHandler} stands in for one within the jvm. One handler
+ * serves all connections of a server.
+ */
+public interface EspClientHandler {
+
+    /**
+     * Queries schema of a window.
+     *
+     * @param windowUri
+     *            dfESP://host:port/project/contquery/window
+     * @return schema string of window
+     * @throws IOException
+     *             if esp server is unknown or not reachable
+     */
+    String querySchema(String windowUri) throws IOException;
+
+    /**
+     * Starts and connects a publisher client.
+     *
+     * @param windowUri
+     *            uri of target window
+     * @param callbacks
+     *            receive ACK/NACK and errors
+     * @param gdConfig
+     *            guaranteed delivery config file, null to publish without
+     *            guaranteed delivery
+     * @return connected client
+     * @throws IllegalStateException
+     *             if client can't be created or connected
+     */
+    EspClient publisherStart(String windowUri, clientCallbacks callbacks, String gdConfig);
+
+    /**
+     * Starts and connects a subscriber client.
+     *
+     * @param windowUri
+     *            uri of window to subscribe to
+     * @param snapshot
+     *            true to receive current content of window first
+     * @param maxQueueSize
+     *            max number of events esp queues for subscriber before it
+     *            throttles input
+     * @param callbacks
+     *            receive event blocks and errors
+     * @return connected client
+     * @throws IllegalStateException
+     *             if client can't be created or connected
+     */
+    EspClient subscriberStart(String windowUri, boolean snapshot, int maxQueueSize, clientCallbacks callbacks);
+}
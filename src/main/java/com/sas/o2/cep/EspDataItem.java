@@ -3,6 +3,11 @@
  */
 package com.sas.o2.cep;
 
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
 import com.sas.esp.api.server.datavar.FieldTypes;
 
 
@@ -32,6 +37,26 @@ public class EspDataItem {
      */
     private FieldTypes type;
 
+    /**
+     * Value converted according to type - parsed on first access.
+     */
+    private Object typedValue;
+
+    /**
+     * True if {@link #typedValue} is set.
+     */
+    private boolean typed;
+
+    /**
+     * Same format as used by esp for dates in csv.
+     */
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DfESPProducer.DATA_FORMAT);
+        }
+    };
+
     /**
      *
      * @param index
@@ -47,6 +72,23 @@ public class EspDataItem {
 
     }
 
+    /**
+     * Creates an item with an already typed value (no parsing needed).
+     *
+     * @param index
+     * @param name
+     * @param value
+     * @param type
+     * @param typedValue
+     *            value as returned by {@link #getTypedValue()}
+     */
+    EspDataItem(final int index, final String name, final String value, final FieldTypes type,
+                final Object typedValue) {
+        this(index, name, value, type);
+        this.typedValue = typedValue;
+        this.typed = true;
+    }
+
     /**
      * @return the index
      */
@@ -75,6 +117,109 @@ public class EspDataItem {
         return type;
     }
 
+    /**
+     * Value converted according to type: Long for INT32 and INT64, Double for
+     * DOUBLE, BigDecimal for MONEY, Date for DATE and TIMESTAMP, String
+     * otherwise. Parsed once, on first access.
+     *
+     * @return typed value, null if value is empty
+     */
+    public final Object getTypedValue() {
+        if (!typed) {
+            typedValue = parse(value, type);
+            typed = true;
+        }
+        return typedValue;
+    }
+
+    /**
+     * @return value as long
+     * @throws IllegalStateException
+     *             if value is empty or not numeric
+     */
+    public final long getLong() {
+        return number().longValue();
+    }
+
+    /**
+     * @return value as int
+     * @throws IllegalStateException
+     *             if value is empty or not numeric
+     */
+    public final int getInt() {
+        return number().intValue();
+    }
+
+    /**
+     * @return value as double
+     * @throws IllegalStateException
+     *             if value is empty or not numeric
+     */
+    public final double getDouble() {
+        return number().doubleValue();
+    }
+
+    /**
+     * @return date or timestamp as milliseconds since epoch
+     * @throws IllegalStateException
+     *             if value is empty or not a date
+     */
+    public final long getEpochMillis() {
+        Object typedValue = getTypedValue();
+        if (typedValue instanceof Date) {
+            return ((Date) typedValue).getTime();
+        }
+        throw new IllegalStateException("Field " + name + " (" + type.name() + ") is not a date: " + value);
+    }
+
+    /**
+     * @return true if value is empty (null in esp)
+     */
+    public final boolean isNull() {
+        return getTypedValue() == null;
+    }
+
+    private Number number() {
+        Object typedValue = getTypedValue();
+        if (typedValue instanceof Number) {
+            return (Number) typedValue;
+        }
+        throw new IllegalStateException("Field " + name + " (" + type.name() + ") is not numeric: " + value);
+    }
+
+    /**
+     * Converts esp csv representation according to type.
+     *
+     * @param value
+     *            value as string
+     * @param type
+     *            esp type
+     * @return typed value, null for empty string
+     */
+    static Object parse(final String value, final FieldTypes type) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        switch (type) {
+        case INT32:
+        case INT64:
+            return Long.valueOf(value);
+        case DOUBLE:
+            return Double.valueOf(value);
+        case MONEY:
+            return new BigDecimal(value);
+        case DATE:
+        case TIMESTAMP:
+            try {
+                return DATE_FORMAT.get().parse(value);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Can't parse date " + value, e);
+            }
+        default:
+            return value;
+        }
+    }
+
     @Override
     public final String toString() {
         return "DataItem: (" + index + ") " + name + "=" + value + " (type: " + type.name() + ")";
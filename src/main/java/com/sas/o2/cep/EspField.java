@@ -0,0 +1,20 @@
+package com.sas.o2.cep;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a java field to the esp field of the given name (see
+ * {@link PojoBinding}). Pojos with at least one annotated field are accepted
+ * as body by the dfESP producer.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface EspField {
+    /**
+     * @return name of esp field, compared ignoring case and underscores
+     */
+    String value();
+}
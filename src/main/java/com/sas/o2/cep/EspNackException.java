@@ -0,0 +1,34 @@
+package com.sas.o2.cep;
+
+/**
+ * Extends {@link RuntimeException} to get a dedicated exception for blocks not acknowledged by esp (guaranteed delivery).
+ *
+ */
+public class EspNackException extends RuntimeException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    public EspNackException() {
+        super();
+    }
+
+    public EspNackException(String message, Throwable cause, boolean enableSuppression, boolean writableStackTrace) {
+        super(message, cause, enableSuppression, writableStackTrace);
+    }
+
+    public EspNackException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public EspNackException(String message) {
+        super(message);
+    }
+
+    public EspNackException(Throwable cause) {
+        super(cause);
+    }
+
+}
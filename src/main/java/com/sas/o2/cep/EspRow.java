@@ -0,0 +1,373 @@
+package com.sas.o2.cep;
+
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.RandomAccess;
+
+import com.sas.esp.api.server.event.EventOpcodes;
+
+/**
+ * Compact representation of an event received from esp. Values are stored in
+ * primitive arrays (one per kind of value), names and types are shared via
+ * {@link EspRowSchema}. The row is a read only list of {@link EspDataItem}s;
+ * items are only created when accessed.
+ */
+public final class EspRow extends AbstractList<EspDataItem> implements RandomAccess {
+    /**
+     * Esp dates are seconds since epoch.
+     */
+    private static final long MILLIS_PER_SECOND = 1000L;
+    /**
+     * Esp timestamps are microseconds since epoch.
+     */
+    private static final long MICROS_PER_MILLI = 1000L;
+    /**
+     * Same format as used by esp for dates in csv.
+     */
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(DfESPProducer.DATA_FORMAT);
+        }
+    };
+
+    private final EspRowSchema schema;
+    private final EventOpcodes opcode;
+    private final long[] longs;
+    private final double[] doubles;
+    private final Object[] objects;
+    /**
+     * Bit set of null fields.
+     */
+    private final long[] nulls;
+    /**
+     * Items created so far, null until first access.
+     */
+    private EspDataItem[] items;
+
+    /**
+     *
+     * @param schema
+     *            schema of window
+     * @param opcode
+     *            opcode of event
+     */
+    public EspRow(final EspRowSchema schema, final EventOpcodes opcode) {
+        this.schema = schema;
+        this.opcode = opcode;
+        this.longs = new long[schema.longCount()];
+        this.doubles = new double[schema.doubleCount()];
+        this.objects = new Object[schema.objectCount()];
+        this.nulls = new long[(schema.size() + 63) >>> 6];
+    }
+
+    /**
+     * @return schema shared by all rows of the window
+     */
+    public EspRowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return opcode of event, may be null
+     */
+    public EventOpcodes getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Stores a value as delivered by the esp api. Dates are stored as seconds,
+     * timestamps as microseconds since epoch (like in esp).
+     *
+     * @param index
+     *            field index
+     * @param value
+     *            value, null for null field
+     */
+    void setValue(final int index, final Object value) {
+        if (value == null) {
+            nulls[index >>> 6] |= 1L << index;
+            return;
+        }
+        int slot = schema.slot(index);
+        switch (schema.kind(index)) {
+        case EspRowSchema.KIND_LONG:
+            longs[slot] = toLong(index, value);
+            break;
+        case EspRowSchema.KIND_DOUBLE:
+            doubles[slot] = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value
+                .toString());
+            break;
+        default:
+            objects[slot] = value;
+            break;
+        }
+    }
+
+    private long toLong(final int index, final Object value) {
+        if (value instanceof Date) {
+            long millis = ((Date) value).getTime();
+            switch (schema.type(index)) {
+            case DATE:
+                return millis / MILLIS_PER_SECOND;
+            case TIMESTAMP:
+                return millis * MICROS_PER_MILLI;
+            default:
+                return millis;
+            }
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return true if field is null
+     */
+    public boolean isNull(final int index) {
+        return (nulls[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return value as object (Long, Double or as delivered for other types),
+     *         null for null fields
+     */
+    public Object getObject(final int index) {
+        if (isNull(index)) {
+            return null;
+        }
+        int slot = schema.slot(index);
+        switch (schema.kind(index)) {
+        case EspRowSchema.KIND_LONG:
+            return longs[slot];
+        case EspRowSchema.KIND_DOUBLE:
+            return doubles[slot];
+        default:
+            return objects[slot];
+        }
+    }
+
+    /**
+     * Value converted according to type, same as
+     * {@link EspDataItem#getTypedValue()}: Long for INT32 and INT64, Double
+     * for DOUBLE, Date for DATE and TIMESTAMP, as delivered otherwise.
+     *
+     * @param index
+     *            field index
+     * @return typed value, null for null fields
+     */
+    public Object getTypedValue(final int index) {
+        if (isNull(index)) {
+            return null;
+        }
+        switch (schema.type(index)) {
+        case DATE:
+        case TIMESTAMP:
+            return new Date(getEpochMillis(index));
+        default:
+            Object value = getObject(index);
+            return value instanceof String ? EspDataItem.parse((String) value, schema.type(index)) : value;
+        }
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return typed value, null for null fields
+     */
+    public Object getTypedValue(final String name) {
+        return getTypedValue(index(name));
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return value of an integer, date or timestamp field (in esp units)
+     * @throws IllegalStateException
+     *             if field is null or not stored as long
+     */
+    public long getLong(final int index) {
+        checkKind(index, EspRowSchema.KIND_LONG);
+        return longs[schema.slot(index)];
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return value of an integer field
+     */
+    public long getLong(final String name) {
+        return getLong(index(name));
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return value of an integer field as int
+     */
+    public int getInt(final int index) {
+        return (int) getLong(index);
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return value of an integer field as int
+     */
+    public int getInt(final String name) {
+        return getInt(index(name));
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return value of a double or integer field
+     * @throws IllegalStateException
+     *             if field is null or not numeric
+     */
+    public double getDouble(final int index) {
+        if (schema.kind(index) == EspRowSchema.KIND_LONG) {
+            return getLong(index);
+        }
+        checkKind(index, EspRowSchema.KIND_DOUBLE);
+        return doubles[schema.slot(index)];
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return value of a double or integer field
+     */
+    public double getDouble(final String name) {
+        return getDouble(index(name));
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return date or timestamp as milliseconds since epoch
+     * @throws IllegalStateException
+     *             if field is null or not a date
+     */
+    public long getEpochMillis(final int index) {
+        switch (schema.type(index)) {
+        case DATE:
+            return getLong(index) * MILLIS_PER_SECOND;
+        case TIMESTAMP:
+            return getLong(index) / MICROS_PER_MILLI;
+        default:
+            throw new IllegalStateException("Field " + schema.name(index) + " (" + schema.type(index).name()
+                                            + ") is not a date.");
+        }
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return date or timestamp as milliseconds since epoch
+     */
+    public long getEpochMillis(final String name) {
+        return getEpochMillis(index(name));
+    }
+
+    private void checkKind(final int index, final byte kind) {
+        if (isNull(index)) {
+            throw new IllegalStateException("Field " + schema.name(index) + " is null.");
+        }
+        if (schema.kind(index) != kind) {
+            throw new IllegalStateException("Field " + schema.name(index) + " (" + schema.type(index).name()
+                                            + ") is not numeric.");
+        }
+    }
+
+    private int index(final String name) {
+        int index = schema.indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown field " + name + ", fields are " + schema.names());
+        }
+        return index;
+    }
+
+    /**
+     * Formats a value the way esp formats it in csv. Null becomes an empty
+     * string. Doubles and money values are written without exponent (e.g.
+     * 10000000.0 and 0.0001, not 1.0E7 and 1.0E-4).
+     *
+     * @param index
+     *            field index
+     * @return string representation
+     */
+    public String getString(final int index) {
+        if (isNull(index)) {
+            return "";
+        }
+        int slot = schema.slot(index);
+        switch (schema.kind(index)) {
+        case EspRowSchema.KIND_LONG:
+            switch (schema.type(index)) {
+            case DATE:
+                return DATE_FORMAT.get().format(new Date(longs[slot] * MILLIS_PER_SECOND));
+            case TIMESTAMP:
+                return DATE_FORMAT.get().format(new Date(longs[slot] / MICROS_PER_MILLI));
+            default:
+                return Long.toString(longs[slot]);
+            }
+        case EspRowSchema.KIND_DOUBLE:
+            return format(doubles[slot]);
+        default:
+            Object value = objects[slot];
+            if (value instanceof Date) {
+                return DATE_FORMAT.get().format((Date) value);
+            }
+            return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+        }
+    }
+
+    /**
+     * @param value
+     *            double value
+     * @return value without exponent, with as few digits as read back to
+     *         the same double
+     */
+    static String format(final double value) {
+        String string = Double.toString(value);
+        if (string.indexOf('E') < 0) {
+            return string;
+        }
+        String plain = BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+        return plain.indexOf('.') < 0 ? plain + ".0" : plain;
+    }
+
+    /**
+     * Creates item for field on first access.
+     *
+     * @param index
+     *            field index
+     * @return item with meta data and value as string
+     */
+    @Override
+    public EspDataItem get(final int index) {
+        if (items == null) {
+            items = new EspDataItem[schema.size()];
+        }
+        EspDataItem item = items[index];
+        if (item == null) {
+            item = new EspDataItem(index, schema.name(index), getString(index), schema.type(index),
+                                   getTypedValue(index));
+            items[index] = item;
+        }
+        return item;
+    }
+
+    @Override
+    public int size() {
+        return schema.size();
+    }
+}
@@ -0,0 +1,186 @@
+package com.sas.o2.cep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sas.esp.api.server.datavar.FieldTypes;
+
+/**
+ * Meta data shared by all {@link EspRow}s of a window: names and types of
+ * fields and where each field's value is stored within a row. Built once when
+ * the consumer starts.
+ */
+public class EspRowSchema {
+    /**
+     * Value stored in long array (integers, dates, timestamps).
+     */
+    static final byte KIND_LONG = 0;
+    /**
+     * Value stored in double array.
+     */
+    static final byte KIND_DOUBLE = 1;
+    /**
+     * Value stored as object reference (strings, money).
+     */
+    static final byte KIND_OBJECT = 2;
+
+    private final String[] names;
+    private final FieldTypes[] types;
+    private final byte[] kinds;
+    /**
+     * Index within the array of the field's kind.
+     */
+    private final int[] slots;
+    private final int longCount;
+    private final int doubleCount;
+    private final int objectCount;
+    private final Map<String, Integer> indexByName = new HashMap<>();
+
+    /**
+     *
+     * @param fieldNames
+     *            names of all fields as given by schema
+     * @param fieldTypes
+     *            types of all fields as given by schema
+     */
+    public EspRowSchema(final List<String> fieldNames, final List<FieldTypes> fieldTypes) {
+        if (fieldNames.size() != fieldTypes.size()) {
+            throw new IllegalArgumentException("Number of field names (" + fieldNames.size()
+                                               + ") does not match number of field types (" + fieldTypes.size()
+                                               + ")");
+        }
+        int size = fieldNames.size();
+        names = fieldNames.toArray(new String[size]);
+        types = fieldTypes.toArray(new FieldTypes[size]);
+        kinds = new byte[size];
+        slots = new int[size];
+        int longs = 0;
+        int doubles = 0;
+        int objects = 0;
+        for (int i = 0; i < size; i++) {
+            indexByName.put(names[i], i);
+            switch (types[i]) {
+            case INT32:
+            case INT64:
+            case DATE:
+            case TIMESTAMP:
+                kinds[i] = KIND_LONG;
+                slots[i] = longs++;
+                break;
+            case DOUBLE:
+                kinds[i] = KIND_DOUBLE;
+                slots[i] = doubles++;
+                break;
+            default:
+                kinds[i] = KIND_OBJECT;
+                slots[i] = objects++;
+                break;
+            }
+        }
+        longCount = longs;
+        doubleCount = doubles;
+        objectCount = objects;
+    }
+
+    /**
+     * @return number of fields
+     */
+    public final int size() {
+        return names.length;
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return name of field
+     */
+    public final String name(final int index) {
+        return names[index];
+    }
+
+    /**
+     * @param index
+     *            field index
+     * @return type of field
+     */
+    public final FieldTypes type(final int index) {
+        return types[index];
+    }
+
+    /**
+     * @return names of all fields in schema order
+     */
+    public final List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * @param name
+     *            field name
+     * @return index of field, -1 if there is no such field
+     */
+    public final int indexOf(final String name) {
+        Integer index = indexByName.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @param indices
+     *            indices of fields to keep
+     * @return schema of the given fields in given order
+     */
+    public final EspRowSchema select(final int[] indices) {
+        List<String> selectedNames = new ArrayList<>(indices.length);
+        List<FieldTypes> selectedTypes = new ArrayList<>(indices.length);
+        for (int index : indices) {
+            selectedNames.add(names[index]);
+            selectedTypes.add(types[index]);
+        }
+        return new EspRowSchema(selectedNames, selectedTypes);
+    }
+
+    /**
+     * Finds key fields of a window - marked by '*' after their name in the
+     * schema string, e.g. "id*:int64,name:string".
+     *
+     * @param schemaString
+     *            schema string of window
+     * @return indices of key fields
+     */
+    public static int[] keyIndices(final String schemaString) {
+        String[] fields = schemaString.split(",");
+        int[] keys = new int[fields.length];
+        int count = 0;
+        for (int i = 0; i < fields.length; i++) {
+            String name = fields[i].split(":")[0].trim();
+            if (name.endsWith("*")) {
+                keys[count++] = i;
+            }
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    final byte kind(final int index) {
+        return kinds[index];
+    }
+
+    final int slot(final int index) {
+        return slots[index];
+    }
+
+    final int longCount() {
+        return longCount;
+    }
+
+    final int doubleCount() {
+        return doubleCount;
+    }
+
+    final int objectCount() {
+        return objectCount;
+    }
+}
@@ -0,0 +1,225 @@
+package com.sas.o2.cep;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+
+/**
+ * Collects events of many exchanges into shared blocks. A block is handed to
+ * the background flusher (see {@link #run()}) when it contains batchSize
+ * events, when the first event waited lingerMs or when quiesce is requested.
+ * Each submitted part is owned by a {@link PendingExchange} - the publisher
+ * completes the owners of a block. Blocks are published in the order they
+ * were filled.
+ */
+public class EventBatcher implements Runnable {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(EventBatcher.class);
+    /**
+     * Max number of filled blocks waiting for the flusher. Further submits
+     * wait - keeps memory bounded if esp is slower than input.
+     */
+    private static final int MAX_PENDING_BLOCKS = 2;
+
+    /**
+     * Publishes a filled block.
+     */
+    public interface Publisher {
+        /**
+         * Publishes a block. Publisher must call
+         * {@link PendingExchange#blockDone(Exception)} on each owner, unless
+         * an exception is thrown.
+         *
+         * @param events
+         *            events of block
+         * @param quiesce
+         *            true to quiesce project after publishing
+         * @param owners
+         *            exchanges the events belong to (one entry per part)
+         * @throws Exception
+         *             if block couldn't be published
+         */
+        void publish(ArrayList<dfESPevent> events, boolean quiesce, List<PendingExchange> owners) throws Exception;
+    }
+
+    /**
+     * A filled block and the exchanges waiting for it.
+     */
+    private static final class Batch {
+        private final ArrayList<dfESPevent> events;
+        private final List<PendingExchange> owners;
+        private final boolean quiesce;
+
+        private Batch(final ArrayList<dfESPevent> events, final List<PendingExchange> owners, final boolean quiesce) {
+            this.events = events;
+            this.owners = owners;
+            this.quiesce = quiesce;
+        }
+    }
+
+    private final Publisher publisher;
+    private final int batchSize;
+    private final long lingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Signals flusher that there is work.
+     */
+    private final Condition work = lock.newCondition();
+    /**
+     * Signals submitters that pending queue has space.
+     */
+    private final Condition notFull = lock.newCondition();
+    private final Queue<Batch> pending = new ArrayDeque<>();
+    private ArrayList<dfESPevent> current = new ArrayList<>();
+    private List<PendingExchange> currentOwners = new ArrayList<>();
+    /**
+     * Time first event was added to current block.
+     */
+    private long currentStarted;
+    private boolean running = true;
+
+    /**
+     *
+     * @param publisher
+     *            publishes filled blocks
+     * @param batchSize
+     *            number of events after which a block is published
+     * @param lingerMs
+     *            max time an event waits for further events
+     */
+    public EventBatcher(final Publisher publisher, final int batchSize, final long lingerMs) {
+        this.publisher = publisher;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+    }
+
+    /**
+     * Adds events to the current block. Waits only if too many filled blocks
+     * are waiting for the flusher. The owner is notified when the block is
+     * done.
+     *
+     * @param events
+     *            events of one exchange
+     * @param quiesce
+     *            true if project should be quiesced after publishing
+     * @param owner
+     *            exchange the events belong to - {@link PendingExchange#blockSent()} must
+     *            already be called
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public final void submit(final List<dfESPevent> events, final boolean quiesce, final PendingExchange owner)
+        throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (running && pending.size() >= MAX_PENDING_BLOCKS) {
+                notFull.await();
+            }
+            if (!running) {
+                throw new IllegalStateException("Batching publisher is stopped.");
+            }
+            if (current.isEmpty()) {
+                currentStarted = System.nanoTime();
+            }
+            current.addAll(events);
+            currentOwners.add(owner);
+            if (quiesce || current.size() >= batchSize) {
+                enqueueCurrent(quiesce);
+            }
+            work.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves current block to pending queue. Caller must hold lock.
+     */
+    private void enqueueCurrent(final boolean quiesce) {
+        pending.add(new Batch(current, currentOwners, quiesce));
+        current = new ArrayList<>();
+        currentOwners = new ArrayList<>();
+    }
+
+    /**
+     * Flusher loop - publishes pending blocks till {@link #stop()} is called.
+     * Remaining events are published before returning.
+     */
+    @Override
+    public final void run() {
+        while (true) {
+            Batch batch;
+            lock.lock();
+            try {
+                batch = takeBatch();
+                if (batch == null) {
+                    return;
+                }
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Batch flusher interrupted, pending events are not published.");
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                publisher.publish(batch.events, batch.quiesce, batch.owners);
+            } catch (Exception e) {
+                LOG.error("Error on publishing batch of " + batch.events.size() + " events.", e);
+                for (PendingExchange owner : batch.owners) {
+                    owner.blockDone(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for next block to publish. Caller must hold lock.
+     *
+     * @return next block or null if stopped and nothing left to publish
+     */
+    private Batch takeBatch() throws InterruptedException {
+        while (pending.isEmpty()) {
+            if (current.isEmpty()) {
+                if (!running) {
+                    return null;
+                }
+                work.await();
+            } else {
+                long remaining = currentStarted + lingerNanos - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    enqueueCurrent(false);
+                } else {
+                    work.awaitNanos(remaining);
+                }
+            }
+        }
+        return pending.poll();
+    }
+
+    /**
+     * Stops accepting events. Flusher publishes remaining events and ends.
+     */
+    public final void stop() {
+        lock.lock();
+        try {
+            running = false;
+            work.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
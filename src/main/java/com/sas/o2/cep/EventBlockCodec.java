@@ -0,0 +1,155 @@
+package com.sas.o2.cep;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+/**
+ * Serializes the events of a block as typed binary values - for the
+ * producer's journal. Each event is its opcode followed by the values of all
+ * fields, read by index; strings are length-prefixed, so values containing
+ * ',' or line breaks are kept as they are. Events are restored through
+ * {@link StructuredEventBuilder#restore(Object[], EventOpcodes)}.
+ */
+public final class EventBlockCodec {
+    /**
+     * Version of format - first byte of data.
+     */
+    private static final byte VERSION = 1;
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte DECIMAL = 4;
+    private static final byte DATE = 5;
+    private static final byte STRING = 6;
+
+    private EventBlockCodec() {
+    }
+
+    /**
+     * @param events
+     *            events of block
+     * @param schema
+     *            schema of the events
+     * @return serialized events
+     * @throws dfESPException
+     *             if a field can't be read
+     */
+    public static byte[] encode(final List<dfESPevent> events, final dfESPschema schema) throws dfESPException {
+        int fields = schema.getNames().size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(events.size() * fields * 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(fields);
+            out.writeInt(events.size());
+            for (dfESPevent event : events) {
+                out.writeUTF(event.getOpcode().name());
+                for (int i = 0; i < fields; i++) {
+                    writeValue(out, event.copyByIntID(schema, i));
+                }
+            }
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else {
+            byte[] string = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(string.length);
+            out.write(string);
+        }
+    }
+
+    /**
+     * @param data
+     *            events serialized by {@link #encode(List, dfESPschema)}
+     * @param builder
+     *            creates events for the current schema of the window
+     * @return events
+     * @throws IOException
+     *             if data is not a serialized block
+     * @throws dfESPException
+     *             if esp rejects the values
+     * @throws IllegalArgumentException
+     *             if values don't fit the current schema
+     */
+    public static ArrayList<dfESPevent> decode(final byte[] data, final StructuredEventBuilder builder)
+        throws IOException, dfESPException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown version " + version + " of serialized block");
+        }
+        int fields = in.readInt();
+        int size = in.readInt();
+        ArrayList<dfESPevent> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            EventOpcodes opcode = EventOpcodes.valueOf(in.readUTF());
+            Object[] values = new Object[fields];
+            for (int field = 0; field < fields; field++) {
+                values[field] = readValue(in);
+            }
+            events.add(builder.restore(values, opcode));
+        }
+        return events;
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case DATE:
+                return new Date(in.readLong());
+            case STRING:
+                byte[] string = new byte[in.readInt()];
+                in.readFully(string);
+                return new String(string, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Unknown value type " + type + " in serialized block");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.sas.o2.cep;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+/**
+ * Reads the fields of a {@link dfESPevent} directly by index into an
+ * {@link EspRow} - no csv serialization, so values containing commas or
+ * quotes are kept as they are. Uses field types of the window's schema,
+ * extracted once.
+ */
+public class EventDecoder {
+    /**
+     * Shared by all decoded rows.
+     */
+    private final EspRowSchema rowSchema;
+    /**
+     * Indices of decoded fields within the event, null for all fields.
+     */
+    private final int[] fields;
+
+    /**
+     *
+     * @param rowSchema
+     *            names and types of all fields
+     */
+    public EventDecoder(final EspRowSchema rowSchema) {
+        this.rowSchema = rowSchema;
+        this.fields = null;
+    }
+
+    /**
+     * Decodes only some fields - other fields are not read at all.
+     *
+     * @param windowSchema
+     *            names and types of all fields of the window
+     * @param fields
+     *            indices of fields to decode, in order of the row
+     */
+    public EventDecoder(final EspRowSchema windowSchema, final int[] fields) {
+        this.rowSchema = windowSchema.select(fields);
+        this.fields = fields.clone();
+    }
+
+    /**
+     * @return schema shared by all decoded rows
+     */
+    public final EspRowSchema getRowSchema() {
+        return rowSchema;
+    }
+
+    /**
+     * Reads the fields of an event.
+     *
+     * @param event
+     *            event received from esp
+     * @param schema
+     *            schema of window
+     * @return decoded row
+     * @throws dfESPException
+     *             if a field can't be read
+     */
+    public final EspRow decode(final dfESPevent event, final dfESPschema schema) throws dfESPException {
+        EspRow row = new EspRow(rowSchema, event.getOpcode());
+        int size = rowSchema.size();
+        for (int i = 0; i < size; i++) {
+            row.setValue(i, event.copyByIntID(schema, fields == null ? i : fields[i]));
+        }
+        return row;
+    }
+}
@@ -0,0 +1,423 @@
+package com.sas.o2.cep;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.datavar.FieldTypes;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+/**
+ * Condition on field values and opcode of events, compiled once against the
+ * window's schema and evaluated on the raw event - before it is decoded or an
+ * exchange is created. Only fields used by the condition are read.
+ * <p>
+ * Syntax: comparisons {@code FIELD op literal} with op one of
+ * {@code = != < <= > >=}, combined with {@code and}, {@code or}, {@code not}
+ * and parentheses. Literals are numbers, strings in single quotes ('' for a
+ * quote) and {@code null} (only with = and !=). {@code opcode = insert}
+ * compares the event's opcode (insert, update, delete, upsert). Integer,
+ * date and timestamp fields compare with integers in esp units (seconds for
+ * dates, microseconds for timestamps), string fields only with quoted
+ * strings; a null field matches no comparison
+ * but {@code = null}. Example: {@code opcode != delete and (BYTES_UP > 1000 or
+ * IMSI = '262011234')}.
+ */
+public class EventFilter {
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MICROS_PER_MILLI = 1000L;
+
+    /**
+     * Compiled (part of a) condition.
+     */
+    private interface Condition {
+        boolean matches(dfESPevent event, dfESPschema schema) throws dfESPException;
+    }
+
+    /**
+     * Comparison operators.
+     */
+    private enum Operator {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Operator(final String symbol) {
+            this.symbol = symbol;
+        }
+
+        private boolean test(final int order) {
+            switch (this) {
+                case EQ:
+                    return order == 0;
+                case NE:
+                    return order != 0;
+                case LT:
+                    return order < 0;
+                case LE:
+                    return order <= 0;
+                case GT:
+                    return order > 0;
+                default:
+                    return order >= 0;
+            }
+        }
+    }
+
+    private final String expression;
+    private final Condition condition;
+
+    private EventFilter(final String expression, final Condition condition) {
+        this.expression = expression;
+        this.condition = condition;
+    }
+
+    /**
+     * Compiles a filter expression.
+     *
+     * @param expression
+     *            filter expression
+     * @param rowSchema
+     *            names and types of all fields of the window
+     * @return compiled filter
+     * @throws IllegalArgumentException
+     *             on syntax errors or unknown fields
+     */
+    public static EventFilter compile(final String expression, final EspRowSchema rowSchema) {
+        Parser parser = new Parser(expression, rowSchema);
+        Condition condition = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return new EventFilter(expression, condition);
+    }
+
+    /**
+     * @param event
+     *            raw event received from esp
+     * @param schema
+     *            schema of window
+     * @return true if event matches condition
+     * @throws dfESPException
+     *             if a field can't be read
+     */
+    public final boolean matches(final dfESPevent event, final dfESPschema schema) throws dfESPException {
+        return condition.matches(event, schema);
+    }
+
+    @Override
+    public final String toString() {
+        return expression;
+    }
+
+    /**
+     * Recursive descent parser creating conditions.
+     */
+    private static final class Parser {
+        private final String expression;
+        private final EspRowSchema rowSchema;
+        private final List<String> tokens;
+        /**
+         * Quoted tokens are string literals.
+         */
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int position;
+
+        private Parser(final String expression, final EspRowSchema rowSchema) {
+            this.expression = expression;
+            this.rowSchema = rowSchema;
+            this.tokens = tokenize(expression);
+        }
+
+        private Condition parseOr() {
+            final Condition left = parseAnd();
+            if (!acceptKeyword("or")) {
+                return left;
+            }
+            final Condition right = parseOr();
+            return new Condition() {
+                @Override
+                public boolean matches(final dfESPevent event, final dfESPschema schema) throws dfESPException {
+                    return left.matches(event, schema) || right.matches(event, schema);
+                }
+            };
+        }
+
+        private Condition parseAnd() {
+            final Condition left = parseNot();
+            if (!acceptKeyword("and")) {
+                return left;
+            }
+            final Condition right = parseAnd();
+            return new Condition() {
+                @Override
+                public boolean matches(final dfESPevent event, final dfESPschema schema) throws dfESPException {
+                    return left.matches(event, schema) && right.matches(event, schema);
+                }
+            };
+        }
+
+        private Condition parseNot() {
+            if (acceptKeyword("not")) {
+                final Condition negated = parseNot();
+                return new Condition() {
+                    @Override
+                    public boolean matches(final dfESPevent event, final dfESPschema schema)
+                        throws dfESPException {
+                        return !negated.matches(event, schema);
+                    }
+                };
+            }
+            if ("(".equals(peek()) && !isQuoted()) {
+                position++;
+                Condition inner = parseOr();
+                if (!")".equals(peek()) || isQuoted()) {
+                    throw error("Missing ')'");
+                }
+                position++;
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        private Condition parseComparison() {
+            String operand = next("field name");
+            Operator operator = parseOperator();
+            boolean stringLiteral = isQuoted();
+            String literal = next("value");
+            if (!stringLiteral && "null".equalsIgnoreCase(literal)) {
+                return nullCondition(operand, operator);
+            }
+            if ("opcode".equalsIgnoreCase(operand) && rowSchema.indexOf(operand) < 0) {
+                return opcodeCondition(operator, literal);
+            }
+            int index = rowSchema.indexOf(operand);
+            if (index < 0) {
+                throw error("Unknown field " + operand + ", fields are " + rowSchema.names());
+            }
+            return valueCondition(index, operator, literal, stringLiteral);
+        }
+
+        private Operator parseOperator() {
+            String symbol = next("operator");
+            if ("==".equals(symbol)) {
+                return Operator.EQ;
+            }
+            if ("<>".equals(symbol)) {
+                return Operator.NE;
+            }
+            for (Operator operator : Operator.values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw error("Expected operator, found '" + symbol + "'");
+        }
+
+        private Condition nullCondition(final String operand, final Operator operator) {
+            final int index = rowSchema.indexOf(operand);
+            if (index < 0) {
+                throw error("Unknown field " + operand + ", fields are " + rowSchema.names());
+            }
+            if (operator != Operator.EQ && operator != Operator.NE) {
+                throw error("null can only be compared with = or !=");
+            }
+            final boolean isNull = operator == Operator.EQ;
+            return new Condition() {
+                @Override
+                public boolean matches(final dfESPevent event, final dfESPschema schema) throws dfESPException {
+                    return (event.copyByIntID(schema, index) == null) == isNull;
+                }
+            };
+        }
+
+        private Condition opcodeCondition(final Operator operator, final String literal) {
+            if (operator != Operator.EQ && operator != Operator.NE) {
+                throw error("opcode can only be compared with = or !=");
+            }
+            final EventOpcodes opcode;
+            try {
+                opcode = EventOpcodes.valueOf("eo_" + literal.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw error("Unknown opcode " + literal);
+            }
+            final boolean equal = operator == Operator.EQ;
+            return new Condition() {
+                @Override
+                public boolean matches(final dfESPevent event, final dfESPschema schema) {
+                    return (event.getOpcode() == opcode) == equal;
+                }
+            };
+        }
+
+        private Condition valueCondition(final int index, final Operator operator, final String literal,
+                                         final boolean stringLiteral) {
+            final FieldTypes type = rowSchema.type(index);
+            try {
+                switch (type) {
+                    case INT32:
+                    case INT64:
+                    case DATE:
+                    case TIMESTAMP:
+                        final long longValue = Long.parseLong(literal);
+                        return new Condition() {
+                            @Override
+                            public boolean matches(final dfESPevent event, final dfESPschema schema)
+                                throws dfESPException {
+                                Object value = event.copyByIntID(schema, index);
+                                return value != null && operator.test(Long.compare(toLong(value, type), longValue));
+                            }
+                        };
+                    case DOUBLE:
+                        final double doubleValue = Double.parseDouble(literal);
+                        return new Condition() {
+                            @Override
+                            public boolean matches(final dfESPevent event, final dfESPschema schema)
+                                throws dfESPException {
+                                Object value = event.copyByIntID(schema, index);
+                                return value != null
+                                       && operator.test(Double.compare(toDouble(value), doubleValue));
+                            }
+                        };
+                    case MONEY:
+                        final BigDecimal decimalValue = new BigDecimal(literal);
+                        return new Condition() {
+                            @Override
+                            public boolean matches(final dfESPevent event, final dfESPschema schema)
+                                throws dfESPException {
+                                Object value = event.copyByIntID(schema, index);
+                                return value != null
+                                       && operator.test(new BigDecimal(value.toString()).compareTo(decimalValue));
+                            }
+                        };
+                    default:
+                        if (!stringLiteral) {
+                            throw error("Value " + literal + " for " + type + " field " + rowSchema.name(index)
+                                        + " must be quoted");
+                        }
+                        return new Condition() {
+                            @Override
+                            public boolean matches(final dfESPevent event, final dfESPschema schema)
+                                throws dfESPException {
+                                Object value = event.copyByIntID(schema, index);
+                                return value != null && operator.test(value.toString().compareTo(literal));
+                            }
+                        };
+                }
+            } catch (NumberFormatException e) {
+                throw error("Invalid " + type + " value " + literal + " for field " + rowSchema.name(index));
+            }
+        }
+
+        private boolean acceptKeyword(final String keyword) {
+            if (keyword.equalsIgnoreCase(peek()) && !isQuoted()) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private boolean isQuoted() {
+            return position < quoted.size() && quoted.get(position);
+        }
+
+        private String next(final String expected) {
+            String token = peek();
+            if (token == null) {
+                throw error("Expected " + expected + " at end");
+            }
+            position++;
+            return token;
+        }
+
+        private IllegalArgumentException error(final String message) {
+            return new IllegalArgumentException(message + " in filter: " + expression);
+        }
+
+        private List<String> tokenize(final String text) {
+            List<String> result = new ArrayList<>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'') {
+                    StringBuilder literal = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= text.length()) {
+                            throw error("Unterminated string");
+                        }
+                        if (text.charAt(i) == '\'') {
+                            if (i + 1 < text.length() && text.charAt(i + 1) == '\'') {
+                                literal.append('\'');
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            break;
+                        }
+                        literal.append(text.charAt(i++));
+                    }
+                    result.add(literal.toString());
+                    quoted.add(true);
+                } else if (c == '(' || c == ')') {
+                    result.add(String.valueOf(c));
+                    quoted.add(false);
+                    i++;
+                } else if ("=!<>".indexOf(c) >= 0) {
+                    int start = i++;
+                    if (i < text.length() && "=>".indexOf(text.charAt(i)) >= 0) {
+                        i++;
+                    }
+                    result.add(text.substring(start, i));
+                    quoted.add(false);
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                           && "()=!<>'".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    result.add(text.substring(start, i));
+                    quoted.add(false);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Value of an integer, date or timestamp field in esp units - like
+     * {@link EspRow}.
+     */
+    private static long toLong(final Object value, final FieldTypes type) {
+        if (value instanceof Date) {
+            long millis = ((Date) value).getTime();
+            switch (type) {
+                case DATE:
+                    return millis / MILLIS_PER_SECOND;
+                case TIMESTAMP:
+                    return millis * MICROS_PER_MILLI;
+                default:
+                    return millis;
+            }
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    private static double toDouble(final Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    }
+}
@@ -0,0 +1,106 @@
+package com.sas.o2.cep;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates the ids added by {@link Mode#insertAddId}. Ids are appended
+ * directly to the line being built - no String is created per id (except for
+ * {@link #uuid}).
+ *
+ */
+public enum IdGenerator {
+    /**
+     * random uuid from {@link UUID#randomUUID()} - uses SecureRandom, which is
+     * contended if many threads publish.
+     */
+    uuid {
+        @Override
+        public void append(final StringBuilder target) {
+            target.append(UUID.randomUUID().toString());
+        }
+    },
+    /**
+     * random (version 4) uuid from {@link ThreadLocalRandom} - same format as
+     * {@link #uuid}, not contended but not cryptographically strong.
+     */
+    fastUuid {
+        @Override
+        public void append(final StringBuilder target) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long msb = random.nextLong() & ~0xf000L | 0x4000L;
+            long lsb = random.nextLong() & 0x3fffffffffffffffL | 0x8000000000000000L;
+            appendHex(target, msb >>> 32, 8);
+            target.append('-');
+            appendHex(target, msb >>> 16, 4);
+            target.append('-');
+            appendHex(target, msb, 4);
+            target.append('-');
+            appendHex(target, lsb >>> 48, 4);
+            target.append('-');
+            appendHex(target, lsb, 12);
+        }
+    },
+    /**
+     * increasing number, unique within this jvm (starts at 1 on each
+     * start).
+     */
+    sequence {
+        private final AtomicLong next = new AtomicLong();
+
+        @Override
+        public void append(final StringBuilder target) {
+            target.append(next.incrementAndGet());
+        }
+    },
+    /**
+     * time ordered 64 bit number: milliseconds since 2015-01-01 (41 bits),
+     * counter within millisecond (22 bits). All threads share one atomic
+     * value (compare and set, no lock) - unique within this jvm however many
+     * threads generate ids. If the counter is exhausted (or the clock goes
+     * back) ids continue in the next millisecond instead of waiting for it.
+     */
+    snowflake {
+        /**
+         * Last id generated.
+         */
+        private final AtomicLong last = new AtomicLong();
+
+        @Override
+        public void append(final StringBuilder target) {
+            long now = System.currentTimeMillis() - EPOCH << COUNTER_BITS;
+            long previous;
+            long next;
+            do {
+                previous = last.get();
+                next = Math.max(previous + 1, now);
+            } while (!last.compareAndSet(previous, next));
+            target.append(next);
+        }
+    };
+
+    /**
+     * Start of {@link #snowflake} time: 2015-01-01T00:00:00Z.
+     */
+    private static final long EPOCH = 1420070400000L;
+    private static final int COUNTER_BITS = 22;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Appends next id.
+     *
+     * @param target
+     *            line being built
+     */
+    public abstract void append(StringBuilder target);
+
+    /**
+     * Appends lowest digits of value as lower case hex with leading zeros.
+     */
+    private static void appendHex(final StringBuilder target, final long value, final int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            target.append(HEX[(int) (value >>> shift) & 0xf]);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.sas.o2.cep;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates gzip or zip data while it is read. Unlike
+ * {@link java.util.zip.GZIPInputStream} and {@link java.util.zip.ZipInputStream}
+ * the {@link Inflater} (native memory) and the input buffer are taken from a
+ * pool and returned on {@link #close()}, so inflating many files does not
+ * allocate them again for each file. Gzip members and zip entries are read
+ * one after the other; a line break is inserted between zip entries not
+ * ending with one. Checksums are verified.
+ */
+public class InflatingInputStream extends InputStream {
+    /**
+     * Size of pooled input buffers.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Max number of pooled inflaters/buffers - more are created if needed,
+     * but not kept.
+     */
+    private static final int POOL_SIZE = 32;
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final BlockingQueue<byte[]> BUFFERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int ZIP_LOCAL_HEADER = 0x04034b50;
+    private static final int ZIP_DATA_DESCRIPTOR = 0x08074b50;
+    private static final int DEFLATED = 8;
+    private static final int STORED = 0;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    /**
+     * Zip flag: crc and sizes follow the data.
+     */
+    private static final int DATA_DESCRIPTOR_FLAG = 8;
+
+    /**
+     * Position within the compressed stream.
+     */
+    private enum State {
+        HEADER, DEFLATED, STORED, END
+    }
+
+    private final InputStream in;
+    private final boolean zip;
+    private Inflater inflater;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private State state = State.HEADER;
+    private final CRC32 crc = new CRC32();
+    /**
+     * Uncompressed bytes of current member/entry.
+     */
+    private long count;
+    /**
+     * Number of gzip members/zip entries started.
+     */
+    private int members;
+    /**
+     * Zip: flags, expected crc and size and remaining size (stored) of
+     * current entry.
+     */
+    private int entryFlags;
+    private long entryCrc;
+    private long entrySize;
+    private long storedRemaining;
+    /**
+     * Last uncompressed byte returned.
+     */
+    private int lastByte = '\n';
+    private boolean separatorPending;
+
+    /**
+     *
+     * @param in
+     *            compressed data
+     * @param zip
+     *            true for a zip archive, false for gzip
+     */
+    public InflatingInputStream(final InputStream in, final boolean zip) {
+        this.in = in;
+        this.zip = zip;
+        Inflater pooled = INFLATERS.poll();
+        this.inflater = pooled != null ? pooled : new Inflater(true);
+        byte[] pooledBuffer = BUFFERS.poll();
+        this.buffer = pooledBuffer != null ? pooledBuffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Wraps body according to compression.
+     *
+     * @param in
+     *            body
+     * @param compression
+     *            compression of body, {@link Compression#auto} to detect it
+     * @return stream of uncompressed data
+     * @throws IOException
+     *             on problems reading the magic bytes
+     */
+    public static InputStream open(final InputStream in, final Compression compression) throws IOException {
+        switch (compression) {
+            case gzip:
+                return new InflatingInputStream(in, false);
+            case zip:
+                return new InflatingInputStream(in, true);
+            case auto:
+                PushbackInputStream peek = new PushbackInputStream(in, 4);
+                byte[] magic = new byte[4];
+                int read = 0;
+                int n;
+                while (read < magic.length && (n = peek.read(magic, read, magic.length - read)) > 0) {
+                    read += n;
+                }
+                if (read > 0) {
+                    peek.unread(magic, 0, read);
+                }
+                if (read >= 2 && ((magic[0] & 0xff) | (magic[1] & 0xff) << 8) == GZIP_MAGIC) {
+                    return new InflatingInputStream(peek, false);
+                }
+                if (read == 4 && int32(magic, 0) == ZIP_LOCAL_HEADER) {
+                    return new InflatingInputStream(peek, true);
+                }
+                return peek;
+            default:
+                return in;
+        }
+    }
+
+    @Override
+    public final int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public final int read(final byte[] b, final int off, final int len) throws IOException {
+        if (inflater == null) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            switch (state) {
+                case END:
+                    return -1;
+                case HEADER:
+                    state = zip ? readZipHeader() : readGzipHeader();
+                    if (state != State.END) {
+                        members++;
+                        separatorPending = zip && members > 1 && lastByte != '\n' && lastByte != '\r';
+                    }
+                    break;
+                case STORED:
+                    if (separatorPending) {
+                        return separator(b, off);
+                    }
+                    if (storedRemaining == 0) {
+                        endMember();
+                        break;
+                    }
+                    if (position == limit && !fill()) {
+                        throw new EOFException("Unexpected end of zip entry");
+                    }
+                    int stored = (int) Math.min(Math.min(len, limit - position), storedRemaining);
+                    System.arraycopy(buffer, position, b, off, stored);
+                    position += stored;
+                    storedRemaining -= stored;
+                    return inflated(b, off, stored);
+                default:
+                    if (separatorPending) {
+                        return separator(b, off);
+                    }
+                    int n;
+                    try {
+                        n = inflater.inflate(b, off, len);
+                    } catch (DataFormatException e) {
+                        throw new ZipException("Invalid compressed data: " + e.getMessage());
+                    }
+                    if (n > 0) {
+                        return inflated(b, off, n);
+                    }
+                    if (inflater.finished()) {
+                        position = limit - inflater.getRemaining();
+                        inflater.reset();
+                        endMember();
+                    } else if (inflater.needsInput()) {
+                        if (position == limit && !fill()) {
+                            throw new EOFException("Unexpected end of compressed data");
+                        }
+                        inflater.setInput(buffer, position, limit - position);
+                        position = limit;
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("Compressed data needs a preset dictionary");
+                    }
+            }
+        }
+    }
+
+    /**
+     * Returns a line break between zip entries.
+     */
+    private int separator(final byte[] b, final int off) {
+        separatorPending = false;
+        b[off] = '\n';
+        lastByte = '\n';
+        return 1;
+    }
+
+    /**
+     * Updates checksum of data returned.
+     */
+    private int inflated(final byte[] b, final int off, final int n) {
+        crc.update(b, off, n);
+        count += n;
+        lastByte = b[off + n - 1];
+        return n;
+    }
+
+    /**
+     * Reads gzip member header.
+     *
+     * @return next state - END if there is no further member
+     */
+    private State readGzipHeader() throws IOException {
+        int magic = readByte();
+        if (magic < 0) {
+            return State.END;
+        }
+        magic |= readRequiredByte() << 8;
+        if (magic != GZIP_MAGIC) {
+            if (members > 0) {
+                // like GZIPInputStream: trailing garbage is ignored
+                return State.END;
+            }
+            throw new ZipException("Not in gzip format");
+        }
+        if (readByte() != DEFLATED) {
+            throw new ZipException("Unsupported gzip compression method");
+        }
+        int flags = readByte();
+        skipBytes(6);
+        if ((flags & FEXTRA) != 0) {
+            skipBytes(readUInt16());
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            skipBytes(2);
+        }
+        return State.DEFLATED;
+    }
+
+    /**
+     * Reads zip local file header.
+     *
+     * @return next state - END if there is no further entry
+     */
+    private State readZipHeader() throws IOException {
+        int first = readByte();
+        if (first < 0) {
+            return State.END;
+        }
+        long signature = first | readRequiredByte() << 8 | readRequiredByte() << 16 | (long) readRequiredByte() << 24;
+        if (signature != ZIP_LOCAL_HEADER) {
+            if (members == 0 && signature != 0x02014b50L && signature != 0x06054b50L) {
+                throw new ZipException("Not in zip format");
+            }
+            // central directory - no further entries
+            return State.END;
+        }
+        skipBytes(2);
+        entryFlags = readUInt16();
+        int method = readUInt16();
+        skipBytes(4);
+        entryCrc = readUInt32();
+        skipBytes(4);
+        entrySize = readUInt32();
+        // name and extra field - directories are empty entries
+        skipBytes(readUInt16() + readUInt16());
+        if (method == DEFLATED) {
+            return State.DEFLATED;
+        }
+        if (method != STORED) {
+            throw new ZipException("Unsupported zip compression method " + method);
+        }
+        if ((entryFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+            throw new ZipException("Stored zip entry without size");
+        }
+        storedRemaining = entrySize;
+        return State.STORED;
+    }
+
+    /**
+     * Verifies trailer of gzip member or zip entry and prepares next one.
+     */
+    private void endMember() throws IOException {
+        long expectedCrc;
+        long expectedSize;
+        if (!zip) {
+            expectedCrc = readUInt32();
+            expectedSize = readUInt32();
+        } else if ((entryFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+            expectedCrc = readUInt32();
+            if (expectedCrc == ZIP_DATA_DESCRIPTOR) {
+                // optional signature
+                expectedCrc = readUInt32();
+            }
+            skipBytes(4);
+            expectedSize = readUInt32();
+        } else {
+            expectedCrc = entryCrc;
+            expectedSize = entrySize;
+        }
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("Corrupt " + (zip ? "zip" : "gzip") + " data, crc mismatch");
+        }
+        if (expectedSize != (count & 0xffffffffL)) {
+            throw new ZipException("Corrupt " + (zip ? "zip" : "gzip") + " data, size mismatch");
+        }
+        crc.reset();
+        count = 0;
+        state = State.HEADER;
+    }
+
+    /**
+     * Reads more compressed data into buffer.
+     *
+     * @return false on end of stream
+     */
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read < 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    /**
+     * @return next byte of compressed stream or -1 at its end
+     */
+    private int readByte() throws IOException {
+        while (position == limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * @return next byte, failing at end of stream
+     */
+    private int readRequiredByte() throws IOException {
+        int b = readByte();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of " + (zip ? "zip" : "gzip") + " header or trailer");
+        }
+        return b;
+    }
+
+    private int readUInt16() throws IOException {
+        return readRequiredByte() | readRequiredByte() << 8;
+    }
+
+    private long readUInt32() throws IOException {
+        return readUInt16() | (long) readUInt16() << 16;
+    }
+
+    private void skipBytes(final long n) throws IOException {
+        for (long i = 0; i < n; i++) {
+            readRequiredByte();
+        }
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readRequiredByte() != 0) {
+            continue;
+        }
+    }
+
+    private static int int32(final byte[] b, final int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+
+    /**
+     * Closes underlying stream and returns inflater and buffer to the pool.
+     */
+    @Override
+    public final void close() throws IOException {
+        if (inflater == null) {
+            return;
+        }
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+        BUFFERS.offer(buffer);
+        inflater = null;
+        buffer = null;
+        in.close();
+    }
+}
@@ -0,0 +1,106 @@
+package com.sas.o2.cep;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Cuts an {@link InputStream} into chunks of about a given size that end at a
+ * line boundary, so each chunk can be split into lines (see
+ * {@link LineSplitter}) independently of the others. Only the last chunk may
+ * end without line terminator. A chunk is larger than the given size only if
+ * a single line is.
+ */
+public class LineChunker implements Closeable {
+    /**
+     * Source of data.
+     */
+    private final InputStream in;
+    /**
+     * Data read, starting with the rest of the previous chunk.
+     */
+    private byte[] buffer;
+    /**
+     * End of valid data within buffer.
+     */
+    private int limit;
+    /**
+     * True if end of stream reached.
+     */
+    private boolean endOfStream;
+
+    /**
+     *
+     * @param in
+     *            stream to cut into chunks
+     * @param chunkSize
+     *            preferred size of chunks in bytes
+     */
+    public LineChunker(final InputStream in, final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+        }
+        this.in = in;
+        this.buffer = new byte[chunkSize];
+    }
+
+    /**
+     * Reads next chunk.
+     *
+     * @return next chunk (exactly sized) or null if there is no more data
+     * @throws IOException
+     *             on problems reading the stream
+     */
+    public final byte[] nextChunk() throws IOException {
+        int scanned = 0;
+        while (true) {
+            fill();
+            if (endOfStream) {
+                if (limit == 0) {
+                    return null;
+                }
+                return take(limit);
+            }
+            // last line terminator within buffer
+            for (int i = limit - 1; i >= scanned; i--) {
+                if (buffer[i] == '\n' || buffer[i] == '\r') {
+                    return take(i + 1);
+                }
+            }
+            // single line larger than buffer
+            scanned = limit;
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+
+    /**
+     * Reads till buffer is full or end of stream is reached.
+     */
+    private void fill() throws IOException {
+        while (limit < buffer.length && !endOfStream) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * Returns first length bytes of buffer and moves the rest to its
+     * beginning.
+     */
+    private byte[] take(final int length) {
+        byte[] chunk = Arrays.copyOf(buffer, length);
+        System.arraycopy(buffer, length, buffer, 0, limit - length);
+        limit -= length;
+        return chunk;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        in.close();
+    }
+}
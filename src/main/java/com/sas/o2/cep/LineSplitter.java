@@ -0,0 +1,187 @@
+package com.sas.o2.cep;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits an {@link InputStream} into lines without creating a String per line.
+ * Lines are exposed as a range (offset, length) of an internal byte buffer
+ * that is reused for the whole stream. The buffer only grows if a single line
+ * does not fit into it. Lines are terminated by \n, \r or \r\n (like
+ * {@link java.util.Scanner#nextLine()}), the terminator is not part of the
+ * line.
+ */
+public class LineSplitter implements Closeable {
+    /**
+     * Default size of read buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Source of data.
+     */
+    private final InputStream in;
+    /**
+     * Reused buffer, contains current line and read ahead data.
+     */
+    private byte[] buffer;
+    /**
+     * Start of current line within buffer.
+     */
+    private int lineStart;
+    /**
+     * End (exclusive) of current line within buffer.
+     */
+    private int lineEnd;
+    /**
+     * Position to continue scanning for next line.
+     */
+    private int position;
+    /**
+     * End of valid data within buffer.
+     */
+    private int limit;
+    /**
+     * True if end of stream reached.
+     */
+    private boolean endOfStream;
+    /**
+     * True if last line was terminated by \r - a directly following \n
+     * belongs to the same terminator.
+     */
+    private boolean skipLineFeed;
+
+    /**
+     *
+     * @param in
+     *            stream to split into lines
+     */
+    public LineSplitter(final InputStream in) {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     *
+     * @param in
+     *            stream to split into lines
+     * @param bufferSize
+     *            initial size of read buffer
+     */
+    public LineSplitter(final InputStream in, final int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive, was " + bufferSize);
+        }
+        this.in = in;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * Advances to next line.
+     *
+     * @return false if there are no more lines
+     * @throws IOException
+     *             on problems reading the stream
+     */
+    public final boolean nextLine() throws IOException {
+        while (true) {
+            if (skipLineFeed && position < limit) {
+                if (buffer[position] == '\n') {
+                    position++;
+                }
+                skipLineFeed = false;
+            }
+            for (int i = position; i < limit; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    skipLineFeed = b == '\r';
+                    return true;
+                }
+            }
+            if (endOfStream) {
+                if (position < limit) {
+                    // last line without terminator
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    /**
+     * Moves unprocessed data to the beginning of the buffer (growing it if
+     * needed) and reads more data from stream.
+     *
+     * @throws IOException
+     *             on problems reading the stream
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            // single line larger than buffer
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, position, larger, 0, remaining);
+            buffer = larger;
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        lineStart = 0;
+        lineEnd = 0;
+        position = 0;
+        limit = remaining;
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfStream = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * @return buffer containing current line - only valid till next call of
+     *         {@link #nextLine()}
+     */
+    public final byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return offset of current line within {@link #buffer()}
+     */
+    public final int lineOffset() {
+        return lineStart;
+    }
+
+    /**
+     * @return length of current line in bytes (without line terminator)
+     */
+    public final int lineLength() {
+        return lineEnd - lineStart;
+    }
+
+    /**
+     * Same as String.trim().isEmpty() for ascii compatible encodings.
+     *
+     * @return true if current line contains only white space or control
+     *         characters
+     */
+    public final boolean isBlankLine() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if ((buffer[i] & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,393 @@
+package com.sas.o2.cep;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.pubsub.clientCallbacks;
+import com.sas.esp.api.pubsub.clientFailureCodes;
+import com.sas.esp.api.pubsub.clientFailures;
+import com.sas.esp.api.pubsub.clientGDStatus;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.event.EventOpcodes;
+import com.sas.esp.api.server.eventblock.EventBlockType;
+
+/**
+ * Stands in for an esp server within the jvm - for tests and benchmarks
+ * without esp. Windows are registered with their schema; blocks injected into
+ * a window are delivered to its subscribers on the publishing thread. Each
+ * window echoes what is published to it, there are no queries. Latency, NACKs
+ * and lost connections can be simulated. Subscribers asking for a snapshot
+ * receive the window's contents as first block, like esp. Only windows
+ * registered to keep their contents (by key, applying opcodes) have any,
+ * other windows deliver an empty snapshot and then the blocks published
+ * after subscribing.
+ * <p>
+ * Set it on the component to use it for all endpoints:
+ * {@code context.getComponent("dfESP", DfESPComponent.class).setClientHandler(loopback)}.
+ */
+public class LoopbackClientHandler implements EspClientHandler {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LoopbackClientHandler.class);
+
+    /**
+     * A registered window.
+     */
+    private static final class Window {
+        private final String schemaString;
+        private final dfESPschema schema;
+        private final List<Client> subscribers = new CopyOnWriteArrayList<>();
+        private final AtomicLong blocks = new AtomicLong();
+        private final AtomicLong events = new AtomicLong();
+        private final int[] keys;
+        /**
+         * Events by key - null if contents are not kept.
+         */
+        private final Map<String, dfESPevent> contents;
+
+        private Window(final String schemaString, final boolean keepContents) throws dfESPException {
+            this.schemaString = schemaString;
+            this.schema = new dfESPschema(schemaString);
+            this.keys = EspRowSchema.keyIndices(schemaString);
+            this.contents = keepContents ? new LinkedHashMap<String, dfESPevent>() : null;
+        }
+
+        /**
+         * Applies events of block to contents. Caller must hold lock of
+         * window.
+         */
+        private void apply(final dfESPeventblock block) throws dfESPException {
+            int size = block.getSize();
+            for (int i = 0; i < size; i++) {
+                dfESPevent event = block.getEvent(i);
+                StringBuilder key = new StringBuilder();
+                for (int index : keys) {
+                    key.append(event.copyByIntID(schema, index)).append(',');
+                }
+                if (keys.length == 0) {
+                    // without keys every event is a row of its own
+                    key.append(contents.size());
+                }
+                if (event.getOpcode() == EventOpcodes.eo_DELETE) {
+                    contents.remove(key.toString());
+                } else {
+                    contents.put(key.toString(), event);
+                }
+            }
+        }
+    }
+
+    /**
+     * Windows by project/contquery/window.
+     */
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+    /**
+     * Connected clients.
+     */
+    private final Set<Client> clients = Collections.newSetFromMap(new ConcurrentHashMap<Client, Boolean>());
+    private final AtomicLong injectedBlocks = new AtomicLong();
+    private final AtomicLong quiesceCount = new AtomicLong();
+    private volatile long latencyMs;
+    private volatile int nackEvery;
+    private volatile boolean down;
+
+    /**
+     * Connection to a window.
+     */
+    private final class Client implements EspClient {
+        private final Window window;
+        private final clientCallbacks callbacks;
+        private final boolean guaranteed;
+        private volatile boolean connected = true;
+
+        private Client(final Window window, final clientCallbacks callbacks, final boolean guaranteed) {
+            this.window = window;
+            this.callbacks = callbacks;
+            this.guaranteed = guaranteed;
+        }
+
+        @Override
+        public boolean inject(final dfESPeventblock block) {
+            if (!connected || down) {
+                return false;
+            }
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            long count = injectedBlocks.incrementAndGet();
+            boolean nack = nackEvery > 0 && count % nackEvery == 0;
+            if (!nack) {
+                window.blocks.incrementAndGet();
+                window.events.addAndGet(block.getSize());
+                if (window.contents == null) {
+                    deliver(block);
+                } else {
+                    // snapshot and blocks must reach new subscribers in order
+                    synchronized (window) {
+                        try {
+                            window.apply(block);
+                        } catch (dfESPException e) {
+                            LOG.warn("Could not apply block " + block.getTID() + " to contents: " + e);
+                        }
+                        deliver(block);
+                    }
+                }
+            }
+            if (guaranteed) {
+                callbacks.dfESPGDpublisherCB_func(nack ? clientGDStatus.ESP_GD_NACK : clientGDStatus.ESP_GD_ACK,
+                                                  block.getTID(), null);
+            }
+            return true;
+        }
+
+        private void deliver(final dfESPeventblock block) {
+            for (Client subscriber : window.subscribers) {
+                subscriber.receive(block);
+            }
+        }
+
+        private void receive(final dfESPeventblock block) {
+            try {
+                callbacks.dfESPsubscriberCB_func(block, window.schema, null);
+            } catch (RuntimeException e) {
+                LOG.warn("Subscriber failed on block " + block.getTID() + ": " + e);
+            }
+        }
+
+        @Override
+        public void quiesceProject(final String projectName) throws IOException {
+            if (!connected || down) {
+                throw new IOException("Loopback esp is down, can't quiesce " + projectName);
+            }
+            // blocks are delivered while injected - nothing to wait for
+            quiesceCount.incrementAndGet();
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+            window.subscribers.remove(this);
+            clients.remove(this);
+        }
+    }
+
+    /**
+     * Registers a window.
+     *
+     * @param windowPath
+     *            project/contquery/window - matches uris with any host:port
+     * @param schema
+     *            schema string of window, e.g. "id*:int64,name:string"
+     * @throws dfESPException
+     *             if schema is invalid
+     */
+    public final void addWindow(final String windowPath, final String schema) throws dfESPException {
+        addWindow(windowPath, schema, false);
+    }
+
+    /**
+     * Registers a window.
+     *
+     * @param windowPath
+     *            project/contquery/window - matches uris with any host:port
+     * @param schema
+     *            schema string of window, e.g. "id*:int64,name:string"
+     * @param keepContents
+     *            true to keep the window's contents by key and deliver them
+     *            as snapshot - injects into the window are serialized
+     * @throws dfESPException
+     *             if schema is invalid
+     */
+    public final void addWindow(final String windowPath, final String schema, final boolean keepContents)
+        throws dfESPException {
+        windows.put(windowPath, new Window(schema, keepContents));
+    }
+
+    /**
+     * @param windowPath
+     *            project/contquery/window
+     * @return number of rows kept by window, 0 if contents are not kept
+     */
+    public final int getRows(final String windowPath) {
+        Window window = window(windowPath);
+        if (window.contents == null) {
+            return 0;
+        }
+        synchronized (window) {
+            return window.contents.size();
+        }
+    }
+
+    /**
+     * @param latencyMs
+     *            time each inject takes, 0 for none
+     */
+    public final void setLatencyMs(final long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * @param nackEvery
+     *            NACK every n-th block injected (not delivered to
+     *            subscribers), 0 to ACK all
+     */
+    public final void setNackEvery(final int nackEvery) {
+        this.nackEvery = nackEvery;
+    }
+
+    /**
+     * @param down
+     *            true to reject injects and new connections like a stopped
+     *            engine
+     */
+    public final void setDown(final boolean down) {
+        this.down = down;
+    }
+
+    /**
+     * Breaks all connections: their clients receive READFAILED and have to
+     * reconnect.
+     */
+    public final void failConnections() {
+        for (Client client : clients) {
+            client.disconnect();
+            client.callbacks.dfESPpubsubErrorCB_func(clientFailures.pubsubFail_SERVERDISCONNECT,
+                                                     clientFailureCodes.pubsubCode_READFAILED, null);
+        }
+    }
+
+    /**
+     * @return number of blocks injected into all windows, including NACKed
+     */
+    public final long getInjectedBlocks() {
+        return injectedBlocks.get();
+    }
+
+    /**
+     * @param windowPath
+     *            project/contquery/window
+     * @return number of blocks accepted by window
+     */
+    public final long getBlocks(final String windowPath) {
+        return window(windowPath).blocks.get();
+    }
+
+    /**
+     * @param windowPath
+     *            project/contquery/window
+     * @return number of events accepted by window
+     */
+    public final long getEvents(final String windowPath) {
+        return window(windowPath).events.get();
+    }
+
+    /**
+     * @return number of quiesce calls
+     */
+    public final long getQuiesceCount() {
+        return quiesceCount.get();
+    }
+
+    /**
+     * @return number of connected clients
+     */
+    public final int getConnectedClients() {
+        return clients.size();
+    }
+
+    @Override
+    public final String querySchema(final String windowUri) throws IOException {
+        checkUp(windowUri);
+        return window(path(windowUri)).schemaString;
+    }
+
+    @Override
+    public final EspClient publisherStart(final String windowUri, final clientCallbacks callbacks,
+                                          final String gdConfig) {
+        return connect(new Client(window(path(windowUri)), callbacks, gdConfig != null), windowUri);
+    }
+
+    @Override
+    public final EspClient subscriberStart(final String windowUri, final boolean snapshot, final int maxQueueSize,
+                                           final clientCallbacks callbacks) {
+        Client client = connect(new Client(window(path(windowUri)), callbacks, false), windowUri);
+        Window window = client.window;
+        if (!snapshot) {
+            window.subscribers.add(client);
+            return client;
+        }
+        if (window.contents == null) {
+            // blocks published before subscribing are not delivered
+            client.receive(new dfESPeventblock(new ArrayList<dfESPevent>(), EventBlockType.ebt_NORMAL));
+            window.subscribers.add(client);
+            return client;
+        }
+        synchronized (window) {
+            dfESPeventblock contents = new dfESPeventblock(new ArrayList<>(window.contents.values()),
+                                                           EventBlockType.ebt_NORMAL);
+            client.receive(contents);
+            window.subscribers.add(client);
+        }
+        return client;
+    }
+
+    private Client connect(final Client client, final String windowUri) {
+        if (down) {
+            throw new IllegalStateException("Can't connect to esp engine.");
+        }
+        LOG.debug("Loopback client connected to " + windowUri);
+        clients.add(client);
+        return client;
+    }
+
+    private void checkUp(final String windowUri) throws IOException {
+        if (down) {
+            throw new IOException("Loopback esp is down, can't reach " + windowUri);
+        }
+    }
+
+    /**
+     * @return window registered for path
+     */
+    private Window window(final String windowPath) {
+        Window window = windows.get(windowPath);
+        if (window == null) {
+            throw new IllegalArgumentException("Unknown window " + windowPath + ", known are " + windows.keySet());
+        }
+        return window;
+    }
+
+    /**
+     * @param windowUri
+     *            dfESP://host:port/project/contquery/window?parameters
+     * @return project/contquery/window
+     */
+    private static String path(final String windowUri) {
+        String[] parts = windowUri.split("\\?")[0].split("/");
+        if (parts.length < 6) {
+            throw new IllegalArgumentException("Not a window uri: " + windowUri);
+        }
+        return parts[3] + "/" + parts[4] + "/" + parts[5];
+    }
+}
@@ -0,0 +1,22 @@
+package com.sas.o2.cep;
+
+/**
+ * Behaviour of the consumer if the queue between esp callback thread and
+ * worker threads is full.
+ *
+ */
+public enum OverflowPolicy {
+    /**
+     * esp callback thread waits till there is space - esp throttles its input
+     * (backpressure).
+     */
+    block,
+    /**
+     * event is dropped and counted.
+     */
+    drop,
+    /**
+     * an exception is raised on the esp callback thread.
+     */
+    fail
+}
@@ -0,0 +1,98 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+
+/**
+ * Tracks the blocks of one exchange that are not yet published (or not yet
+ * acknowledged in guaranteed delivery mode). The exchange is completed via its
+ * {@link AsyncCallback} when the last block is done.
+ */
+public class PendingExchange {
+    private final Exchange exchange;
+    private final AsyncCallback callback;
+    /**
+     * Outstanding blocks plus one while the producer still submits blocks.
+     */
+    private final AtomicInteger outstanding = new AtomicInteger(1);
+    /**
+     * First failure of any block.
+     */
+    private volatile Exception failure;
+
+    /**
+     *
+     * @param exchange
+     *            exchange to complete
+     * @param callback
+     *            callback of exchange
+     */
+    public PendingExchange(final Exchange exchange, final AsyncCallback callback) {
+        this.exchange = exchange;
+        this.callback = callback;
+    }
+
+    /**
+     * @return the exchange
+     */
+    public final Exchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * Registers one more block to wait for.
+     */
+    public final void blockSent() {
+        outstanding.incrementAndGet();
+    }
+
+    /**
+     * Marks one block as done.
+     *
+     * @param cause
+     *            null on success, else reason why block failed
+     */
+    public final void blockDone(final Exception cause) {
+        if (cause != null) {
+            fail(cause);
+        }
+        if (outstanding.decrementAndGet() == 0) {
+            complete(false);
+        }
+    }
+
+    /**
+     * Marks exchange as failed - it is completed when all outstanding blocks
+     * are done.
+     *
+     * @param cause
+     *            reason
+     */
+    public final void fail(final Exception cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+    }
+
+    /**
+     * Called by producer after all blocks of the exchange are handed over.
+     *
+     * @return true if exchange is completed synchronously
+     */
+    public final boolean submitted() {
+        if (outstanding.decrementAndGet() == 0) {
+            complete(true);
+            return true;
+        }
+        return false;
+    }
+
+    private void complete(final boolean doneSync) {
+        if (failure != null) {
+            exchange.setException(failure);
+        }
+        callback.done(doneSync);
+    }
+}
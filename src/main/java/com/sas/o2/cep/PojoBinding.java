@@ -0,0 +1,254 @@
+package com.sas.o2.cep;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps esp fields to the fields of a java class by name. Names are compared
+ * ignoring case and underscores, so esp field BYTES_UP matches java field
+ * bytesUp; {@link EspField} gives another name. The mapping of field indexes
+ * is computed once per class and {@link EspRowSchema}. Bindings are kept
+ * with their class, so classes of unloaded class loaders are not held.
+ */
+public final class PojoBinding {
+    /**
+     * Bindings by class.
+     */
+    private static final ClassValue<PojoBinding> BINDINGS = new ClassValue<PojoBinding>() {
+        @Override
+        protected PojoBinding computeValue(final Class<?> type) {
+            return new PojoBinding(type);
+        }
+    };
+    /**
+     * True by class if a field is annotated with {@link EspField} - checked
+     * without creating a binding.
+     */
+    private static final ClassValue<Boolean> ANNOTATED = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(final Class<?> type) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (field.isAnnotationPresent(EspField.class) && !Modifier.isStatic(field.getModifiers())) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    };
+
+    private final Class<?> type;
+    /**
+     * Java fields by normalized name.
+     */
+    private final Map<String, Field> fieldsByName = new HashMap<>();
+    /**
+     * Java fields per esp field index for the schema used last - producer
+     * and consumer may use different schemas, so both are replaced together.
+     */
+    private volatile Bound bound;
+
+    /**
+     * Java field per esp field index (null if not mapped) of a schema.
+     */
+    private static final class Bound {
+        private final EspRowSchema schema;
+        private final Field[] fields;
+
+        private Bound(final EspRowSchema schema, final Field[] fields) {
+            this.schema = schema;
+            this.fields = fields;
+        }
+    }
+
+    private PojoBinding(final Class<?> type) {
+        this.type = type;
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                EspField espField = field.getAnnotation(EspField.class);
+                // annotated final fields are set like the others
+                if (Modifier.isStatic(field.getModifiers())
+                    || Modifier.isFinal(field.getModifiers()) && espField == null) {
+                    continue;
+                }
+                String key = normalize(espField != null ? espField.value() : field.getName());
+                if (!fieldsByName.containsKey(key)) {
+                    field.setAccessible(true);
+                    fieldsByName.put(key, field);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param type
+     *            java class
+     * @return cached binding for class
+     */
+    public static PojoBinding of(final Class<?> type) {
+        return BINDINGS.get(type);
+    }
+
+    /**
+     * @param type
+     *            java class
+     * @return true if class could be a target for {@link #toPojo(EspRow)}
+     */
+    public static boolean isBindable(final Class<?> type) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || type.isEnum()
+            || Modifier.isAbstract(type.getModifiers())) {
+            return false;
+        }
+        Package pkg = type.getPackage();
+        if (pkg != null && pkg.getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param type
+     *            java class
+     * @return true if class has a field annotated with {@link EspField} - a
+     *         source for {@link #toValues(Object, EspRowSchema)}
+     */
+    public static boolean isAnnotated(final Class<?> type) {
+        if (type.isInterface() || type.isArray() || type.isPrimitive() || type.isEnum()) {
+            return false;
+        }
+        Package pkg = type.getPackage();
+        if (pkg != null && pkg.getName().startsWith("java.")) {
+            return false;
+        }
+        return ANNOTATED.get(type);
+    }
+
+    /**
+     * Reads the values of the java fields mapped to esp fields.
+     *
+     * @param pojo
+     *            instance of the bound class
+     * @param schema
+     *            schema of target window
+     * @return value per esp field index, null for esp fields not mapped
+     * @throws IllegalAccessException
+     *             if a field can't be read
+     */
+    public Object[] toValues(final Object pojo, final EspRowSchema schema) throws IllegalAccessException {
+        Field[] fields = fieldsFor(schema);
+        Object[] values = new Object[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                values[i] = fields[i].get(pojo);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Creates an instance of the bound class and sets all fields found in
+     * row.
+     *
+     * @param row
+     *            row received from esp
+     * @return new instance
+     * @throws ReflectiveOperationException
+     *             if instance can't be created or fields not set
+     */
+    public Object toPojo(final EspRow row) throws ReflectiveOperationException {
+        Field[] fields = fieldsFor(row.getSchema());
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Object pojo = constructor.newInstance();
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            if (field != null) {
+                Object value = coerce(row.getTypedValue(i), field.getType());
+                if (value != null || !field.getType().isPrimitive()) {
+                    field.set(pojo, value);
+                }
+            }
+        }
+        return pojo;
+    }
+
+    /**
+     * @return java field per esp field index, computed once per schema
+     */
+    private Field[] fieldsFor(final EspRowSchema schema) {
+        Bound current = bound;
+        if (current == null || current.schema != schema) {
+            Field[] fields = new Field[schema.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = fieldsByName.get(normalize(schema.name(i)));
+            }
+            current = new Bound(schema, fields);
+            bound = current;
+        }
+        return current.fields;
+    }
+
+    /**
+     * Converts typed esp value into java field type.
+     *
+     * @param value
+     *            typed value (Long, Double, BigDecimal, Date or String)
+     * @param target
+     *            java type
+     * @return converted value, null if value is null
+     */
+    static Object coerce(final Object value, final Class<?> target) {
+        if (value == null || target.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (target == long.class || target == Long.class) {
+                return number.longValue();
+            } else if (target == int.class || target == Integer.class) {
+                return number.intValue();
+            } else if (target == double.class || target == Double.class) {
+                return number.doubleValue();
+            } else if (target == float.class || target == Float.class) {
+                return number.floatValue();
+            } else if (target == short.class || target == Short.class) {
+                return number.shortValue();
+            } else if (target == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            }
+        } else if (value instanceof Date && (target == long.class || target == Long.class)) {
+            return ((Date) value).getTime();
+        }
+        if (target == String.class) {
+            return value.toString();
+        }
+        throw new IllegalArgumentException("Can't convert " + value.getClass().getName() + " to " + target.getName());
+    }
+
+    /**
+     * @param name
+     *            esp or java field name
+     * @return name in lower case without underscores
+     */
+    static String normalize(final String name) {
+        StringBuilder result = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c != '_') {
+                result.append(Character.toLowerCase(c));
+            }
+        }
+        return result.toString();
+    }
+}
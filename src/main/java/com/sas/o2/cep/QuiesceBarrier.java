@@ -0,0 +1,97 @@
+package com.sas.o2.cep;
+
+/**
+ * Lets concurrent callers share quiesce calls. A caller returns after a
+ * quiesce that started after the caller arrived has finished - so all events
+ * the caller published before are covered. Callers arriving while a quiesce
+ * is running wait and share the next one instead of each making its own.
+ */
+public class QuiesceBarrier {
+
+    /**
+     * Performs the quiesce.
+     */
+    public interface Action {
+        /**
+         * Quiesces project, returns when done.
+         *
+         * @throws Exception
+         *             if quiesce failed
+         */
+        void quiesce() throws Exception;
+    }
+
+    private final Action action;
+    /**
+     * Number of quiesce calls started.
+     */
+    private long started;
+    /**
+     * Number of quiesce calls finished.
+     */
+    private long finished;
+    private boolean running;
+    /**
+     * Failure of last call - reported to all callers sharing it.
+     */
+    private Exception lastFailure;
+
+    /**
+     *
+     * @param action
+     *            performs the quiesce
+     */
+    public QuiesceBarrier(final Action action) {
+        this.action = action;
+    }
+
+    /**
+     * Waits for (or performs) a quiesce that started after this call.
+     *
+     * @throws Exception
+     *             if the shared quiesce failed or waiting was interrupted
+     */
+    public final void await() throws Exception {
+        long generation;
+        synchronized (this) {
+            long target = started + 1;
+            while (true) {
+                if (finished >= target) {
+                    // latest call covers this caller
+                    if (lastFailure != null) {
+                        throw lastFailure;
+                    }
+                    return;
+                }
+                if (!running) {
+                    running = true;
+                    generation = ++started;
+                    break;
+                }
+                wait();
+            }
+        }
+        Exception failure = null;
+        try {
+            action.quiesce();
+        } catch (Exception e) {
+            failure = e;
+        }
+        synchronized (this) {
+            running = false;
+            finished = generation;
+            lastFailure = failure;
+            notifyAll();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return number of quiesce calls made
+     */
+    public final synchronized long getQuiesceCount() {
+        return finished;
+    }
+}
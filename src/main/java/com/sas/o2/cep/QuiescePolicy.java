@@ -0,0 +1,29 @@
+package com.sas.o2.cep;
+
+/**
+ * Defines when the producer quiesces the project (waits till esp processed
+ * all events published so far). Quiesce is only considered after an exchange
+ * that is not inside a split or is the last one of a split (exchange property
+ * "CamelSplitComplete"). Header {@link DfESPConstants#QUIESCE} requests a
+ * quiesce regardless of the policy.
+ *
+ */
+public enum QuiescePolicy {
+    /**
+     * no quiesce (uri value quiesce=false).
+     */
+    never,
+    /**
+     * after every exchange (uri value quiesce=true).
+     */
+    exchange,
+    /**
+     * after every quiesceEvery-th exchange.
+     */
+    everyN,
+    /**
+     * after an exchange if the last quiesce is at least quiesceIntervalMs
+     * ago.
+     */
+    interval
+}
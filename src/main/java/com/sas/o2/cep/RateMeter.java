@@ -0,0 +1,105 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures rates (per second) as exponentially weighted moving averages over
+ * 1, 5 and 15 minutes - like the unix load average. Averages are updated
+ * every 5 seconds by the first thread marking or reading after the interval
+ * elapsed, no timer thread needed.
+ */
+public final class RateMeter {
+    /**
+     * Interval of average updates in seconds.
+     */
+    private static final int TICK_SECONDS = 5;
+    private static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(TICK_SECONDS);
+    private static final double ALPHA_1M = 1 - Math.exp(-TICK_SECONDS / 60.0);
+    private static final double ALPHA_5M = 1 - Math.exp(-TICK_SECONDS / 300.0);
+    private static final double ALPHA_15M = 1 - Math.exp(-TICK_SECONDS / 900.0);
+
+    /**
+     * Counts marked since last tick.
+     */
+    private final StripedCounter uncounted = new StripedCounter();
+    private final AtomicLong lastTick = new AtomicLong(System.nanoTime());
+    private volatile boolean initialized;
+    private volatile double rate1m;
+    private volatile double rate5m;
+    private volatile double rate15m;
+
+    /**
+     * @param count
+     *            number of occurrences to record
+     */
+    public void mark(final long count) {
+        tickIfNecessary();
+        uncounted.add(count);
+    }
+
+    /**
+     * @return average rate per second over last minute
+     */
+    public double getRate1m() {
+        tickIfNecessary();
+        return rate1m;
+    }
+
+    /**
+     * @return average rate per second over last 5 minutes
+     */
+    public double getRate5m() {
+        tickIfNecessary();
+        return rate5m;
+    }
+
+    /**
+     * @return average rate per second over last 15 minutes
+     */
+    public double getRate15m() {
+        tickIfNecessary();
+        return rate15m;
+    }
+
+    /**
+     * Sets all rates to zero.
+     */
+    public synchronized void reset() {
+        uncounted.reset();
+        initialized = false;
+        rate1m = 0;
+        rate5m = 0;
+        rate15m = 0;
+        lastTick.set(System.nanoTime());
+    }
+
+    private void tickIfNecessary() {
+        long oldTick = lastTick.get();
+        long age = System.nanoTime() - oldTick;
+        if (age > TICK_NANOS) {
+            long newTick = oldTick + age - age % TICK_NANOS;
+            // only one thread does the update
+            if (lastTick.compareAndSet(oldTick, newTick)) {
+                long ticks = age / TICK_NANOS;
+                for (long i = 0; i < ticks; i++) {
+                    tick();
+                }
+            }
+        }
+    }
+
+    private synchronized void tick() {
+        double instantRate = uncounted.sumThenReset() / (double) TICK_SECONDS;
+        if (initialized) {
+            rate1m += ALPHA_1M * (instantRate - rate1m);
+            rate5m += ALPHA_5M * (instantRate - rate5m);
+            rate15m += ALPHA_15M * (instantRate - rate15m);
+        } else {
+            rate1m = instantRate;
+            rate5m = instantRate;
+            rate15m = instantRate;
+            initialized = true;
+        }
+    }
+}
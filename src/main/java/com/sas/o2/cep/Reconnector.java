@@ -0,0 +1,109 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries a reconnect with exponential backoff till it succeeds. Triggering
+ * while a reconnect is already scheduled has no effect.
+ */
+public class Reconnector {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(Reconnector.class);
+
+    /**
+     * Performs one reconnect attempt.
+     */
+    public interface Connector {
+        /**
+         * @throws Exception
+         *             if reconnect failed - will be retried
+         */
+        void reconnect() throws Exception;
+    }
+
+    private final String name;
+    private final Connector connector;
+    private final ScheduledExecutorService executor;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    /**
+     *
+     * @param name
+     *            for logging, e.g. window uri
+     * @param connector
+     *            performs reconnect
+     * @param executor
+     *            runs reconnect attempts
+     * @param initialDelayMs
+     *            delay before first attempt
+     * @param maxDelayMs
+     *            max delay between attempts
+     */
+    public Reconnector(final String name, final Connector connector, final ScheduledExecutorService executor,
+                       final long initialDelayMs, final long maxDelayMs) {
+        this.name = name;
+        this.connector = connector;
+        this.executor = executor;
+        this.initialDelayMs = Math.max(1, initialDelayMs);
+        this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+    }
+
+    /**
+     * Schedules reconnect unless already scheduled.
+     */
+    public final void trigger() {
+        if (!stopped && scheduled.compareAndSet(false, true)) {
+            LOG.info("Reconnecting to " + name + " in " + initialDelayMs + " ms");
+            schedule(initialDelayMs);
+        }
+    }
+
+    /**
+     * @return true while a reconnect is scheduled or running
+     */
+    public final boolean isReconnecting() {
+        return scheduled.get();
+    }
+
+    /**
+     * No further attempts after this call.
+     */
+    public final void stop() {
+        stopped = true;
+    }
+
+    private void schedule(final long delayMs) {
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attempt(delayMs);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt(final long delayMs) {
+        if (stopped) {
+            scheduled.set(false);
+            return;
+        }
+        try {
+            connector.reconnect();
+            scheduled.set(false);
+            LOG.info("Reconnected to " + name);
+        } catch (Exception e) {
+            long next = Math.min(delayMs * 2, maxDelayMs);
+            LOG.warn("Reconnect to " + name + " failed, next attempt in " + next + " ms. Cause: " + e);
+            schedule(next);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.sas.o2.cep;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches schema strings of esp windows by window uri. Each window is queried
+ * only once, even if several endpoints ask for it at the same time. Queries
+ * can be started ahead in the background (see
+ * {@link #prefetch(String, Executor)}), so endpoints starting later find the
+ * schema ready. Optionally the cache is saved to a snapshot file and loaded
+ * from it on the next start - then no query is needed until an entry is
+ * invalidated.
+ */
+public class SchemaCache {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaCache.class);
+
+    /**
+     * Queries schema of a window.
+     */
+    public interface Loader {
+        /**
+         * @param windowUri
+         *            dfESP://host:port/project/contquery/window
+         * @return schema string of window
+         * @throws Exception
+         *             if esp could not be queried
+         */
+        String load(String windowUri) throws Exception;
+    }
+
+    private final Loader loader;
+    /**
+     * Snapshot file - null if disabled.
+     */
+    private final File snapshot;
+    private final ConcurrentMap<String, FutureTask<String>> entries = new ConcurrentHashMap<>();
+
+    /**
+     *
+     * @param loader
+     *            queries esp
+     * @param snapshot
+     *            file to save and restore schemas - may be null
+     */
+    public SchemaCache(final Loader loader, final File snapshot) {
+        this.loader = loader;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Fills cache from snapshot file, if configured and existing. Broken
+     * snapshots are ignored.
+     */
+    public final void loadSnapshot() {
+        if (snapshot == null || !snapshot.isFile()) {
+            return;
+        }
+        Properties schemas = new Properties();
+        try (InputStream in = new FileInputStream(snapshot)) {
+            schemas.load(in);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable schema snapshot " + snapshot + ": " + e);
+            return;
+        }
+        for (String windowUri : schemas.stringPropertyNames()) {
+            entries.putIfAbsent(windowUri, completed(schemas.getProperty(windowUri)));
+        }
+        LOG.info("Loaded " + schemas.size() + " schemas from snapshot " + snapshot);
+    }
+
+    /**
+     * Starts querying schema of window in background, unless it is cached or
+     * already being queried.
+     *
+     * @param windowUri
+     *            uri of window
+     * @param executor
+     *            runs the query
+     */
+    public final void prefetch(final String windowUri, final Executor executor) {
+        FutureTask<String> task = newTask(windowUri);
+        if (entries.putIfAbsent(windowUri, task) == null) {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Returns schema of window, querying esp if not cached. Waits if the
+     * window is queried by another thread.
+     *
+     * @param windowUri
+     *            uri of window
+     * @return schema string
+     * @throws Exception
+     *             if esp could not be queried - nothing is cached then
+     */
+    public final String get(final String windowUri) throws Exception {
+        FutureTask<String> task = entries.get(windowUri);
+        if (task == null) {
+            FutureTask<String> created = newTask(windowUri);
+            task = entries.putIfAbsent(windowUri, created);
+            if (task == null) {
+                task = created;
+            }
+        }
+        // no-op if already done or running in another thread - otherwise a
+        // prefetch still waiting in the executor queue is done right here
+        task.run();
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // next call queries again
+            entries.remove(windowUri, task);
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Removes window from cache, e.g. because esp was restarted and schema
+     * may have changed.
+     *
+     * @param windowUri
+     *            uri of window
+     */
+    public final void invalidate(final String windowUri) {
+        entries.remove(windowUri);
+    }
+
+    /**
+     * @return number of cached or loading windows
+     */
+    public final int size() {
+        return entries.size();
+    }
+
+    /**
+     * Creates a task querying esp and updating the snapshot.
+     */
+    private FutureTask<String> newTask(final String windowUri) {
+        return new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                long start = System.currentTimeMillis();
+                String schema = loader.load(windowUri);
+                LOG.debug("Fetched schema of " + windowUri + " in " + (System.currentTimeMillis() - start) + " ms");
+                if (snapshot != null) {
+                    saveSnapshot(windowUri, schema);
+                }
+                return schema;
+            }
+        });
+    }
+
+    /**
+     * Writes all loaded schemas to snapshot file.
+     *
+     * @param windowUri
+     *            window just loaded - not yet visible as completed entry
+     * @param schema
+     *            its schema
+     */
+    private synchronized void saveSnapshot(final String windowUri, final String schema) {
+        Properties schemas = new Properties();
+        for (Map.Entry<String, FutureTask<String>> entry : entries.entrySet()) {
+            if (entry.getValue().isDone()) {
+                try {
+                    schemas.setProperty(entry.getKey(), entry.getValue().get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // failed entries are not saved
+                    continue;
+                }
+            }
+        }
+        schemas.setProperty(windowUri, schema);
+        File temp = new File(snapshot.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                schemas.store(out, "dfESP window schemas");
+            }
+            if (!temp.renameTo(snapshot) && !(snapshot.delete() && temp.renameTo(snapshot))) {
+                throw new IOException("Can't rename " + temp + " to " + snapshot);
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not save schema snapshot " + snapshot + ": " + e);
+        }
+    }
+
+    /**
+     * @return already completed task with given schema
+     */
+    private static FutureTask<String> completed(final String schema) {
+        FutureTask<String> task = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return schema;
+            }
+        });
+        task.run();
+        return task;
+    }
+}
@@ -0,0 +1,26 @@
+package com.sas.o2.cep;
+
+/**
+ * Defines what the consumer receives of the window's contents when it
+ * subscribes. Esp delivers the contents as first block after subscribing;
+ * the consumer hands it on in chunks of snapshotChunkSize rows, at most
+ * snapshotRate rows per second, with header {@link DfESPConstants#SNAPSHOT}
+ * set.
+ *
+ */
+public enum SnapshotMode {
+    /**
+     * all rows of the window (uri value snapshot=true).
+     */
+    all,
+    /**
+     * no snapshot, only events published after subscribing (uri value
+     * snapshot=false).
+     */
+    none,
+    /**
+     * rows of the window with key fields only - to find out which keys exist
+     * without passing the whole window through the route.
+     */
+    keysOnly
+}
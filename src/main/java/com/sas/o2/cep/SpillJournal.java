@@ -0,0 +1,389 @@
+package com.sas.o2.cep;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of records on local disk, kept in memory-mapped segment
+ * files of a fixed size. Records are read back in order from a checkpoint;
+ * after a record is handled it is committed, which moves the checkpoint and
+ * deletes segments read completely. Journal and checkpoint survive restarts
+ * of the jvm - records written just before a crash may be lost (detected by
+ * checksum), committed ones may be read again if the checkpoint was not
+ * written yet. Total size of segments is limited.
+ * <p>
+ * A segment is a sequence of records (length, crc, flags, data) followed by
+ * zeros. A directory can be used by one journal at a time.
+ */
+public class SpillJournal implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(SpillJournal.class);
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "journal.lock";
+    /**
+     * Length, crc and flags.
+     */
+    private static final int HEADER_SIZE = 9;
+    private static final byte FLAG_QUIESCE = 1;
+
+    /**
+     * A record read from the journal.
+     */
+    public static final class Record {
+        private final byte[] data;
+        private final boolean quiesce;
+
+        private Record(final byte[] data, final boolean quiesce) {
+            this.data = data;
+            this.quiesce = quiesce;
+        }
+
+        /**
+         * @return data as appended
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return quiesce flag as appended
+         */
+        public boolean isQuiesce() {
+            return quiesce;
+        }
+    }
+
+    /**
+     * A mapped segment file.
+     */
+    private static final class Segment {
+        private final long sequence;
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final long sequence, final File file, final int size) throws IOException {
+            this.sequence = sequence;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                // mapping stays valid after channel is closed
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+        }
+
+        private int size() {
+            return buffer.capacity();
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    /**
+     * Segments by sequence number, oldest first.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /**
+     * Checkpoint: segment sequence and offset of next record to read.
+     */
+    private final MappedByteBuffer checkpoint;
+    private final CRC32 crc = new CRC32();
+    private Segment writeSegment;
+    private int writePosition;
+    private Segment readSegment;
+    private int readPosition;
+    /**
+     * Position after record returned by {@link #peek()} - valid until
+     * {@link #commit()}.
+     */
+    private Segment peekedSegment;
+    private int peekedEnd;
+    private long totalBytes;
+    private long records;
+
+    /**
+     * Opens journal, recovering records and checkpoint of a previous run.
+     *
+     * @param directory
+     *            directory of segment files - created if missing
+     * @param segmentSize
+     *            size of segment files in bytes
+     * @param maxBytes
+     *            max total size of segment files
+     * @throws IOException
+     *             if journal can't be opened
+     * @throws IllegalStateException
+     *             if directory is used by another journal
+     */
+    public SpillJournal(final File directory, final int segmentSize, final long maxBytes) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Journal segment size must be more than " + HEADER_SIZE
+                                               + " bytes, was " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.lockFile = new RandomAccessFile(new File(directory, LOCK), "rw");
+        FileLock locked;
+        try {
+            locked = lockFile.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked within this jvm
+            locked = null;
+        }
+        if (locked == null) {
+            lockFile.close();
+            throw new IllegalStateException("Journal directory " + directory + " is used by another producer.");
+        }
+        this.lock = locked;
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, CHECKPOINT), "rw")) {
+            this.checkpoint = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        }
+        recover();
+    }
+
+    /**
+     * Maps existing segments, finds end of written records and position of
+     * checkpoint.
+     */
+    private void recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length()
+                                                                                           - SEGMENT_SUFFIX.length()));
+                    segments.put(sequence, new Segment(sequence, file, 0));
+                }
+            }
+        }
+        long checkpointSegment = checkpoint.getLong(0);
+        int checkpointPosition = (int) checkpoint.getLong(8);
+        // segments before checkpoint were read completely
+        while (!segments.isEmpty() && segments.firstKey() < checkpointSegment) {
+            delete(segments.pollFirstEntry().getValue());
+        }
+        for (Segment segment : segments.values()) {
+            totalBytes += segment.size();
+        }
+        if (segments.isEmpty()) {
+            writeSegment = null;
+            readSegment = null;
+            return;
+        }
+        readSegment = segments.firstEntry().getValue();
+        readPosition = readSegment.sequence == checkpointSegment ? checkpointPosition : 0;
+        // count records and find end of last segment - a broken record ends
+        // the journal
+        for (Segment segment : segments.values()) {
+            int position = segment == readSegment ? readPosition : 0;
+            int end;
+            while ((end = recordEnd(segment, position)) > 0) {
+                records++;
+                position = end;
+            }
+            writeSegment = segment;
+            writePosition = position;
+        }
+        LOG.info("Recovered journal " + directory + " with " + records + " records in " + segments.size()
+                 + " segments");
+    }
+
+    /**
+     * Appends a record. Fails if journal would exceed its max size.
+     *
+     * @param data
+     *            content of record
+     * @param quiesce
+     *            flag returned with record
+     * @return false if journal is full
+     * @throws IOException
+     *             if a segment can't be created
+     */
+    public final synchronized boolean append(final byte[] data, final boolean quiesce) throws IOException {
+        int size = HEADER_SIZE + data.length;
+        if (writeSegment == null || writeSegment.size() - writePosition < size) {
+            // new segment - a large record gets a segment of its own size
+            int newSize = Math.max(segmentSize, size);
+            if (totalBytes + newSize > maxBytes) {
+                return false;
+            }
+            long sequence = writeSegment == null ? checkpoint.getLong(0) : writeSegment.sequence + 1;
+            Segment segment = new Segment(sequence, new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX,
+                                                                                      sequence, SEGMENT_SUFFIX)),
+                                          newSize);
+            if (writeSegment != null) {
+                writeSegment.buffer.force();
+            }
+            segments.put(sequence, segment);
+            totalBytes += segment.size();
+            writeSegment = segment;
+            writePosition = 0;
+            if (readSegment == null) {
+                readSegment = segment;
+                readPosition = 0;
+            }
+        }
+        crc.reset();
+        crc.update(data, 0, data.length);
+        ByteBuffer target = writeSegment.buffer.duplicate();
+        target.position(writePosition + 4);
+        target.putInt((int) crc.getValue());
+        target.put(quiesce ? FLAG_QUIESCE : 0);
+        target.put(data);
+        // length last - a record is complete once its length is written
+        writeSegment.buffer.putInt(writePosition, data.length);
+        writePosition += size;
+        records++;
+        return true;
+    }
+
+    /**
+     * Reads oldest record not yet committed. Returns the same record again
+     * until it is committed.
+     *
+     * @return record or null if there is none
+     */
+    public final synchronized Record peek() {
+        while (readSegment != null) {
+            int end = recordEnd(readSegment, readPosition);
+            if (end > 0) {
+                ByteBuffer source = readSegment.buffer.duplicate();
+                source.position(readPosition + 8);
+                boolean quiesce = source.get() == FLAG_QUIESCE;
+                byte[] data = new byte[end - readPosition - HEADER_SIZE];
+                source.get(data);
+                peekedSegment = readSegment;
+                peekedEnd = end;
+                return new Record(data, quiesce);
+            }
+            if (readSegment == writeSegment) {
+                return null;
+            }
+            // segment read completely
+            Segment finished = readSegment;
+            readSegment = segments.higherEntry(finished.sequence).getValue();
+            readPosition = 0;
+            writeCheckpoint();
+            segments.remove(finished.sequence);
+            totalBytes -= finished.size();
+            delete(finished);
+        }
+        return null;
+    }
+
+    /**
+     * Marks record returned by last {@link #peek()} as handled and writes
+     * checkpoint.
+     */
+    public final synchronized void commit() {
+        if (peekedSegment == null) {
+            throw new IllegalStateException("No record to commit in journal " + directory);
+        }
+        if (peekedSegment == readSegment) {
+            readPosition = peekedEnd;
+            records--;
+            writeCheckpoint();
+        }
+        peekedSegment = null;
+    }
+
+    /**
+     * @return true if there are no uncommitted records
+     */
+    public final synchronized boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * @return number of uncommitted records
+     */
+    public final synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * @return total size of segment files
+     */
+    public final synchronized long getBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Writes segments and checkpoint to disk and releases directory.
+     */
+    @Override
+    public final synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        checkpoint.force();
+        lock.release();
+        lockFile.close();
+    }
+
+    /**
+     * @return end of valid record at position or 0 if there is none
+     */
+    private int recordEnd(final Segment segment, final int position) {
+        if (segment.size() - position < HEADER_SIZE) {
+            return 0;
+        }
+        int length = segment.buffer.getInt(position);
+        if (length <= 0 || length > segment.size() - position - HEADER_SIZE) {
+            return 0;
+        }
+        ByteBuffer data = segment.buffer.duplicate();
+        data.position(position + HEADER_SIZE);
+        data.limit(position + HEADER_SIZE + length);
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != segment.buffer.getInt(position + 4)) {
+            LOG.warn("Ignoring broken record at " + position + " of journal segment " + segment.file);
+            return 0;
+        }
+        return position + HEADER_SIZE + length;
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, readSegment.sequence);
+        checkpoint.putLong(8, readPosition);
+    }
+
+    private void delete(final Segment segment) {
+        // space is freed when the mapping is garbage collected - on windows
+        // the file can't be deleted before
+        if (!segment.file.delete()) {
+            LOG.debug("Could not delete journal segment " + segment.file + ", deleting it on exit.");
+            segment.file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.sas.o2.cep;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for values updated by many threads (like LongAdder in java 8). Each
+ * thread adds to one of several cells, each on its own cache line, so
+ * concurrent updates neither get lost nor contend. Reading sums up all cells.
+ */
+public final class StripedCounter {
+    /**
+     * Longs per cache line - cells are spread to avoid false sharing.
+     */
+    private static final int PADDING = 8;
+    /**
+     * Number of cells, power of two.
+     */
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1,
+                                                                      Runtime.getRuntime().availableProcessors()) * 2);
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * @param delta
+     *            value to add
+     */
+    public void add(final long delta) {
+        cells.getAndAdd(cell(), delta);
+    }
+
+    /**
+     * Adds one.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * @return current sum of all cells
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * @return sum of all cells, cells are set to zero
+     */
+    public long sumThenReset() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.getAndSet(i * PADDING, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * Sets counter to zero.
+     */
+    public void reset() {
+        sumThenReset();
+    }
+
+    private static int cell() {
+        return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+}
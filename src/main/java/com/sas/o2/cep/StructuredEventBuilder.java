@@ -0,0 +1,277 @@
+package com.sas.o2.cep;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sas.esp.api.dfESPException;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.datavar.FieldTypes;
+import com.sas.esp.api.server.event.EventFlags;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+/**
+ * Creates {@link dfESPevent}s from structured records instead of csv lines:
+ * {@link Map}s of field name to value, Object[]s of values in schema order,
+ * {@link EspRow}s and pojos with {@link EspField} annotations. Values are
+ * handed over to esp as they are (converted to the field's type), so there
+ * is no formatting, parsing or escaping. Map keys and pojo fields are bound
+ * to the schema by name, ignoring case and underscores; unknown keys are
+ * ignored, missing fields are null. With {@link Mode#insertAddId} the first
+ * field is generated and not taken from the record (Object[]s don't contain
+ * it). Thread safe.
+ */
+public class StructuredEventBuilder {
+    /**
+     * Schema of target window.
+     */
+    private final dfESPschema schema;
+    /**
+     * Names and types of fields of target window.
+     */
+    private final EspRowSchema rowSchema;
+    /**
+     * Mode how to send data to esp.
+     */
+    private final Mode mode;
+    /**
+     * Generates ids for {@link Mode#insertAddId}.
+     */
+    private final IdGenerator idGenerator;
+    /**
+     * Field index by normalized name - for map keys.
+     */
+    private final Map<String, Integer> indexByName = new HashMap<>();
+    /**
+     * Index of first field taken from the record.
+     */
+    private final int firstField;
+
+    /**
+     *
+     * @param schema
+     *            schema of target window
+     * @param mode
+     *            mode for inserting data
+     * @param idGenerator
+     *            generates ids for {@link Mode#insertAddId}
+     */
+    public StructuredEventBuilder(final dfESPschema schema, final Mode mode, final IdGenerator idGenerator) {
+        this.schema = schema;
+        this.rowSchema = new EspRowSchema(schema.getNames(), schema.getTypes());
+        this.mode = mode;
+        this.idGenerator = idGenerator;
+        this.firstField = mode == Mode.insertAddId ? 1 : 0;
+        for (int i = 0; i < rowSchema.size(); i++) {
+            indexByName.put(PojoBinding.normalize(rowSchema.name(i)), i);
+        }
+    }
+
+    /**
+     * @param body
+     *            body of exchange
+     * @return true if body is a record or a list of records
+     */
+    public static boolean isStructured(final Object body) {
+        if (body instanceof List) {
+            List<?> list = (List<?>) body;
+            return list.isEmpty() || isRecord(list.get(0));
+        }
+        return isRecord(body);
+    }
+
+    private static boolean isRecord(final Object value) {
+        return value instanceof Map || value instanceof Object[] || value instanceof EspRow
+               || value != null && PojoBinding.isAnnotated(value.getClass());
+    }
+
+    /**
+     * @param body
+     *            structured body
+     * @return records of body - the body itself if it is a single record
+     */
+    public static List<?> records(final Object body) {
+        if (body instanceof List) {
+            return (List<?>) body;
+        }
+        return Collections.singletonList(body);
+    }
+
+    /**
+     * @param value
+     *            value of header {@link DfESPConstants#OPCODE}
+     * @return opcode, null if value is null
+     */
+    public static EventOpcodes toOpcode(final Object value) {
+        if (value == null || value instanceof EventOpcodes) {
+            return (EventOpcodes) value;
+        }
+        String name = value.toString().toUpperCase(Locale.ROOT);
+        try {
+            return EventOpcodes.valueOf("eo_" + (name.startsWith("EO_") ? name.substring(3) : name));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown opcode " + value + " in header " + DfESPConstants.OPCODE, e);
+        }
+    }
+
+    /**
+     * Creates an event from a record.
+     *
+     * @param record
+     *            map, Object[], {@link EspRow} or annotated pojo
+     * @param opcode
+     *            opcode for {@link Mode#dynamic} (rows keep their own), null
+     *            if not given
+     * @return event for esp
+     * @throws dfESPException
+     *             if esp rejects the values
+     * @throws IllegalArgumentException
+     *             if record does not fit the schema
+     */
+    public final dfESPevent build(final Object record, final EventOpcodes opcode) throws dfESPException {
+        Object[] values = new Object[rowSchema.size()];
+        EventOpcodes eventOpcode = opcode;
+        if (record instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) record).entrySet()) {
+                Integer index = indexByName.get(PojoBinding.normalize(String.valueOf(entry.getKey())));
+                if (index != null) {
+                    values[index] = entry.getValue();
+                }
+            }
+        } else if (record instanceof Object[]) {
+            Object[] array = (Object[]) record;
+            if (array.length != values.length - firstField) {
+                throw new IllegalArgumentException("Record has " + array.length + " values, window has "
+                                                   + (values.length - firstField) + " fields " + rowSchema.names());
+            }
+            System.arraycopy(array, 0, values, firstField, array.length);
+        } else if (record instanceof EspRow) {
+            EspRow row = (EspRow) record;
+            for (int i = 0; i < row.size(); i++) {
+                Integer index = indexByName.get(PojoBinding.normalize(row.getSchema().name(i)));
+                if (index != null) {
+                    values[index] = row.getTypedValue(i);
+                }
+            }
+            if (row.getOpcode() != null) {
+                eventOpcode = row.getOpcode();
+            }
+        } else if (record != null && PojoBinding.isAnnotated(record.getClass())) {
+            try {
+                values = PojoBinding.of(record.getClass()).toValues(record, rowSchema);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Can't read fields of " + record.getClass().getName(), e);
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported record " + (record == null ? null : record.getClass())
+                                               + ", expected Map, Object[], EspRow or pojo with @EspField");
+        }
+        ArrayList<Object> data = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            data.add(toEspValue(i < firstField ? nextId() : values[i], i));
+        }
+        return new dfESPevent(schema, data, opcode(eventOpcode), EventFlags.ef_NORMAL);
+    }
+
+    /**
+     * Creates an event from the values of all fields, e.g. to restore a
+     * journaled event. Values are converted to the field's type like those
+     * of records, but the opcode is taken as it is and no id is generated.
+     *
+     * @param values
+     *            values of all fields in schema order
+     * @param opcode
+     *            opcode of event
+     * @return event for esp
+     * @throws dfESPException
+     *             if esp rejects the values
+     * @throws IllegalArgumentException
+     *             if values don't fit the schema
+     */
+    public final dfESPevent restore(final Object[] values, final EventOpcodes opcode) throws dfESPException {
+        if (values.length != rowSchema.size()) {
+            throw new IllegalArgumentException("Event has " + values.length + " values, window has "
+                                               + rowSchema.size() + " fields " + rowSchema.names());
+        }
+        ArrayList<Object> data = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            data.add(toEspValue(values[i], i));
+        }
+        return new dfESPevent(schema, data, opcode, EventFlags.ef_NORMAL);
+    }
+
+    /**
+     * @return opcode of event according to mode
+     */
+    private EventOpcodes opcode(final EventOpcodes given) {
+        switch (mode) {
+            case upsert:
+                return EventOpcodes.eo_UPSERT;
+            case delete:
+                return EventOpcodes.eo_DELETE;
+            case dynamic:
+                if (given == null) {
+                    throw new IllegalArgumentException("Mode dynamic requires header " + DfESPConstants.OPCODE
+                                                       + " for records without opcode.");
+                }
+                return given;
+            default:
+                return EventOpcodes.eo_INSERT;
+        }
+    }
+
+    private String nextId() {
+        StringBuilder id = new StringBuilder(36);
+        idGenerator.append(id);
+        return id.toString();
+    }
+
+    /**
+     * Converts a value into the java type esp uses for the field: Integer,
+     * Long, Double, BigDecimal (money), Date or String. Numbers for dates and
+     * timestamps are milliseconds since epoch, strings are parsed like csv
+     * values.
+     *
+     * @param value
+     *            value of record, may be null
+     * @param index
+     *            field index
+     * @return value for esp
+     */
+    private Object toEspValue(final Object value, final int index) {
+        FieldTypes type = rowSchema.type(index);
+        Object typed = value;
+        try {
+            if (typed instanceof String && type != FieldTypes.UTF8STR) {
+                typed = EspDataItem.parse((String) typed, type);
+            }
+            if (typed == null) {
+                return null;
+            }
+            switch (type) {
+                case INT32:
+                    return ((Number) typed).intValue();
+                case INT64:
+                    return ((Number) typed).longValue();
+                case DOUBLE:
+                    return ((Number) typed).doubleValue();
+                case MONEY:
+                    return typed instanceof BigDecimal ? typed : new BigDecimal(typed.toString());
+                case DATE:
+                case TIMESTAMP:
+                    return typed instanceof Date ? typed : new Date(((Number) typed).longValue());
+                default:
+                    return typed.toString();
+            }
+        } catch (ClassCastException | NumberFormatException e) {
+            throw new IllegalArgumentException("Can't convert " + value + " (" + value.getClass().getName()
+                                               + ") to " + type + " for field " + rowSchema.name(index), e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testFailureHalvesLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(16, 1000);
+        limiter.acquire();
+        assertThat(limiter.getInFlight(), is(1));
+        limiter.release(0, false);
+        assertThat(limiter.getLimit(), is(8));
+        assertThat(limiter.getInFlight(), is(0));
+        // second decrease within target latency is ignored
+        limiter.acquire();
+        limiter.release(0, false);
+        assertThat(limiter.getLimit(), is(8));
+    }
+
+    @Test
+    public void testSuccessRaisesLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1000);
+        limiter.acquire();
+        limiter.release(0, false);
+        assertThat(limiter.getLimit(), is(2));
+        // about one per round trip of limit blocks
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+            limiter.release(0, true);
+        }
+        assertThat(limiter.getLimit(), is(3));
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(0, true);
+        }
+        assertThat(limiter.getLimit(), is(4));
+    }
+
+    @Test
+    public void testCancelKeepsLimit() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1000);
+        limiter.acquire();
+        limiter.cancel();
+        assertThat(limiter.getLimit(), is(4));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+}
@@ -0,0 +1,79 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class ConsumerCheckpointTest {
+
+    @Test
+    public void testHandledAfterRestart() throws Exception {
+        File file = new File(Files.createTempDirectory("checkpoint").toFile(), "p.cq.w.checkpoint");
+        ConsumerCheckpoint checkpoint = new ConsumerCheckpoint(file, "TS");
+        checkpoint.load();
+        checkpoint.resume();
+        checkpoint.completed(checkpoint.delivered(20L, "2"), true);
+        checkpoint.completed(checkpoint.delivered(30L, "3"), true);
+        // rows of this run don't count as handled
+        assertThat(checkpoint.isHandled(10L, "1"), is(false));
+        checkpoint.save();
+
+        ConsumerCheckpoint restarted = new ConsumerCheckpoint(file, "TS");
+        restarted.load();
+        restarted.resume();
+        assertThat(restarted.getValue(), is("30"));
+        assertThat(restarted.isHandled(20L, "2"), is(true));
+        assertThat(restarted.isHandled(30L, "3"), is(true));
+        // same value, other key - delivered again
+        assertThat(restarted.isHandled(30L, "4"), is(false));
+        assertThat(restarted.isHandled(40L, "5"), is(false));
+        assertThat(restarted.isHandled(null, "6"), is(false));
+    }
+
+    @Test
+    public void testCheckpointOfOtherFieldIgnored() throws Exception {
+        File file = new File(Files.createTempDirectory("checkpoint").toFile(), "p.cq.w.checkpoint");
+        ConsumerCheckpoint checkpoint = new ConsumerCheckpoint(file, "TS");
+        checkpoint.completed(checkpoint.delivered(1.5d, "1"), true);
+        checkpoint.save();
+
+        ConsumerCheckpoint other = new ConsumerCheckpoint(file, "ID");
+        other.load();
+        other.resume();
+        assertThat(other.getValue() == null, is(true));
+        assertThat(other.isHandled(1.0d, "1"), is(false));
+    }
+
+    @Test
+    public void testProgressWaitsForRowsDeliveredBefore() {
+        ConsumerCheckpoint checkpoint = new ConsumerCheckpoint(new File("unused"), "TS");
+        long first = checkpoint.delivered(10L, "1");
+        long second = checkpoint.delivered(20L, "2");
+        long third = checkpoint.delivered(30L, "3");
+        checkpoint.completed(third, true);
+        checkpoint.completed(second, true);
+        // first row still queued
+        assertThat(checkpoint.getValue() == null, is(true));
+        checkpoint.completed(first, true);
+        assertThat(checkpoint.getValue(), is("30"));
+        assertThat(checkpoint.getKey(), is("3"));
+    }
+
+    @Test
+    public void testProgressStaysBeforeFailedRow() {
+        ConsumerCheckpoint checkpoint = new ConsumerCheckpoint(new File("unused"), "TS");
+        long first = checkpoint.delivered(10L, "1");
+        long second = checkpoint.delivered(20L, "2");
+        long third = checkpoint.delivered(30L, "3");
+        checkpoint.completed(third, true);
+        checkpoint.completed(second, false);
+        checkpoint.completed(first, true);
+        checkpoint.completed(checkpoint.delivered(40L, "4"), true);
+        assertThat(checkpoint.getValue(), is("10"));
+        assertThat(checkpoint.getKey(), is("1"));
+    }
+}
@@ -0,0 +1,206 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConsumerDispatcherTest {
+
+    /**
+     * Row of test - key and sequence number within key.
+     */
+    static final class Row {
+        private final int key;
+        private final int sequence;
+
+        Row(final int key, final int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Waits on a latch in the first row, so the queue fills up.
+     */
+    static final class BlockingProcessor implements ConsumerDispatcher.RowProcessor<Row> {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Row> processed = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void process(final Row row) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            processed.add(row);
+        }
+    }
+
+    @Test
+    public void testRowsOfSameKeyKeepOrder() throws Exception {
+        final Map<Integer, List<Integer>> sequences = new ConcurrentHashMap<>();
+        final Map<Integer, Set<Thread>> threads = new ConcurrentHashMap<>();
+        for (int key = 0; key < 10; key++) {
+            sequences.put(key, new CopyOnWriteArrayList<Integer>());
+            threads.put(key, Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>()));
+        }
+        ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(new ConsumerDispatcher.RowProcessor<Row>() {
+            @Override
+            public void process(final Row row) {
+                sequences.get(row.key).add(row.sequence);
+                threads.get(row.key).add(Thread.currentThread());
+            }
+        }, 4, 16, ConsumerOrdering.key, OverflowPolicy.block);
+        ExecutorService executor = Executors.newFixedThreadPool(dispatcher.getWorkers());
+        dispatcher.start(executor);
+        for (int sequence = 0; sequence < 200; sequence++) {
+            for (int key = 0; key < 10; key++) {
+                dispatcher.dispatch(new Row(key, sequence), key);
+            }
+        }
+        dispatcher.stop();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        for (int key = 0; key < 10; key++) {
+            List<Integer> received = sequences.get(key);
+            assertThat(received.size(), is(200));
+            for (int sequence = 0; sequence < 200; sequence++) {
+                assertThat(received.get(sequence), is(sequence));
+            }
+            assertThat(threads.get(key).size(), is(1));
+        }
+    }
+
+    @Test
+    public void testGlobalOrderingUsesOneWorker() {
+        ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(new BlockingProcessor(), 4, 16,
+                                                                      ConsumerOrdering.global, OverflowPolicy.block);
+        assertThat(dispatcher.getWorkers(), is(1));
+    }
+
+    @Test
+    public void testDropWhenQueueIsFull() throws Exception {
+        BlockingProcessor processor = new BlockingProcessor();
+        ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(processor, 1, 2, ConsumerOrdering.none,
+                                                                      OverflowPolicy.drop);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            dispatcher.start(executor);
+            fillQueue(dispatcher, processor);
+            assertThat(dispatcher.dispatch(new Row(0, 3), null), is(false));
+            processor.release.countDown();
+            dispatcher.stop();
+            executor.shutdown();
+            assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+            assertThat(processor.processed.size(), is(3));
+        } finally {
+            processor.release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailWhenQueueIsFull() throws Exception {
+        BlockingProcessor processor = new BlockingProcessor();
+        ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(processor, 1, 2, ConsumerOrdering.none,
+                                                                      OverflowPolicy.fail);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            dispatcher.start(executor);
+            fillQueue(dispatcher, processor);
+            try {
+                dispatcher.dispatch(new Row(0, 3), null);
+                fail("Expected IllegalStateException on full queue");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            processor.release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBlockWaitsForSpace() throws Exception {
+        final BlockingProcessor processor = new BlockingProcessor();
+        final ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(processor, 1, 2, ConsumerOrdering.none,
+                                                                            OverflowPolicy.block);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            dispatcher.start(executor);
+            fillQueue(dispatcher, processor);
+            Future<Boolean> blocked = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return dispatcher.dispatch(new Row(0, 3), null);
+                }
+            });
+            Thread.sleep(50);
+            assertThat(blocked.isDone(), is(false));
+            processor.release.countDown();
+            assertThat(blocked.get(5, TimeUnit.SECONDS), is(true));
+        } finally {
+            processor.release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStopDrainsQueuedRows() throws Exception {
+        final List<Row> processed = new CopyOnWriteArrayList<>();
+        ConsumerDispatcher<Row> dispatcher = new ConsumerDispatcher<>(new ConsumerDispatcher.RowProcessor<Row>() {
+            @Override
+            public void process(final Row row) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.add(row);
+            }
+        }, 2, 100, ConsumerOrdering.none, OverflowPolicy.block);
+        ExecutorService executor = Executors.newFixedThreadPool(dispatcher.getWorkers());
+        dispatcher.start(executor);
+        List<Row> rows = new ArrayList<>();
+        for (int sequence = 0; sequence < 50; sequence++) {
+            Row row = new Row(0, sequence);
+            rows.add(row);
+            dispatcher.dispatch(row, null);
+        }
+        dispatcher.stop();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(processed.size(), is(50));
+        assertThat(processed.containsAll(rows), is(true));
+    }
+
+    /**
+     * Hands one row to the (waiting) worker and fills its queue of capacity 2.
+     */
+    private static void fillQueue(final ConsumerDispatcher<Row> dispatcher, final BlockingProcessor processor)
+        throws InterruptedException {
+        assertThat(dispatcher.dispatch(new Row(0, 0), null), is(true));
+        assertThat(processor.started.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(dispatcher.dispatch(new Row(0, 1), null), is(true));
+        assertThat(dispatcher.dispatch(new Row(0, 2), null), is(true));
+    }
+}
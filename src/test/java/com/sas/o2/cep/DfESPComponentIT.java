@@ -37,8 +37,8 @@ public class DfESPComponentIT extends CamelTestSupport {
         return new RouteBuilder() {
             @Override
             public void configure() {
-                from(PCRF_TEST_FILES + "?noop=true").unmarshal().gzip()
-                  .to("dfESP://192.168.190.128:55555/TEST/TEST/PCRF_DATA_USAGE_STREAM?mode=insertAddId")
+                from(PCRF_TEST_FILES + "?noop=true")
+                  .to("dfESP://192.168.190.128:55555/TEST/TEST/PCRF_DATA_USAGE_STREAM?mode=insertAddId&compression=gzip")
                   .to(MOCK_IN);
                 from("dfESP://192.168.190.128:55555/TEST/TEST/PCRF_DATA_USAGE_STREAM")
                     .to(MOCK_OUT);
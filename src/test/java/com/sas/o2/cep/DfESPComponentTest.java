@@ -0,0 +1,135 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.Test;
+
+import com.sas.esp.api.pubsub.clientCallbacks;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPeventblock;
+
+public class DfESPComponentTest {
+
+    private static final String WINDOW = "P/Q/W";
+
+    /**
+     * Counts blocks injected by each publisher client of a loopback.
+     */
+    static final class CountingClientHandler implements EspClientHandler {
+        private final LoopbackClientHandler loopback;
+        private final List<AtomicInteger> publisherBlocks = new CopyOnWriteArrayList<>();
+
+        CountingClientHandler(final LoopbackClientHandler loopback) {
+            this.loopback = loopback;
+        }
+
+        @Override
+        public String querySchema(final String windowUri) throws IOException {
+            return loopback.querySchema(windowUri);
+        }
+
+        @Override
+        public EspClient publisherStart(final String windowUri, final clientCallbacks callbacks,
+                                        final String gdConfig) {
+            final EspClient client = loopback.publisherStart(windowUri, callbacks, gdConfig);
+            final AtomicInteger blocks = new AtomicInteger();
+            publisherBlocks.add(blocks);
+            return new EspClient() {
+                @Override
+                public boolean inject(final dfESPeventblock block) {
+                    blocks.incrementAndGet();
+                    return client.inject(block);
+                }
+
+                @Override
+                public void quiesceProject(final String projectName) throws IOException {
+                    client.quiesceProject(projectName);
+                }
+
+                @Override
+                public void disconnect() {
+                    client.disconnect();
+                }
+            };
+        }
+
+        @Override
+        public EspClient subscriberStart(final String windowUri, final boolean snapshot, final int maxQueueSize,
+                                         final clientCallbacks callbacks) {
+            return loopback.subscriberStart(windowUri, snapshot, maxQueueSize, callbacks);
+        }
+    }
+
+    @Test
+    public void testEndpointsOfOneServerShareClientHandler() {
+        DfESPComponent component = new DfESPComponent();
+        DfESPEndpoint first = new DfESPEndpoint("dfESP://hostA:55555/P/Q/W1", component);
+        DfESPEndpoint second = new DfESPEndpoint("dfESP://hostA:55555/P/Q/W2", component);
+        DfESPEndpoint otherServer = new DfESPEndpoint("dfESP://hostB:55555/P/Q/W1", component);
+        assertThat(first.getClientHandler() == second.getClientHandler(), is(true));
+        assertThat(first.getClientHandler() == otherServer.getClientHandler(), is(false));
+        assertThat(component.getClientHandler("hostB:55555") == otherServer.getClientHandler(), is(true));
+    }
+
+    @Test
+    public void testPublishersSpreadBlocksOverConnections() throws Exception {
+        LoopbackClientHandler loopback = new LoopbackClientHandler();
+        loopback.addWindow(WINDOW, "id*:int64,name:string");
+        CountingClientHandler handler = new CountingClientHandler(loopback);
+        DfESPComponent component = new DfESPComponent();
+        component.setClientHandler(handler);
+        DefaultCamelContext context = new DefaultCamelContext();
+        context.addComponent("dfESP", component);
+        context.addRoutes(new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:in").to("dfESP://localhost:55555/" + WINDOW + "?mode=insert&publishers=3");
+            }
+        });
+        context.start();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final ProducerTemplate template = context.createProducerTemplate();
+            // three sending threads - each one is assigned its own connection
+            final CyclicBarrier started = new CyclicBarrier(3);
+            List<Future<Void>> senders = new CopyOnWriteArrayList<>();
+            for (int thread = 0; thread < 3; thread++) {
+                senders.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        started.await(5, TimeUnit.SECONDS);
+                        for (int i = 0; i < 5; i++) {
+                            template.sendBody("direct:in", "1,a\n");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> sender : senders) {
+                sender.get(5, TimeUnit.SECONDS);
+            }
+            assertThat(handler.publisherBlocks.size(), is(3));
+            for (AtomicInteger blocks : handler.publisherBlocks) {
+                assertThat(blocks.get(), is(5));
+            }
+            assertThat(loopback.getBlocks(WINDOW), is(15L));
+        } finally {
+            executor.shutdownNow();
+            context.stop();
+        }
+    }
+}
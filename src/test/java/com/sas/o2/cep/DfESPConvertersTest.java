@@ -0,0 +1,135 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.TypeConverter;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.junit.Test;
+
+import com.sas.esp.api.server.datavar.FieldTypes;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+public class DfESPConvertersTest {
+
+    /**
+     * 2015-01-01 00:00:00 UTC - whole seconds, as kept by esp dates.
+     */
+    private static final long SEEN_MILLIS = 1420070400000L;
+    private static final long AT_MILLIS = 1420070400123L;
+
+    private final EspRowSchema schema = new EspRowSchema(Arrays.asList("ID", "IMSI", "BYTES_UP", "RATE", "SEEN",
+                                                                       "AT"),
+                                                         Arrays.asList(FieldTypes.INT64, FieldTypes.UTF8STR,
+                                                                       FieldTypes.INT32, FieldTypes.DOUBLE,
+                                                                       FieldTypes.DATE, FieldTypes.TIMESTAMP));
+
+    /**
+     * Pojo target, fields mapped by name.
+     */
+    static class Usage {
+        private long id;
+        private String imsi;
+        private Integer bytesUp;
+        private double rate;
+        private Date seen;
+        private long at;
+    }
+
+    private EspRow row() {
+        EspRow row = new EspRow(schema, EventOpcodes.eo_INSERT);
+        row.setValue(0, 42L);
+        row.setValue(1, "262011234");
+        row.setValue(2, null);
+        row.setValue(3, 1.5d);
+        row.setValue(4, new Date(SEEN_MILLIS));
+        row.setValue(5, new Date(AT_MILLIS));
+        return row;
+    }
+
+    @Test
+    public void testRowToList() {
+        List<EspDataItem> items = DfESPConverters.toDataItemList(row());
+        items.remove(0);
+        assertThat(items.size(), is(5));
+        assertThat(items.get(0).getName(), is("IMSI"));
+    }
+
+    @Test
+    public void testRowToMapAndArray() {
+        Map<String, Object> map = DfESPConverters.toMap(row());
+        assertThat(map.keySet().toString(), is("[ID, IMSI, BYTES_UP, RATE, SEEN, AT]"));
+        assertThat(map.get("ID"), is((Object) 42L));
+        assertThat(map.containsKey("BYTES_UP") && map.get("BYTES_UP") == null, is(true));
+        assertThat(map.get("SEEN"), is((Object) new Date(SEEN_MILLIS)));
+        assertThat(map.get("AT"), is((Object) new Date(AT_MILLIS)));
+
+        Object[] values = DfESPConverters.toArray(row());
+        assertThat(Arrays.asList(values), is(Arrays.<Object>asList(42L, "262011234", null, 1.5d,
+                                                                    new Date(SEEN_MILLIS), new Date(AT_MILLIS))));
+    }
+
+    @Test
+    public void testConvertersAreRegistered() throws Exception {
+        DefaultCamelContext context = new DefaultCamelContext();
+        context.start();
+        try {
+            TypeConverter converter = context.getTypeConverter();
+            assertThat(converter.convertTo(Map.class, row()).get("IMSI"), is((Object) "262011234"));
+            assertThat(converter.convertTo(Object[].class, row()).length, is(6));
+            Usage usage = converter.convertTo(Usage.class, row());
+            assertThat(usage.id, is(42L));
+            assertThat(usage.imsi, is("262011234"));
+            assertThat(usage.bytesUp == null, is(true));
+            assertThat(usage.rate, is(1.5d));
+            assertThat(usage.seen, is(new Date(SEEN_MILLIS)));
+            assertThat(usage.at, is(AT_MILLIS));
+            // fallback converter ignores other values
+            assertThat(DfESPConverters.toPojo(Usage.class, null, "1,a", null) == null, is(true));
+        } finally {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void testTypedAccessorsOfItems() {
+        EspRow row = row();
+        assertThat(row.get(0).getLong(), is(42L));
+        assertThat(row.get(0).getInt(), is(42));
+        assertThat(row.get(3).getDouble(), is(1.5d));
+        assertThat(row.get(2).isNull(), is(true));
+        assertThat(row.get(1).isNull(), is(false));
+        assertThat(row.get(4).getEpochMillis(), is(SEEN_MILLIS));
+        assertThat(row.get(5).getEpochMillis(), is(AT_MILLIS));
+        // rows keep esp units
+        assertThat(row.getLong(4), is(SEEN_MILLIS / 1000));
+        assertThat(row.getLong(5), is(AT_MILLIS * 1000));
+        try {
+            row.get(2).getLong();
+            fail("Expected IllegalStateException for null field");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            row.get(1).getEpochMillis();
+            fail("Expected IllegalStateException for string field");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTypedAccessorsOfParsedItems() {
+        assertThat(new EspDataItem(0, "ID", "42", FieldTypes.INT64).getLong(), is(42L));
+        assertThat(new EspDataItem(0, "RATE", "0.25", FieldTypes.DOUBLE).getDouble(), is(0.25d));
+        assertThat(new EspDataItem(0, "RATE", "", FieldTypes.DOUBLE).isNull(), is(true));
+        EspDataItem seen = new EspDataItem(0, "SEEN", row().get(4).getValue(), FieldTypes.DATE);
+        assertThat(seen.getEpochMillis(), is(SEEN_MILLIS));
+    }
+}
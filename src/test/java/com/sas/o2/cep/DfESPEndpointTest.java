@@ -13,4 +13,22 @@ public class DfESPEndpointTest {
 
         assertThat (myDfESPEndpoint.getProjectName(), is("dfESP://172.16.253.128:55555/IMEI_TRACK_EVENTS"));
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeepingBlocksWhileDownRequiresReconnect() throws Exception {
+        final DfESPEndpoint endpoint = new DfESPEndpoint("dfESP://localhost:55555/P/Q/W", new DfESPComponent());
+        endpoint.setMode(Mode.insert);
+        endpoint.setWhenDown(DownPolicy.buffer);
+        endpoint.setReconnect(false);
+        endpoint.createProducer();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrderingByKeyRequiresEvents() throws Exception {
+        final DfESPEndpoint endpoint = new DfESPEndpoint("dfESP://localhost:55555/P/Q/W", new DfESPComponent());
+        endpoint.setConsumeMode(ConsumeMode.block);
+        endpoint.setConsumerThreads(4);
+        endpoint.setOrdering(ConsumerOrdering.key);
+        endpoint.createConsumer(null);
+    }
 }
@@ -0,0 +1,109 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.Producer;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.apache.camel.util.ServiceHelper;
+import org.junit.Test;
+
+public class DfESPPartitionedProducerTest extends CamelTestSupport {
+
+    private static final String SCHEMA = "ID*:int64,IMSI:string,NAME:string";
+    private static final String WINDOW_A = "P/Q/A";
+    private static final String WINDOW_B = "P/Q/B";
+    private static final String PARTITIONED = "dfESP-partitioned://P/Q/A?keyField=IMSI&mode=insert&reconnectDelayMs=10"
+                                              + "&partitions=localhost:55555/" + WINDOW_A + ",localhost:55555/"
+                                              + WINDOW_B;
+
+    private final LoopbackClientHandler loopback = new LoopbackClientHandler();
+
+    @Override
+    protected CamelContext createCamelContext() throws Exception {
+        CamelContext context = super.createCamelContext();
+        loopback.addWindow(WINDOW_A, SCHEMA);
+        loopback.addWindow(WINDOW_B, SCHEMA);
+        // key is first field here, second in A and B
+        loopback.addWindow("P/Q/C", "IMSI*:string,ID:int64,NAME:string");
+        DfESPComponent component = new DfESPComponent();
+        component.setClientHandler(loopback);
+        context.addComponent("dfESP", component);
+        return context;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:in").to(PARTITIONED);
+            }
+        };
+    }
+
+    private static int hash(final String line, final int column) throws Exception {
+        byte[] bytes = ("xx" + line + "yy").getBytes("UTF-8");
+        return DfESPPartitionedProducer.columnHash(bytes, 2, bytes.length - 4, column);
+    }
+
+    @Test
+    public void testSameKeySameHash() throws Exception {
+        assertThat(hash("1,262011234567890,a", 1), is(hash("2,262011234567890,b", 1)));
+        assertThat(hash("1,262011234567890,a", 1), not(hash("1,262011234567891,a", 1)));
+    }
+
+    @Test
+    public void testFirstAndLastColumn() throws Exception {
+        assertThat(hash("abc,1,2", 0), is(hash("abc", 0)));
+        assertThat(hash("1,2,abc", 2), is(hash("abc", 0)));
+    }
+
+    @Test
+    public void testMissingColumnIsEmpty() throws Exception {
+        assertThat(hash("1,2", 5), is(hash("", 0)));
+    }
+
+    @Test
+    public void testLinesReachPartitionOfTheirKey() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        long[] expected = new long[2];
+        for (int i = 0; i < 100; i++) {
+            String imsi = "26201" + (1234567890L + i * 7919L);
+            csv.append(i).append(',').append(imsi).append(",n").append(i).append('\n');
+            expected[(hash(imsi, 0) & Integer.MAX_VALUE) % 2]++;
+        }
+        template.sendBody("direct:in", csv.toString());
+        assertEquals(expected[0], loopback.getEvents(WINDOW_A));
+        assertEquals(expected[1], loopback.getEvents(WINDOW_B));
+        assertTrue(expected[0] > 0 && expected[1] > 0);
+    }
+
+    @Test
+    public void testExchangeFailsIfAPartitionFails() throws Exception {
+        loopback.setDown(true);
+        Exchange exchange = template.request("direct:in", new Processor() {
+            @Override
+            public void process(final Exchange exchange) {
+                exchange.getIn().setBody("1,262011234567890,a\n2,262011234567891,b\n");
+            }
+        });
+        assertIsInstanceOf(EspConnectionLostException.class, exchange.getException());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyAtDifferentPositionIsRejected() throws Exception {
+        Producer producer = context.getEndpoint("dfESP-partitioned://P/Q/A?keyField=IMSI&mode=insert"
+                                                + "&partitions=localhost:55555/P/Q/A,localhost:55555/P/Q/C")
+            .createProducer();
+        try {
+            ServiceHelper.startService(producer);
+        } finally {
+            ServiceHelper.stopService(producer);
+        }
+    }
+}
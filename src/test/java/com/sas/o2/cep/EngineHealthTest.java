@@ -0,0 +1,45 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class EngineHealthTest {
+
+    private static final String WINDOW = "dfESP://localhost:55555/p/cq/w";
+    private static final String OTHER_WINDOW = "dfESP://localhost:55555/p/cq/other";
+
+    @Test
+    public void testWindowIsUpAfterServerWasMarkedDownToo() {
+        EngineHealth health = new EngineHealth("localhost:55555");
+        final AtomicInteger ups = new AtomicInteger();
+        health.addUpListener(new Runnable() {
+            @Override
+            public void run() {
+                ups.incrementAndGet();
+            }
+        });
+        // failed inject of a producer, then read failure of a consumer
+        health.markDown(WINDOW, false);
+        health.markDown(OTHER_WINDOW, true);
+        assertThat(health.isDown(WINDOW), is(true));
+        health.markUp(WINDOW);
+        assertThat(health.isServerDown(), is(false));
+        assertThat(health.isDown(WINDOW), is(false));
+        assertThat(ups.get(), is(1));
+    }
+
+    @Test
+    public void testWindowFailureDoesNotAffectOtherWindows() {
+        EngineHealth health = new EngineHealth("localhost:55555");
+        health.markDown(WINDOW, false);
+        assertThat(health.isDown(OTHER_WINDOW), is(false));
+        health.markUp(OTHER_WINDOW);
+        assertThat(health.isDown(WINDOW), is(true));
+        health.markUp(WINDOW);
+        assertThat(health.isDown(WINDOW), is(false));
+    }
+}
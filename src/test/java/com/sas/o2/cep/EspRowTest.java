@@ -0,0 +1,65 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.sas.esp.api.server.datavar.FieldTypes;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+public class EspRowTest {
+
+    private final EspRowSchema schema = new EspRowSchema(Arrays.asList("ID", "IMSI", "BYTES_UP", "RATE"),
+                                                         Arrays.asList(FieldTypes.INT64, FieldTypes.UTF8STR,
+                                                                       FieldTypes.INT32, FieldTypes.DOUBLE));
+
+    @Test
+    public void testValuesAndItems() {
+        EspRow row = new EspRow(schema, EventOpcodes.eo_INSERT);
+        row.setValue(0, 42L);
+        row.setValue(1, "2620,3");
+        row.setValue(2, null);
+        row.setValue(3, 1.5d);
+
+        assertThat(row.size(), is(4));
+        assertThat(row.getObject(0), is((Object) 42L));
+        assertThat(row.isNull(2), is(true));
+        assertThat(row.get(1).getValue(), is("2620,3"));
+        assertThat(row.get(2).getValue(), is(""));
+        assertThat(row.get(3).getName(), is("RATE"));
+        // items are created once
+        assertThat(row.get(1) == row.get(1), is(true));
+    }
+
+    @Test
+    public void testDoublesAreFormattedWithoutExponent() {
+        EspRow row = new EspRow(schema, EventOpcodes.eo_INSERT);
+        double[] values = {1.5d, 1.0d, 1.0E7d, 1.0E-4d, -2.5E10d, 123456.789d };
+        String[] strings = {"1.5", "1.0", "10000000.0", "0.0001", "-25000000000.0", "123456.789" };
+        for (int i = 0; i < values.length; i++) {
+            row.setValue(3, values[i]);
+            assertThat(row.getString(3), is(strings[i]));
+            assertThat(Double.valueOf(row.getString(3)), is(values[i]));
+        }
+        assertThat(EspRow.format(Double.NaN), is("NaN"));
+    }
+
+    @Test
+    public void testIndexOf() {
+        assertThat(schema.indexOf("BYTES_UP"), is(2));
+        assertThat(schema.indexOf("UNKNOWN"), is(-1));
+    }
+
+    @Test
+    public void testKeyIndicesAndSelect() {
+        int[] keys = EspRowSchema.keyIndices("ID*:int64,IMSI*:string,BYTES_UP:int32,RATE:double");
+        assertThat(keys.length, is(2));
+        assertThat(keys[1], is(1));
+        EspRowSchema selected = schema.select(new int[] {3, 0 });
+        assertThat(selected.names(), is(Arrays.asList("RATE", "ID")));
+        assertThat(selected.type(1), is(FieldTypes.INT64));
+    }
+}
@@ -0,0 +1,239 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.junit.Test;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+public class EventBatcherTest {
+
+    private static final long LONG_LINGER_MS = 60000;
+
+    private final DefaultCamelContext context = new DefaultCamelContext();
+    private final dfESPschema schema;
+
+    public EventBatcherTest() throws Exception {
+        schema = new dfESPschema("ID*:int64,NAME:string");
+    }
+
+    /**
+     * A block handed to the publisher.
+     */
+    static final class Published {
+        private final ArrayList<dfESPevent> events;
+        private final boolean quiesce;
+        private final List<PendingExchange> owners;
+
+        Published(final ArrayList<dfESPevent> events, final boolean quiesce, final List<PendingExchange> owners) {
+            this.events = events;
+            this.quiesce = quiesce;
+            this.owners = owners;
+        }
+    }
+
+    /**
+     * Records blocks and completes their owners.
+     */
+    static final class RecordingPublisher implements EventBatcher.Publisher {
+        private final BlockingQueue<Published> blocks = new LinkedBlockingQueue<>();
+        private volatile Exception failure;
+
+        @Override
+        public void publish(final ArrayList<dfESPevent> events, final boolean quiesce,
+                            final List<PendingExchange> owners) throws Exception {
+            blocks.add(new Published(events, quiesce, owners));
+            if (failure != null) {
+                throw failure;
+            }
+            for (PendingExchange owner : owners) {
+                owner.blockDone(null);
+            }
+        }
+
+        Published next() throws InterruptedException {
+            Published block = blocks.poll(5, TimeUnit.SECONDS);
+            if (block == null) {
+                throw new AssertionError("No block published within 5 seconds");
+            }
+            return block;
+        }
+    }
+
+    /**
+     * Counts down when its exchange is completed.
+     */
+    static final class Done implements AsyncCallback {
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        public void done(final boolean doneSync) {
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testBlockIsPublishedWhenBatchSizeIsReached() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventBatcher batcher = start(publisher, 3, LONG_LINGER_MS);
+        try {
+            PendingExchange first = pending(new Done());
+            PendingExchange second = pending(new Done());
+            batcher.submit(events(1, 2), false, first);
+            Thread.sleep(50);
+            assertThat(publisher.blocks.isEmpty(), is(true));
+            batcher.submit(events(3), false, second);
+            Published block = publisher.next();
+            assertThat(ids(block), is(Arrays.asList(1L, 2L, 3L)));
+            assertThat(block.owners, is(Arrays.asList(first, second)));
+            assertThat(block.quiesce, is(false));
+        } finally {
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void testBlockIsPublishedAfterLinger() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventBatcher batcher = start(publisher, 1000, 50);
+        try {
+            Done done = new Done();
+            long started = System.nanoTime();
+            batcher.submit(events(1), false, pending(done));
+            Published block = publisher.next();
+            assertTrue("published before linger", System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(45));
+            assertThat(ids(block), is(Arrays.asList(1L)));
+            assertThat(done.await(), is(true));
+        } finally {
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void testQuiesceFlushesBlock() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventBatcher batcher = start(publisher, 1000, LONG_LINGER_MS);
+        try {
+            batcher.submit(events(1), false, pending(new Done()));
+            batcher.submit(events(2), true, pending(new Done()));
+            Published block = publisher.next();
+            assertThat(ids(block), is(Arrays.asList(1L, 2L)));
+            assertThat(block.quiesce, is(true));
+        } finally {
+            batcher.stop();
+        }
+    }
+
+    @Test
+    public void testBlocksKeepOrderOfExchanges() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventBatcher batcher = start(publisher, 4, 5);
+        List<Long> published = new ArrayList<>();
+        try {
+            for (long id = 0; id < 100; id += 2) {
+                batcher.submit(events(id, id + 1), false, pending(new Done()));
+            }
+        } finally {
+            batcher.stop();
+        }
+        while (published.size() < 100) {
+            published.addAll(ids(publisher.next()));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertThat(published.get(i), is((long) i));
+        }
+    }
+
+    @Test
+    public void testStopPublishesRemainingEvents() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        EventBatcher batcher = start(publisher, 1000, LONG_LINGER_MS);
+        Done done = new Done();
+        batcher.submit(events(1), false, pending(done));
+        batcher.stop();
+        assertThat(ids(publisher.next()), is(Arrays.asList(1L)));
+        assertThat(done.await(), is(true));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSubmitAfterStopFails() throws Exception {
+        EventBatcher batcher = start(new RecordingPublisher(), 1000, LONG_LINGER_MS);
+        batcher.stop();
+        batcher.submit(events(1), false, pending(new Done()));
+    }
+
+    @Test
+    public void testPublisherFailureFailsOwners() throws Exception {
+        RecordingPublisher publisher = new RecordingPublisher();
+        publisher.failure = new EspConnectionLostException("down");
+        EventBatcher batcher = start(publisher, 1, LONG_LINGER_MS);
+        try {
+            Done done = new Done();
+            PendingExchange owner = pending(done);
+            batcher.submit(events(1), false, owner);
+            assertThat(done.await(), is(true));
+            assertThat(owner.getExchange().getException() == publisher.failure, is(true));
+        } finally {
+            batcher.stop();
+        }
+    }
+
+    /**
+     * Starts batcher with its flusher on a daemon thread.
+     */
+    private static EventBatcher start(final EventBatcher.Publisher publisher, final int batchSize,
+                                      final long lingerMs) {
+        EventBatcher batcher = new EventBatcher(publisher, batchSize, lingerMs);
+        Thread flusher = new Thread(batcher, "flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        return batcher;
+    }
+
+    /**
+     * @return exchange as registered by the producer before handing over one
+     *         part
+     */
+    private PendingExchange pending(final AsyncCallback callback) {
+        Exchange exchange = new DefaultExchange(context);
+        PendingExchange pending = new PendingExchange(exchange, callback);
+        pending.blockSent();
+        pending.submitted();
+        return pending;
+    }
+
+    private List<dfESPevent> events(final long... ids) throws Exception {
+        List<dfESPevent> events = new ArrayList<>();
+        for (long id : ids) {
+            events.add(new dfESPevent(schema, "i,n," + id + ",name" + id, ','));
+        }
+        return events;
+    }
+
+    private List<Long> ids(final Published block) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (dfESPevent event : block.events) {
+            ids.add((Long) event.copyByIntID(schema, 0));
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,53 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+public class EventBlockCodecTest {
+
+    private static final String SCHEMA = "ID*:int64,IMSI:string,BYTES_UP:int32,RATE:double";
+
+    @Test
+    public void testRoundTripKeepsValuesAndOpcodes() throws Exception {
+        dfESPschema schema = new dfESPschema(SCHEMA);
+        StructuredEventBuilder builder = new StructuredEventBuilder(schema, Mode.dynamic, IdGenerator.sequence);
+        List<dfESPevent> events = new ArrayList<>();
+        events.add(builder.build(new Object[] {1L, "262,\"01\"\n2", 7, 0.5 }, EventOpcodes.eo_UPSERT));
+        events.add(builder.build(new Object[] {2L, null, null, null }, EventOpcodes.eo_DELETE));
+        List<dfESPevent> restored = EventBlockCodec.decode(EventBlockCodec.encode(events, schema), builder);
+        assertThat(restored.size(), is(2));
+        assertThat(restored.get(0).getOpcode(), is(EventOpcodes.eo_UPSERT));
+        assertThat(values(restored.get(0), schema), is(Arrays.<Object>asList(1L, "262,\"01\"\n2", 7, 0.5)));
+        assertThat(restored.get(1).getOpcode(), is(EventOpcodes.eo_DELETE));
+        assertThat(values(restored.get(1), schema), is(Arrays.<Object>asList(2L, null, null, null)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testChangedSchemaIsRejected() throws Exception {
+        dfESPschema schema = new dfESPschema(SCHEMA);
+        StructuredEventBuilder builder = new StructuredEventBuilder(schema, Mode.insert, IdGenerator.sequence);
+        List<dfESPevent> events = new ArrayList<>();
+        events.add(builder.build(new Object[] {1L, "a", 7, 0.5 }, null));
+        byte[] data = EventBlockCodec.encode(events, schema);
+        dfESPschema changed = new dfESPschema("ID*:int64,IMSI:string");
+        EventBlockCodec.decode(data, new StructuredEventBuilder(changed, Mode.insert, IdGenerator.sequence));
+    }
+
+    private static List<Object> values(final dfESPevent event, final dfESPschema schema) throws Exception {
+        List<Object> values = new ArrayList<>();
+        for (int i = 0; i < schema.getNames().size(); i++) {
+            values.add(event.copyByIntID(schema, i));
+        }
+        return values;
+    }
+}
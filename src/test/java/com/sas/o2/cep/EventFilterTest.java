@@ -0,0 +1,53 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+
+public class EventFilterTest {
+
+    private static final String SCHEMA = "ID*:int64,IMSI:string,BYTES_UP:int32,RATE:double";
+
+    private static boolean matches(final String filter, final String event) throws Exception {
+        dfESPschema schema = new dfESPschema(SCHEMA);
+        EspRowSchema rowSchema = new EspRowSchema(schema.getNames(), schema.getTypes());
+        return EventFilter.compile(filter, rowSchema).matches(new dfESPevent(schema, event, ','), schema);
+    }
+
+    @Test
+    public void testComparisons() throws Exception {
+        assertThat(matches("BYTES_UP > 100", "I,N,1,a,200,1.0"), is(true));
+        assertThat(matches("BYTES_UP <= 100", "I,N,1,a,200,1.0"), is(false));
+        assertThat(matches("RATE >= 0.5 and IMSI = 'a'", "I,N,1,a,200,1.0"), is(true));
+        assertThat(matches("IMSI != 'it''s'", "I,N,1,it's,200,1.0"), is(false));
+        assertThat(matches("not (ID = 1 or ID = 2)", "I,N,3,a,200,1.0"), is(true));
+    }
+
+    @Test
+    public void testOpcodeAndNull() throws Exception {
+        assertThat(matches("opcode = delete", "D,N,1,a,200,1.0"), is(true));
+        assertThat(matches("opcode != delete", "D,N,1,a,200,1.0"), is(false));
+        assertThat(matches("RATE = null", "I,N,1,a,200,"), is(true));
+        // null fields match no comparison
+        assertThat(matches("RATE < 1", "I,N,1,a,200,"), is(false));
+    }
+
+    @Test
+    public void testInvalidFilters() throws Exception {
+        String[] invalid = {"UNKNOWN = 1", "BYTES_UP >", "(ID = 1", "opcode < insert", "ID = 'a'", "ID = 1 ID",
+            "IMSI = 262011234" };
+        for (String filter : invalid) {
+            try {
+                matches(filter, "I,N,1,a,200,1.0");
+                fail("Expected invalid filter: " + filter);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage().endsWith("in filter: " + filter), is(true));
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+public class IdGeneratorTest {
+
+    private static String next(final IdGenerator generator) {
+        StringBuilder line = new StringBuilder("i,n,");
+        generator.append(line);
+        return line.substring(4);
+    }
+
+    @Test
+    public void testFastUuidFormat() {
+        String id = next(IdGenerator.fastUuid);
+        UUID parsed = UUID.fromString(id);
+        assertThat(parsed.toString(), is(id));
+        assertThat(parsed.version(), is(4));
+        assertThat(parsed.variant(), is(2));
+    }
+
+    @Test
+    public void testSequenceIncreases() {
+        long first = Long.parseLong(next(IdGenerator.sequence));
+        assertThat(Long.parseLong(next(IdGenerator.sequence)), is(first + 1));
+    }
+
+    @Test
+    public void testSnowflakeUniqueAndOrdered() {
+        Set<String> ids = new HashSet<>();
+        long last = 0;
+        // more than fit into one millisecond
+        for (int i = 0; i < 20000; i++) {
+            String id = next(IdGenerator.snowflake);
+            long value = Long.parseLong(id);
+            assertTrue(value > last);
+            last = value;
+            ids.add(id);
+        }
+        assertThat(ids.size(), is(20000));
+    }
+
+    @Test
+    public void testSnowflakeUniqueAcrossManyThreads() throws Exception {
+        // more threads than fit into 10 bits, like re-created pool workers
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        for (int i = 0; i < 2000; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10; j++) {
+                        ids.add(next(IdGenerator.snowflake));
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertThat(ids.size(), is(20000));
+    }
+}
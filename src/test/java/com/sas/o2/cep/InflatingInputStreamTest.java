@@ -0,0 +1,76 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class InflatingInputStreamTest {
+
+    private static String read(final byte[] data, final Compression compression) throws IOException {
+        InputStream in = InflatingInputStream.open(new ByteArrayInputStream(data), compression);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[7];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    private static byte[] gzip(final String... members) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String member : members) {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(member.getBytes("UTF-8"));
+            gzip.finish();
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testGzipMembers() throws Exception {
+        assertThat(read(gzip("a,1\nb,2\n", "c,3\n"), Compression.gzip), is("a,1\nb,2\nc,3\n"));
+    }
+
+    @Test
+    public void testZipEntries() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.putNextEntry(new ZipEntry("dir/"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("first.csv"));
+        zip.write("a,1\nb,2".getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.putNextEntry(new ZipEntry("second.csv"));
+        zip.write("c,3\n".getBytes("UTF-8"));
+        zip.closeEntry();
+        zip.close();
+        // line break added between entries
+        assertThat(read(out.toByteArray(), Compression.zip), is("a,1\nb,2\nc,3\n"));
+    }
+
+    @Test
+    public void testAutoDetection() throws Exception {
+        assertThat(read(gzip("a,1\n"), Compression.auto), is("a,1\n"));
+        assertThat(read("a,1\n".getBytes("UTF-8"), Compression.auto), is("a,1\n"));
+    }
+
+    @Test(expected = ZipException.class)
+    public void testCorruptData() throws Exception {
+        byte[] data = gzip("a,1\nb,2\n");
+        // crc of trailer
+        data[data.length - 8] ^= 1;
+        read(data, Compression.gzip);
+    }
+}
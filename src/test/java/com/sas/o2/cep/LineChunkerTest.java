@@ -0,0 +1,40 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineChunkerTest {
+
+    private static List<String> chunk(final String text, final int chunkSize) throws Exception {
+        LineChunker chunker = new LineChunker(new ByteArrayInputStream(text.getBytes("UTF-8")), chunkSize);
+        List<String> result = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = chunker.nextChunk()) != null) {
+            result.add(new String(chunk, "UTF-8"));
+        }
+        chunker.close();
+        return result;
+    }
+
+    @Test
+    public void testChunksEndAtLineBoundary() throws Exception {
+        assertThat(chunk("a,1\nb,2\nc,3\nd,4", 9), is(Arrays.asList("a,1\nb,2\n", "c,3\nd,4")));
+    }
+
+    @Test
+    public void testLineLargerThanChunk() throws Exception {
+        assertThat(chunk("abcdefgh\nij\nk", 3), is(Arrays.asList("abcdefgh\nij\n", "k")));
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        assertThat(chunk("", 8).isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,43 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineSplitterTest {
+
+    private static List<String> split(final String text, final int bufferSize) throws Exception {
+        LineSplitter splitter = new LineSplitter(new ByteArrayInputStream(text.getBytes("UTF-8")), bufferSize);
+        List<String> result = new ArrayList<>();
+        while (splitter.nextLine()) {
+            result.add(new String(splitter.buffer(), splitter.lineOffset(), splitter.lineLength(), "UTF-8"));
+        }
+        splitter.close();
+        return result;
+    }
+
+    @Test
+    public void testLineTerminators() throws Exception {
+        assertThat(split("a,1\r\nb,2\nc,3\rd,4", 64).toString(), is("[a,1, b,2, c,3, d,4]"));
+    }
+
+    @Test
+    public void testLinesLargerThanBuffer() throws Exception {
+        assertThat(split("abcdefgh\r\nij\n\nklmnopqrstu\n", 3).toString(), is("[abcdefgh, ij, , klmnopqrstu]"));
+    }
+
+    @Test
+    public void testBlankLine() throws Exception {
+        LineSplitter splitter = new LineSplitter(new ByteArrayInputStream(" \t\nx".getBytes("UTF-8")));
+        splitter.nextLine();
+        assertThat(splitter.isBlankLine(), is(true));
+        splitter.nextLine();
+        assertThat(splitter.isBlankLine(), is(false));
+        splitter.close();
+    }
+}
@@ -0,0 +1,221 @@
+package com.sas.o2.cep;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class LoopbackClientHandlerTest extends CamelTestSupport {
+
+    private static final String WINDOW = "TEST/TEST/STREAM";
+    private static final String ESP = "dfESP://localhost:55555/" + WINDOW;
+    private static final String CHECKPOINT_WINDOW = "TEST/TEST/CHECKPOINT";
+    private static final String CHECKPOINT_ESP = "dfESP://localhost:55555/" + CHECKPOINT_WINDOW;
+    private static final String MOCK_OUT = "mock:out";
+    private static final String MOCK_CHECKPOINT = "mock:checkpoint";
+
+    private final LoopbackClientHandler loopback = new LoopbackClientHandler();
+    private String checkpointConsumer;
+
+    @Override
+    protected CamelContext createCamelContext() throws Exception {
+        CamelContext context = super.createCamelContext();
+        loopback.addWindow(WINDOW, "id*:int64,name:string");
+        loopback.addWindow(CHECKPOINT_WINDOW, "id*:int64,name:string");
+        DfESPComponent component = new DfESPComponent();
+        component.setClientHandler(loopback);
+        context.addComponent("dfESP", component);
+        return context;
+    }
+
+    @Test
+    public void testPublishedEventsAreDelivered() throws Exception {
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(3);
+        template.sendBody("direct:in", "1,a\n2,b\n3,c\n");
+        assertMockEndpointsSatisfied();
+        assertEquals(3, loopback.getEvents(WINDOW));
+    }
+
+    @Test
+    public void testExchangeIsSplitIntoBlocksOfBlockSize() throws Exception {
+        assertSplitInOrder("direct:blockSize", 4);
+    }
+
+    @Test
+    public void testExchangeIsSplitIntoBlocksOfBlockBytes() throws Exception {
+        // lines "1,a" to "9,a" have 3 bytes - a block is full after 2 lines
+        assertSplitInOrder("direct:blockBytes", 5);
+    }
+
+    /**
+     * Publishes ids 1 to 10 in one exchange and checks blocks and order of
+     * events received.
+     */
+    private void assertSplitInOrder(final String uri, final int blocks) throws Exception {
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(10);
+        StringBuilder body = new StringBuilder();
+        for (int id = 1; id <= 10; id++) {
+            body.append(id).append(",a\n");
+        }
+        template.sendBody(uri, body.toString());
+        assertMockEndpointsSatisfied();
+        assertEquals(blocks, loopback.getBlocks(WINDOW));
+        for (int id = 1; id <= 10; id++) {
+            assertEquals(id, mockOut.getReceivedExchanges().get(id - 1).getIn().getBody(EspRow.class).getLong("id"));
+        }
+    }
+
+    @Test
+    public void testLiveEventsOfWindowWithoutContentsAreNoSnapshot() throws Exception {
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(2);
+        // first block after subscribing
+        template.sendBody("direct:in", "1,a\n2,b\n");
+        assertMockEndpointsSatisfied();
+        for (Exchange exchange : mockOut.getReceivedExchanges()) {
+            assertNull(exchange.getIn().getHeader(DfESPConstants.SNAPSHOT));
+        }
+    }
+
+    @Test
+    public void testNackFailsExchange() throws Exception {
+        loopback.setNackEvery(1);
+        Exchange exchange = template.request("direct:gd", new Processor() {
+            @Override
+            public void process(final Exchange exchange) {
+                exchange.getIn().setBody("1,a\n");
+            }
+        });
+        assertIsInstanceOf(EspNackException.class, exchange.getException());
+        assertEquals(0, loopback.getEvents(WINDOW));
+    }
+
+    @Test
+    public void testFailedInjectFailsExchange() throws Exception {
+        loopback.setDown(true);
+        Exchange exchange = template.request("direct:in", new Processor() {
+            @Override
+            public void process(final Exchange exchange) {
+                exchange.getIn().setBody("1,a\n");
+            }
+        });
+        assertIsInstanceOf(EspConnectionLostException.class, exchange.getException());
+        assertEquals(0, loopback.getEvents(WINDOW));
+    }
+
+    @Test
+    public void testBufferedBlockIsPublishedWhenEngineIsBack() throws Exception {
+        loopback.setDown(true);
+        Future<Object> reply = template.asyncRequestBody("direct:buffer", "1,a\n");
+        Thread.sleep(100);
+        assertFalse(reply.isDone());
+        loopback.setDown(false);
+        reply.get(5, TimeUnit.SECONDS);
+        assertEquals(1, loopback.getEvents(WINDOW));
+    }
+
+    @Test
+    public void testBufferedBlockIsPublishedAfterServerWasMarkedDown() throws Exception {
+        // as a consumer of the same server does on READFAILED
+        context.getEndpoint(ESP, DfESPEndpoint.class).markEngineDown(true);
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(1);
+        template.sendBody("direct:buffer", "1,a\n");
+        assertMockEndpointsSatisfied();
+    }
+
+    @Test
+    public void testJournaledBlockIsPublishedWhenEngineIsBack() throws Exception {
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(1);
+        loopback.setDown(true);
+        Map<String, Object> record = new HashMap<>();
+        record.put("id", 1L);
+        record.put("name", "a,\"b\"\nc");
+        // completes once journaled
+        template.sendBody("direct:journal", record);
+        assertEquals(0, loopback.getEvents(WINDOW));
+        loopback.setDown(false);
+        assertMockEndpointsSatisfied();
+        EspRow row = mockOut.getReceivedExchanges().get(0).getIn().getBody(EspRow.class);
+        assertEquals(1L, row.getLong("id"));
+        assertEquals("a,\"b\"\nc", row.getString(1));
+    }
+
+    @Test
+    public void testJournaledBlockIsPublishedWithGuaranteedDelivery() throws Exception {
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(2);
+        loopback.setDown(true);
+        template.sendBody("direct:journalGd", "1,a\n2,b\n");
+        loopback.setDown(false);
+        assertMockEndpointsSatisfied();
+    }
+
+    @Test
+    public void testCheckpointIsTakenFromRowsBeforeRoute() throws Exception {
+        MockEndpoint mockCheckpoint = getMockEndpoint(MOCK_CHECKPOINT);
+        mockCheckpoint.expectedMessageCount(2);
+        template.sendBody("direct:checkpoint", "1,a\n2,b\n");
+        assertMockEndpointsSatisfied();
+        // route replaced body, checkpoint is saved after processing
+        File file = context.getEndpoint(checkpointConsumer, DfESPEndpoint.class).getWindowCheckpointFile();
+        ConsumerCheckpoint checkpoint = new ConsumerCheckpoint(file, "id");
+        for (int i = 0; i < 250 && !"2".equals(checkpoint.getValue()); i++) {
+            Thread.sleep(20);
+            checkpoint.load();
+        }
+        assertEquals("2", checkpoint.getValue());
+        assertEquals("2", checkpoint.getKey());
+    }
+
+    @Test
+    public void testReconnectAfterReadFailed() throws Exception {
+        int connected = loopback.getConnectedClients();
+        loopback.failConnections();
+        for (int i = 0; i < 250 && loopback.getConnectedClients() < connected; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(connected, loopback.getConnectedClients());
+        MockEndpoint mockOut = getMockEndpoint(MOCK_OUT);
+        mockOut.expectedMessageCount(1);
+        template.sendBody("direct:in", "1,a\n");
+        assertMockEndpointsSatisfied();
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        final String journalDir = Files.createTempDirectory("journal").toString();
+        checkpointConsumer = CHECKPOINT_ESP + "?reconnectDelayMs=10&checkpointField=id&checkpointIntervalMs=0&checkpointDir="
+                             + Files.createTempDirectory("checkpoint");
+        return new RouteBuilder() {
+            @Override
+            public void configure() {
+                from("direct:in").to(ESP + "?mode=insert&reconnectDelayMs=10");
+                from("direct:blockSize").to(ESP + "?mode=insert&blockSize=3");
+                from("direct:blockBytes").to(ESP + "?mode=insert&blockBytes=6");
+                from("direct:buffer").to(ESP + "?mode=insert&whenDown=buffer&reconnectDelayMs=10");
+                from("direct:journal").to(ESP + "?mode=insert&whenDown=journal&reconnectDelayMs=10&journalDir="
+                                          + journalDir);
+                from("direct:journalGd").to(ESP + "?mode=insert&whenDown=journal&gdConfig=loopback.cfg"
+                                            + "&reconnectDelayMs=10&journalDir=" + journalDir + "/gd");
+                from("direct:gd").to(ESP + "?mode=insert&gdConfig=loopback.cfg&reconnectDelayMs=10");
+                from(ESP + "?reconnectDelayMs=10").to(MOCK_OUT);
+                from("direct:checkpoint").to(CHECKPOINT_ESP + "?mode=insert&reconnectDelayMs=10");
+                from(checkpointConsumer).setBody(constant("processed")).to(MOCK_CHECKPOINT);
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class QuiesceBarrierTest {
+
+    @Test
+    public void testWaitingCallersShareOneQuiesce() throws Exception {
+        final CountDownLatch firstRunning = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final QuiesceBarrier barrier = new QuiesceBarrier(new QuiesceBarrier.Action() {
+            @Override
+            public void quiesce() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    firstRunning.countDown();
+                    releaseFirst.await();
+                }
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            Runnable await = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            Future<?> first = executor.submit(await);
+            firstRunning.await();
+            Future<?>[] waiting = new Future<?>[4];
+            for (int i = 0; i < waiting.length; i++) {
+                waiting[i] = executor.submit(await);
+            }
+            // callers arriving during first quiesce are not covered by it
+            Thread.sleep(100);
+            releaseFirst.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            for (Future<?> future : waiting) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(calls.get(), is(2));
+        assertThat(barrier.getQuiesceCount(), is(2L));
+    }
+
+    @Test
+    public void testFailureIsReported() throws Exception {
+        QuiesceBarrier barrier = new QuiesceBarrier(new QuiesceBarrier.Action() {
+            @Override
+            public void quiesce() throws Exception {
+                throw new IllegalStateException("down");
+            }
+        });
+        try {
+            barrier.await();
+            fail("failure expected");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("down"));
+        }
+        assertThat(barrier.getQuiesceCount(), is(1L));
+    }
+}
@@ -0,0 +1,94 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SchemaCacheTest {
+
+    private static final String WINDOW = "dfESP://localhost:5555/project/query/window";
+
+    /**
+     * Counts queries, fails if told so.
+     */
+    private static class CountingLoader implements SchemaCache.Loader {
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile boolean failing;
+
+        @Override
+        public String load(final String windowUri) throws Exception {
+            loads.incrementAndGet();
+            if (failing) {
+                throw new IllegalStateException("esp down");
+            }
+            return "id*:int64,value:string";
+        }
+    }
+
+    @Test
+    public void testQueriedOnce() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SchemaCache cache = new SchemaCache(loader, null);
+        assertThat(cache.get(WINDOW), is("id*:int64,value:string"));
+        assertThat(cache.get(WINDOW), is("id*:int64,value:string"));
+        assertThat(loader.loads.get(), is(1));
+        cache.invalidate(WINDOW);
+        cache.get(WINDOW);
+        assertThat(loader.loads.get(), is(2));
+    }
+
+    @Test
+    public void testPrefetchNotYetRun() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SchemaCache cache = new SchemaCache(loader, null);
+        // executor that never runs anything - get must not wait for it
+        cache.prefetch(WINDOW, new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+            }
+        });
+        assertThat(cache.get(WINDOW), is("id*:int64,value:string"));
+        assertThat(loader.loads.get(), is(1));
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        SchemaCache cache = new SchemaCache(loader, null);
+        loader.failing = true;
+        try {
+            cache.get(WINDOW);
+            fail("query should fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("esp down"));
+        }
+        loader.failing = false;
+        assertThat(cache.get(WINDOW), is("id*:int64,value:string"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        File snapshot = File.createTempFile("schemas", ".properties");
+        snapshot.delete();
+        try {
+            CountingLoader loader = new CountingLoader();
+            new SchemaCache(loader, snapshot).get(WINDOW);
+            assertThat(snapshot.isFile(), is(true));
+
+            // restart with esp not answering
+            loader.failing = true;
+            SchemaCache restarted = new SchemaCache(loader, snapshot);
+            restarted.loadSnapshot();
+            assertThat(restarted.get(WINDOW), is("id*:int64,value:string"));
+            assertThat(loader.loads.get(), is(1));
+        } finally {
+            snapshot.delete();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class SpillJournalTest {
+
+    private static byte[] bytes(final String data) {
+        return data.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String next(final SpillJournal journal) {
+        SpillJournal.Record record = journal.peek();
+        journal.commit();
+        return new String(record.getData(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testReadInOrderAcrossSegments() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        try (SpillJournal journal = new SpillJournal(dir, 64, 1024)) {
+            for (int i = 0; i < 10; i++) {
+                assertThat(journal.append(bytes("block" + i), i == 9), is(true));
+            }
+            assertThat(journal.getRecords(), is(10L));
+            for (int i = 0; i < 9; i++) {
+                assertThat(next(journal), is("block" + i));
+            }
+            SpillJournal.Record last = journal.peek();
+            assertThat(last.isQuiesce(), is(true));
+            // same record until committed
+            assertThat(journal.peek().getData(), is(last.getData()));
+            journal.commit();
+            assertThat(journal.isEmpty(), is(true));
+            assertThat(journal.peek() == null, is(true));
+            // read segments are deleted
+            assertThat(journal.getBytes(), is(64L));
+        }
+    }
+
+    @Test
+    public void testRecoversFromCheckpoint() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        try (SpillJournal journal = new SpillJournal(dir, 64, 1024)) {
+            for (int i = 0; i < 5; i++) {
+                journal.append(bytes("block" + i), false);
+            }
+            next(journal);
+            next(journal);
+            // read but not committed
+            journal.peek();
+        }
+        try (SpillJournal journal = new SpillJournal(dir, 64, 1024)) {
+            assertThat(journal.getRecords(), is(3L));
+            assertThat(next(journal), is("block2"));
+            journal.append(bytes("block5"), false);
+            assertThat(next(journal), is("block3"));
+            assertThat(next(journal), is("block4"));
+            assertThat(next(journal), is("block5"));
+        }
+    }
+
+    @Test
+    public void testBrokenRecordEndsJournal() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        try (SpillJournal journal = new SpillJournal(dir, 1024, 4096)) {
+            journal.append(bytes("ok"), false);
+            journal.append(bytes("torn"), false);
+        }
+        // damage data of second record (header is 9 bytes)
+        try (RandomAccessFile segment = new RandomAccessFile(new File(dir, "journal-00000000000000000000.seg"), "rw")) {
+            segment.seek(9 + 2 + 9);
+            segment.write('x');
+        }
+        try (SpillJournal journal = new SpillJournal(dir, 1024, 4096)) {
+            assertThat(journal.getRecords(), is(1L));
+            journal.append(bytes("new"), false);
+            assertThat(next(journal), is("ok"));
+            assertThat(next(journal), is("new"));
+        }
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        try (SpillJournal journal = new SpillJournal(dir, 64, 180)) {
+            assertThat(journal.append(new byte[50], false), is(true));
+            assertThat(journal.append(new byte[50], false), is(true));
+            assertThat(journal.append(new byte[50], false), is(false));
+            // a large record gets a segment of its own size
+            next(journal);
+            next(journal);
+            assertThat(journal.append(new byte[100], false), is(true));
+        }
+    }
+
+    @Test
+    public void testDirectoryUsedOnce() throws Exception {
+        File dir = Files.createTempDirectory("journal").toFile();
+        try (SpillJournal journal = new SpillJournal(dir, 64, 1024)) {
+            new SpillJournal(dir, 64, 1024);
+            fail("second journal on same directory");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage().contains("used by another producer"), is(true));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.sas.esp.api.server.ReferenceIMPL.dfESPevent;
+import com.sas.esp.api.server.ReferenceIMPL.dfESPschema;
+import com.sas.esp.api.server.event.EventOpcodes;
+
+public class StructuredEventBuilderTest {
+
+    private static final String SCHEMA = "ID*:int64,IMSI:string,BYTES_UP:int32,RATE:double";
+
+    /**
+     * Pojo as sent by a route.
+     */
+    static class Usage {
+        @EspField("IMSI")
+        private final String subscriber;
+        private long id;
+        private int bytesUp;
+
+        Usage(final long id, final String subscriber, final int bytesUp) {
+            this.id = id;
+            this.subscriber = subscriber;
+            this.bytesUp = bytesUp;
+        }
+    }
+
+    /**
+     * Pojo inheriting the annotated fields.
+     */
+    static class RoamingUsage extends Usage {
+        private String country;
+
+        RoamingUsage(final long id, final String subscriber, final int bytesUp) {
+            super(id, subscriber, bytesUp);
+        }
+    }
+
+    /**
+     * Pojo without annotated fields - not a record.
+     */
+    static class Plain {
+        private long id;
+    }
+
+    @Test
+    public void testMapAndArray() throws Exception {
+        dfESPschema schema = new dfESPschema(SCHEMA);
+        StructuredEventBuilder builder = new StructuredEventBuilder(schema, Mode.upsert, IdGenerator.sequence);
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("imsi", "262,\"01\"");
+        record.put("bytesUp", 7L);
+        record.put("ID", "42");
+        record.put("UNKNOWN", 1);
+        dfESPevent event = builder.build(record, null);
+        assertThat(event.getOpcode(), is(EventOpcodes.eo_UPSERT));
+        assertThat(event.copyByIntID(schema, 0), is((Object) 42L));
+        // no csv - commas and quotes are kept
+        assertThat(event.copyByIntID(schema, 1), is((Object) "262,\"01\""));
+        assertThat(event.copyByIntID(schema, 2), is((Object) 7));
+        assertThat(event.copyByIntID(schema, 3) == null, is(true));
+
+        event = builder.build(new Object[] {1, "a", 2, 0.5f }, null);
+        assertThat(event.copyByIntID(schema, 0), is((Object) 1L));
+        assertThat(event.copyByIntID(schema, 3), is((Object) 0.5d));
+    }
+
+    @Test
+    public void testAnnotatedPojo() throws Exception {
+        dfESPschema schema = new dfESPschema(SCHEMA);
+        StructuredEventBuilder builder = new StructuredEventBuilder(schema, Mode.dynamic, IdGenerator.sequence);
+        Usage usage = new Usage(5, "262", 100);
+        assertThat(StructuredEventBuilder.isStructured(Arrays.asList(usage)), is(true));
+        dfESPevent event = builder.build(usage, StructuredEventBuilder.toOpcode("delete"));
+        assertThat(event.getOpcode(), is(EventOpcodes.eo_DELETE));
+        assertThat(event.copyByIntID(schema, 0), is((Object) 5L));
+        assertThat(event.copyByIntID(schema, 1), is((Object) "262"));
+        assertThat(event.copyByIntID(schema, 2), is((Object) 100));
+    }
+
+    @Test
+    public void testNotStructured() {
+        assertThat(StructuredEventBuilder.isStructured("1,a,2,0.5\n"), is(false));
+        assertThat(StructuredEventBuilder.isStructured(new byte[0]), is(false));
+        assertThat(StructuredEventBuilder.isStructured(new StringBuilder()), is(false));
+        assertThat(StructuredEventBuilder.isStructured(new Plain()), is(false));
+    }
+
+    @Test
+    public void testAnnotationOfSuperclassMakesRecord() {
+        assertThat(StructuredEventBuilder.isStructured(new RoamingUsage(1, "262011234", 100)), is(true));
+    }
+}
@@ -0,0 +1,41 @@
+package com.sas.o2.cep;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ValueHistogramTest {
+
+    @Test
+    public void testPercentiles() {
+        ValueHistogram histogram = new ValueHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.getCount(), is(1000L));
+        assertThat(histogram.getMax(), is(1000L));
+        // buckets are precise to about 6%
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue("median was " + median, median >= 500 && median <= 530);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue("p99 was " + p99, p99 >= 990 && p99 <= 1000);
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[] {0, 15, 16, 17, 31, 32, 1000, Long.MAX_VALUE }) {
+            assertTrue(ValueHistogram.highestValue(ValueHistogram.bucket(value)) >= value);
+        }
+    }
+
+    @Test
+    public void testReset() {
+        ValueHistogram histogram = new ValueHistogram();
+        histogram.record(42);
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getValueAtPercentile(99), is(0L));
+    }
+}